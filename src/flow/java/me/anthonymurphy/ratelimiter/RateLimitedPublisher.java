@@ -0,0 +1,275 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.math.LongMath;
+import me.anthonymurphy.ratelimiter.RateLimitedPublisherBuilder.Overflow;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Publisher that limits the rate elements are published at by an upstream {@link Flow.Publisher} with a
+ * {@link TokenBucket}
+ *
+ * With {@link Overflow#DELAY} the tokens for elements are consumed before they are requested from upstream, so
+ * downstream demand is only passed on as the bucket allows and the pipeline stays backpressured: elements wait upstream
+ * rather than being buffered or dropped here. Once the bucket is empty a single task is scheduled for its next refill,
+ * nothing polls the bucket and nothing is scheduled per element. With {@link Overflow#DROP} downstream demand is passed
+ * on as is, a token is consumed as each element arrives and elements that find the bucket empty are dropped and
+ * replaced with a request for another.
+ *
+ * Demand is signalled upstream in batches, no more than a batch is outstanding at a time and more is only requested
+ * once no more than half a batch is. Tokens for elements requested but never published, because the subscription was
+ * cancelled or upstream terminated first, are refunded to the bucket.
+ *
+ * Every subscriber takes tokens from the same bucket. The refill task runs on the scheduler, so an upstream that
+ * publishes synchronously as elements are requested publishes on the scheduler's thread, give slow subscribers a
+ * scheduler of their own.
+ */
+
+public class RateLimitedPublisher<T> implements Flow.Publisher<T> {
+
+    // Lower bound on the time between attempts, in case the refill time is reached before the tokens are
+    private static final long MINIMUM_DELAY_IN_NANOSECONDS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final Flow.Publisher<T> upstream;
+    private final TokenBucket bucket;
+    private final Ticker ticker;
+    private final long epochOffset;
+    private final ScheduledExecutorService scheduler;
+    private final Overflow overflow;
+    private final long batchSize;
+    private final LongAdder dropped = new LongAdder();
+
+    RateLimitedPublisher(Flow.Publisher<T> upstream, TokenBucket bucket, Ticker ticker,
+                         ScheduledExecutorService scheduler, Overflow overflow, long batchSize) {
+        checkArgument(batchSize > 0, "Batch size must be greater than 0");
+        this.upstream = checkNotNull(upstream, "Publisher must be set");
+        this.bucket = checkNotNull(bucket, "TokenBucket must be set");
+        this.ticker = checkNotNull(ticker, "Ticker must be set");
+        this.scheduler = checkNotNull(scheduler, "Scheduler must be set");
+        this.overflow = checkNotNull(overflow, "Overflow must be set");
+        this.batchSize = batchSize;
+        this.epochOffset = Tickers.epochOffset(ticker);
+    }
+
+    @Override
+    public void subscribe(Flow.Subscriber<? super T> subscriber) {
+        checkNotNull(subscriber, "Subscriber must be set");
+        upstream.subscribe(new LimitedSubscription(subscriber));
+    }
+
+    /*
+        Returns the number of elements dropped because the bucket was empty, always 0 unless overflowing elements are
+        dropped
+
+        @return number of elements dropped across every subscriber
+     */
+    public long getDroppedCount() {
+        return dropped.sum();
+    }
+
+    TokenBucket getBucket() {
+        return bucket;
+    }
+
+    /*
+        Subscribes to upstream for one downstream subscriber. Requests from downstream, elements from upstream and the
+        refill task may arrive on different threads at once, each calls drain and whichever gets there first requests
+        from upstream on behalf of the others. Only one terminal signal goes downstream, and the error for an invalid
+        request is held back until an onNext in progress on another thread has returned
+     */
+    private final class LimitedSubscription implements Flow.Subscriber<T>, Flow.Subscription {
+
+        private final Flow.Subscriber<? super T> downstream;
+        // Elements downstream has requested and not yet been sent, Long.MAX_VALUE is unbounded
+        private final AtomicLong requested = new AtomicLong();
+        // Elements requested from upstream and not yet published
+        private final AtomicLong outstanding = new AtomicLong();
+        private final AtomicInteger drains = new AtomicInteger();
+        private final AtomicBoolean refillScheduled = new AtomicBoolean();
+        private final AtomicBoolean done = new AtomicBoolean();
+        // Signals to downstream in progress, an error raised while onNext is in progress is signalled when it returns
+        private final AtomicInteger emitting = new AtomicInteger();
+        private volatile Throwable invalidRequest;
+        private volatile Flow.Subscription subscription;
+        private volatile boolean cancelled;
+
+        LimitedSubscription(Flow.Subscriber<? super T> downstream) {
+            this.downstream = downstream;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            downstream.onSubscribe(this);
+        }
+
+        @Override
+        public void onNext(T item) {
+            if (cancelled || done.get()) {
+                return;
+            }
+            boolean published = overflow != Overflow.DROP || bucket.consume();
+            // Requested goes down before outstanding, so a drain on another thread that sees the element is no longer
+            // outstanding also sees it is no longer requested, and does not ask upstream for one too many
+            if (published && requested.get() != Long.MAX_VALUE) {
+                requested.decrementAndGet();
+            }
+            long inFlight = outstanding.decrementAndGet();
+            if (published) {
+                publish(item);
+            } else {
+                dropped.increment();
+            }
+            if (inFlight <= batchSize / 2) {
+                drain();
+            }
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            if (terminate()) {
+                downstream.onError(throwable);
+            }
+        }
+
+        @Override
+        public void onComplete() {
+            if (terminate()) {
+                downstream.onComplete();
+            }
+        }
+
+        @Override
+        public void request(long n) {
+            if (n <= 0) {
+                if (terminate()) {
+                    cancel();
+                    signalInvalidRequest(new IllegalArgumentException("Requested elements must be greater than 0"));
+                }
+                return;
+            }
+            requested.accumulateAndGet(n, LongMath::saturatedAdd);
+            drain();
+        }
+
+        @Override
+        public void cancel() {
+            if (!cancelled) {
+                cancelled = true;
+                subscription.cancel();
+                refundOutstanding();
+            }
+        }
+
+        /*
+            Requests more from upstream on this thread unless another thread is already, in which case that thread
+            goes round again once it has finished
+         */
+        private void drain() {
+            if (drains.getAndIncrement() != 0) {
+                return;
+            }
+            int missed = 1;
+            do {
+                requestUpstream();
+                missed = drains.addAndGet(-missed);
+            } while (missed != 0);
+        }
+
+        /*
+            Tops up the elements outstanding to a batch, or what downstream has requested if that is fewer, once no more
+            than half a batch is outstanding. Delayed elements are only requested once their tokens have been consumed,
+            if the bucket does not cover them all the rest are requested when it next refills
+         */
+        private void requestUpstream() {
+            long inFlight = outstanding.get();
+            if (cancelled || done.get() || inFlight > batchSize / 2) {
+                return;
+            }
+            long wanted = Math.min(requested.get(), batchSize) - inFlight;
+            if (wanted <= 0) {
+                return;
+            }
+            long granted = wanted;
+            if (overflow == Overflow.DELAY) {
+                granted = bucket.consumeUpTo(wanted);
+                if (granted < wanted) {
+                    scheduleRefill();
+                }
+                if (granted == 0) {
+                    return;
+                }
+            }
+            outstanding.addAndGet(granted);
+            // Cancelled or terminated since the tokens were consumed, the refund may have missed them
+            if (cancelled || done.get()) {
+                refundOutstanding();
+                return;
+            }
+            subscription.request(granted);
+        }
+
+        private void scheduleRefill() {
+            if (refillScheduled.compareAndSet(false, true)) {
+                long now = ticker.read() + epochOffset;
+                long delay = Tickers.toEpochNanos(bucket.getNextRefillTime()) - now;
+                scheduler.schedule(this::refilled, Math.max(delay, MINIMUM_DELAY_IN_NANOSECONDS),
+                        TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void refilled() {
+            refillScheduled.set(false);
+            drain();
+        }
+
+        /*
+            @return {@code true} if downstream is to be told upstream terminated
+         */
+        private boolean terminate() {
+            if (!done.compareAndSet(false, true)) {
+                return false;
+            }
+            refundOutstanding();
+            return !cancelled;
+        }
+
+        /*
+            Passes the element on unless the subscription has failed, in which case the error is signalled instead if
+            it was raised while the element was being passed on
+         */
+        private void publish(T item) {
+            if (emitting.getAndIncrement() != 0) {
+                return;
+            }
+            downstream.onNext(item);
+            if (emitting.decrementAndGet() != 0) {
+                downstream.onError(invalidRequest);
+            }
+        }
+
+        private void signalInvalidRequest(Throwable error) {
+            invalidRequest = error;
+            if (emitting.getAndIncrement() == 0) {
+                downstream.onError(error);
+            }
+        }
+
+        private void refundOutstanding() {
+            long unused = outstanding.getAndSet(0);
+            if (overflow == Overflow.DELAY && unused > 0) {
+                bucket.refund(unused);
+            }
+        }
+    }
+}
@@ -0,0 +1,77 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+public final class RateLimitedPublisherBuilder {
+
+    static final long DEFAULT_BATCH_SIZE = 64;
+
+    private RateLimitedPublisherBuilder() { }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    /**
+     * What a built publisher does with elements once the bucket is empty
+     */
+    public enum Overflow {
+        /** Upstream is asked for no more elements than there are tokens, the rest wait for the bucket to refill */
+        DELAY,
+        /** Downstream demand is passed upstream as is, elements that arrive while the bucket is empty are dropped */
+        DROP
+    }
+
+    public static class Builder {
+        private TokenBucketBuilder.Builder tokenBucketBuilder = null;
+        private Overflow overflow = Overflow.DELAY;
+        private long batchSize = DEFAULT_BATCH_SIZE;
+        private ScheduledExecutorService scheduler = null;
+
+        /*
+            Sets the bucket that limits the rate elements are published at, built once and shared by every subscriber
+         */
+        public Builder withTokenBucket(TokenBucketBuilder.Builder tokenBucketBuilder) {
+            this.tokenBucketBuilder = tokenBucketBuilder;
+            return this;
+        }
+
+        public Builder withOverflow(Overflow overflow) {
+            this.overflow = overflow;
+            return this;
+        }
+
+        /*
+            Sets the most elements requested from upstream at a time, more are only requested once no more than half
+            a batch is outstanding
+         */
+        public Builder withBatchSize(long batchSize) {
+            checkArgument(batchSize > 0, "Batch size must be greater than 0");
+            this.batchSize = batchSize;
+            return this;
+        }
+
+        /*
+            Sets the scheduler that requests more elements once the bucket refills, by default the single thread
+            shared with shaping buckets
+         */
+        public Builder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        public <T> RateLimitedPublisher<T> build(Flow.Publisher<T> upstream) {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkNotNull(this.overflow, "Overflow must be specified");
+            return new RateLimitedPublisher<>(upstream, tokenBucketBuilder.build(), tokenBucketBuilder.buildTicker(),
+                    scheduler != null ? scheduler : ShapingTokenBucket.SharedScheduler.INSTANCE, overflow, batchSize);
+        }
+    }
+
+
+}
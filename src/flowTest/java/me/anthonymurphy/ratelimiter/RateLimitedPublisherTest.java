@@ -0,0 +1,372 @@
+package me.anthonymurphy.ratelimiter;
+
+import me.anthonymurphy.ratelimiter.RateLimitedPublisherBuilder.Overflow;
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.Flow;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.SubmissionPublisher;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.any;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.never;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.times;
+import static org.mockito.Mockito.verify;
+
+public class RateLimitedPublisherTest {
+
+    private FakeTicker ticker;
+    private ScheduledExecutorService scheduler;
+    private TokenBucketBuilder.Builder tokenBucketBuilder;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        scheduler = mock(ScheduledExecutorService.class);
+        // 10 elements a second
+        tokenBucketBuilder = TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.SECONDS)
+                .withTicker(ticker);
+    }
+
+    @Test
+    public void testRequestsNoMoreElementsThanTokens() {
+        RangePublisher upstream = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        build(Overflow.DELAY, 64, upstream).subscribe(subscriber);
+
+        assertEquals(10, subscriber.items.size());
+        assertEquals(List.of(10L), upstream.requests);
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testDelayedElementsAreRequestedWhenTheBucketRefills() {
+        RangePublisher upstream = new RangePublisher(25);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        RateLimitedPublisher<Integer> publisher = build(Overflow.DELAY, 64, upstream);
+        publisher.subscribe(subscriber);
+
+        // A single task for the next refill, rather than one per element
+        Runnable refill = scheduledRefill(1);
+        // The bucket refills just after the end of the period
+        ticker.advance(1001, TimeUnit.MILLISECONDS);
+        refill.run();
+        assertEquals(20, subscriber.items.size());
+
+        refill = scheduledRefill(2);
+        ticker.advance(1000, TimeUnit.MILLISECONDS);
+        refill.run();
+        assertEquals(25, subscriber.items.size());
+        assertTrue(subscriber.completed);
+        assertEquals(List.of(10L, 10L, 10L), upstream.requests);
+        // The tokens for the elements upstream did not have are refunded
+        assertEquals(5, publisher.getBucket().getAvailableTokens());
+    }
+
+    @Test
+    public void testDemandIsSignalledInBatches() {
+        tokenBucketBuilder.withCapacity(1000);
+        RangePublisher upstream = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE);
+        build(Overflow.DELAY, 16, upstream).subscribe(subscriber);
+
+        assertEquals(100, subscriber.items.size());
+        assertTrue(subscriber.completed);
+        assertTrue(upstream.requests.size() <= 100 / 8);
+        assertTrue(upstream.requests.stream().allMatch(n -> n <= 16));
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testNoMoreThanDownstreamDemandIsRequested() {
+        RangePublisher upstream = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber(3);
+        RateLimitedPublisher<Integer> publisher = build(Overflow.DELAY, 64, upstream);
+        publisher.subscribe(subscriber);
+
+        assertEquals(List.of(0, 1, 2), subscriber.items);
+        assertEquals(List.of(3L), upstream.requests);
+        // Only the requested elements took tokens
+        assertEquals(7, publisher.getBucket().getAvailableTokens());
+    }
+
+    @Test
+    public void testDropModeDropsElementsOnceTheBucketIsEmpty() {
+        RangePublisher upstream = new RangePublisher(25);
+        RecordingSubscriber subscriber = new RecordingSubscriber(12);
+        RateLimitedPublisher<Integer> publisher = build(Overflow.DROP, 64, upstream);
+        publisher.subscribe(subscriber);
+
+        // Dropped elements do not count against demand, more are requested in their place until upstream runs out
+        assertEquals(10, subscriber.items.size());
+        assertEquals(15, publisher.getDroppedCount());
+        assertTrue(subscriber.completed);
+        verify(scheduler, never()).schedule(any(Runnable.class), anyLong(), any(TimeUnit.class));
+    }
+
+    @Test
+    public void testCancelRefundsTokensForElementsNotPublished() {
+        RangePublisher upstream = new RangePublisher(100);
+        upstream.paused = true;
+        RecordingSubscriber subscriber = new RecordingSubscriber(5);
+        RateLimitedPublisher<Integer> publisher = build(Overflow.DELAY, 64, upstream);
+        publisher.subscribe(subscriber);
+        assertEquals(5, publisher.getBucket().getAvailableTokens());
+
+        subscriber.subscription.cancel();
+        assertTrue(upstream.cancelled);
+        assertEquals(10, publisher.getBucket().getAvailableTokens());
+    }
+
+    @Test
+    public void testCancelWhileRequestingRefundsTokens() {
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        // Cancels after the tokens are consumed and before the elements are counted as outstanding
+        TokenBucket bucket = spy(tokenBucketBuilder.build());
+        doAnswer(invocation -> {
+            Object consumed = invocation.callRealMethod();
+            subscriber.subscription.cancel();
+            return consumed;
+        }).when(bucket).consumeUpTo(anyLong());
+        RangePublisher upstream = new RangePublisher(100);
+        new RateLimitedPublisher<>(upstream, bucket, ticker, scheduler, Overflow.DELAY, 64)
+                .subscribe(subscriber);
+
+        subscriber.subscription.request(5);
+        assertTrue(upstream.cancelled);
+        assertTrue(upstream.requests.isEmpty());
+        assertEquals(10, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testErrorIsPassedOn() {
+        Flow.Publisher<Integer> upstream = subscriber -> subscriber.onSubscribe(new Flow.Subscription() {
+            @Override
+            public void request(long n) {
+                subscriber.onError(new IllegalStateException("failed"));
+            }
+
+            @Override
+            public void cancel() { }
+        });
+        RecordingSubscriber subscriber = new RecordingSubscriber(1);
+        build(Overflow.DELAY, 64, upstream).subscribe(subscriber);
+        assertTrue(subscriber.error instanceof IllegalStateException);
+    }
+
+    @Test
+    public void testRequestingNoElementsIsAnError() {
+        RangePublisher upstream = new RangePublisher(100);
+        RecordingSubscriber subscriber = new RecordingSubscriber(0);
+        build(Overflow.DELAY, 64, upstream).subscribe(subscriber);
+        assertNull(subscriber.error);
+
+        subscriber.subscription.request(0);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertTrue(upstream.cancelled);
+    }
+
+    @Test
+    public void testInvalidRequestDuringOnNextIsSignalledOnceOnNextReturns() throws Exception {
+        RangePublisher upstream = new RangePublisher(100);
+        CountDownLatch inOnNext = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicInteger errors = new AtomicInteger();
+        RecordingSubscriber subscriber = new RecordingSubscriber(1) {
+            @Override
+            public void onNext(Integer item) {
+                inOnNext.countDown();
+                try {
+                    release.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                super.onNext(item);
+            }
+
+            @Override
+            public void onError(Throwable throwable) {
+                errors.incrementAndGet();
+                super.onError(throwable);
+            }
+        };
+        RateLimitedPublisher<Integer> publisher = build(Overflow.DELAY, 64, upstream);
+        // Upstream publishes on the thread that subscribes
+        Thread publishing = new Thread(() -> publisher.subscribe(subscriber));
+        publishing.start();
+        assertTrue(inOnNext.await(5, TimeUnit.SECONDS));
+
+        subscriber.subscription.request(0);
+        subscriber.subscription.request(-1);
+        assertNull(subscriber.error);
+
+        release.countDown();
+        publishing.join();
+        assertEquals(List.of(0), subscriber.items);
+        assertTrue(subscriber.error instanceof IllegalArgumentException);
+        assertEquals(1, errors.get());
+        assertFalse(subscriber.completed);
+    }
+
+    @Test
+    public void testLimitsAnAsynchronousPublisher() throws Exception {
+        // Refills are timed from when the bucket is built
+        long start = System.nanoTime();
+        SubmissionPublisher<Integer> upstream = new SubmissionPublisher<>();
+        RateLimitedPublisher<Integer> publisher = RateLimitedPublisherBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(50)
+                        .withPeriod(20)
+                        .withTimeUnit(TimeUnit.MILLISECONDS))
+                .withBatchSize(8)
+                .build(upstream);
+
+        CompletableFuture<Void> consumed = new CompletableFuture<>();
+        RecordingSubscriber subscriber = new RecordingSubscriber(Long.MAX_VALUE) {
+            @Override
+            public void onComplete() {
+                consumed.complete(null);
+            }
+        };
+        publisher.subscribe(subscriber);
+        CompletableFuture.runAsync(() -> {
+            for (int i = 0; i < 200; i++) {
+                upstream.submit(i);
+            }
+            upstream.close();
+        });
+
+        consumed.get(5, TimeUnit.SECONDS);
+        // 50 elements per period, so publishing 200 waits for three refills
+        assertEquals(200, subscriber.items.size());
+        assertTrue(System.nanoTime() - start >= TimeUnit.MILLISECONDS.toNanos(3 * 20));
+    }
+
+    @Test(expected = NullPointerException.class)
+    public void testBuildWithoutTokenBucket() {
+        RateLimitedPublisherBuilder.builder().build(new RangePublisher(1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testInvalidBatchSize() {
+        RateLimitedPublisherBuilder.builder().withBatchSize(0);
+    }
+
+    private RateLimitedPublisher<Integer> build(Overflow overflow, long batchSize, Flow.Publisher<Integer> upstream) {
+        return RateLimitedPublisherBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withOverflow(overflow)
+                .withBatchSize(batchSize)
+                .withScheduler(scheduler)
+                .build(upstream);
+    }
+
+    private Runnable scheduledRefill(int scheduled) {
+        ArgumentCaptor<Runnable> refill = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler, times(scheduled)).schedule(refill.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+        return refill.getValue();
+    }
+
+    /**
+     * Publishes the integers from 0 synchronously as they are requested, and records the requests
+     */
+    private static final class RangePublisher implements Flow.Publisher<Integer> {
+
+        final List<Long> requests = new ArrayList<>();
+        final int count;
+        boolean paused;
+        boolean cancelled;
+
+        RangePublisher(int count) {
+            this.count = count;
+        }
+
+        @Override
+        public void subscribe(Flow.Subscriber<? super Integer> subscriber) {
+            subscriber.onSubscribe(new Flow.Subscription() {
+                private long demand;
+                private int next;
+                private boolean emitting;
+
+                @Override
+                public void request(long n) {
+                    requests.add(n);
+                    demand += n;
+                    if (emitting || paused) {
+                        return;
+                    }
+                    emitting = true;
+                    while (demand > 0 && next < count && !cancelled) {
+                        demand--;
+                        subscriber.onNext(next++);
+                    }
+                    emitting = false;
+                    if (next == count && !cancelled) {
+                        subscriber.onComplete();
+                    }
+                }
+
+                @Override
+                public void cancel() {
+                    cancelled = true;
+                }
+            });
+        }
+    }
+
+    private static class RecordingSubscriber implements Flow.Subscriber<Integer> {
+
+        final List<Integer> items = new CopyOnWriteArrayList<>();
+        final long initialRequest;
+        volatile Flow.Subscription subscription;
+        volatile Throwable error;
+        volatile boolean completed;
+
+        RecordingSubscriber(long initialRequest) {
+            this.initialRequest = initialRequest;
+        }
+
+        @Override
+        public void onSubscribe(Flow.Subscription subscription) {
+            this.subscription = subscription;
+            if (initialRequest > 0) {
+                subscription.request(initialRequest);
+            }
+        }
+
+        @Override
+        public void onNext(Integer item) {
+            items.add(item);
+        }
+
+        @Override
+        public void onError(Throwable throwable) {
+            error = throwable;
+        }
+
+        @Override
+        public void onComplete() {
+            completed = true;
+        }
+    }
+}
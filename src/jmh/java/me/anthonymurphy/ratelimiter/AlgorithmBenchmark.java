@@ -0,0 +1,65 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decision latency and memory per client of the token bucket compared with the sliding window algorithms
+ *
+ * {@link #decide()} times a single request against a bucket that lets through about one request in ten, so both the
+ * allow and the deny paths are measured. {@link #newClient()} builds and fills a bucket, run with the gc profiler its
+ * gc.alloc.rate.norm is the memory a full client takes.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class AlgorithmBenchmark {
+
+    @Param({"TOKEN_BUCKET", "SLIDING_WINDOW_COUNTER", "SLIDING_WINDOW_LOG"})
+    TokenBucketBuilder.Algorithm algorithm;
+
+    @Param({"100"})
+    long capacity;
+
+    private TokenBucketBuilder.Builder builder;
+    private TokenBucket bucket;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        builder = TokenBucketBuilder.builder()
+                .withCapacity(capacity)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.MILLISECONDS)
+                .withGreedyRefill(algorithm == TokenBucketBuilder.Algorithm.TOKEN_BUCKET)
+                .withAlgorithm(algorithm);
+        bucket = builder.build();
+    }
+
+    @Benchmark
+    public boolean decide() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    public TokenBucket newClient() {
+        TokenBucket client = builder.build();
+        client.consumeUpTo(capacity);
+        return client;
+    }
+}
@@ -0,0 +1,84 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of a request to a {@link StripedRateLimiter} from a client identified by an IPv4 address, given as the String a
+ * caller would format from a socket address, as the address's bytes in a buffer, as an int, and as an int keyed by
+ * its /24 network
+ *
+ * With the gc profiler the String case reports the allocation of formatting the address, the others allocate nothing.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientKeyBenchmark {
+
+    private static final int ADDRESSES = 1 << 16;
+
+    private StripedRateLimiter rateLimiter;
+    private int[] addresses;
+    private ByteBuffer addressBytes;
+    private int next;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(1_000_000)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS))
+                .withMaximumClients(4 * ADDRESSES)
+                .buildStriped();
+        addresses = new int[ADDRESSES];
+        addressBytes = ByteBuffer.allocate(Integer.BYTES);
+        for (int i = 0; i < ADDRESSES; i++) {
+            addresses[i] = 0x0A000000 | i * 0x9E37 & 0xFFFFFF;
+        }
+    }
+
+    @Benchmark
+    public boolean formattedString() {
+        int address = nextAddress();
+        String clientId = (address >>> 24) + "." + (address >>> 16 & 0xFF) + "." + (address >>> 8 & 0xFF) + "."
+                + (address & 0xFF);
+        return rateLimiter.allowRequest(clientId);
+    }
+
+    @Benchmark
+    public boolean bytes() {
+        addressBytes.putInt(0, nextAddress());
+        return rateLimiter.allowRequest(addressBytes);
+    }
+
+    @Benchmark
+    public boolean ipv4() {
+        return rateLimiter.allowIpv4Request(nextAddress());
+    }
+
+    @Benchmark
+    public boolean ipv4Network() {
+        return rateLimiter.allowRequest(ClientIds.ipv4(nextAddress(), 24));
+    }
+
+    private int nextAddress() {
+        return addresses[next++ & (ADDRESSES - 1)];
+    }
+}
@@ -0,0 +1,85 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Random;
+
+/**
+ * Pre-generated sequences of client ids, so that choosing the next client is not part of the measured work
+ */
+
+public final class ClientKeys {
+
+    private static final int SEQUENCE_LENGTH = 1 << 16;
+    private static final double ZIPF_EXPONENT = 0.99;
+
+    public enum Distribution {
+        SINGLE, UNIFORM, ZIPFIAN
+    }
+
+    private ClientKeys() { }
+
+    static String[] clientIds(int count) {
+        String[] clientIds = new String[count];
+        for (int i = 0; i < count; i++) {
+            clientIds[i] = "client-" + i;
+        }
+        return clientIds;
+    }
+
+    /*
+        Returns a sequence of client ids drawn from the given distribution, the length of the sequence is a power of
+        two so callers can cycle through it with a mask
+
+        @param clientIds client ids to draw from
+        @param distribution how often each client id occurs in the sequence
+        @param seed seed for the random number generator, one per benchmark thread
+        @return sequence of client ids
+     */
+    static String[] sequence(String[] clientIds, Distribution distribution, long seed) {
+        Random random = new Random(seed);
+        double[] zipfCumulativeProbabilities = distribution == Distribution.ZIPFIAN ? zipf(clientIds.length) : null;
+        String[] sequence = new String[SEQUENCE_LENGTH];
+        for (int i = 0; i < SEQUENCE_LENGTH; i++) {
+            switch (distribution) {
+                case SINGLE:
+                    sequence[i] = clientIds[0];
+                    break;
+                case UNIFORM:
+                    sequence[i] = clientIds[random.nextInt(clientIds.length)];
+                    break;
+                case ZIPFIAN:
+                    sequence[i] = clientIds[search(zipfCumulativeProbabilities, random.nextDouble())];
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown distribution " + distribution);
+            }
+        }
+        return sequence;
+    }
+
+    private static double[] zipf(int count) {
+        double[] cumulative = new double[count];
+        double sum = 0;
+        for (int rank = 1; rank <= count; rank++) {
+            sum += 1 / Math.pow(rank, ZIPF_EXPONENT);
+            cumulative[rank - 1] = sum;
+        }
+        for (int i = 0; i < count; i++) {
+            cumulative[i] /= sum;
+        }
+        return cumulative;
+    }
+
+    private static int search(double[] cumulative, double probability) {
+        int low = 0;
+        int high = cumulative.length - 1;
+        while (low < high) {
+            int mid = (low + high) >>> 1;
+            if (cumulative[mid] < probability) {
+                low = mid + 1;
+            } else {
+                high = mid;
+            }
+        }
+        return low;
+    }
+}
@@ -0,0 +1,104 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * Cost of the first request from a client, which loads a new TokenBucket into the client cache through the
+ * {@code CacheLoader}
+ *
+ * Clients can be given a bucket from a TokenBucketBuilder, from a policy resolver that takes {@code resolverMicros} to
+ * answer, as a remote lookup would, on the requesting thread, or from the same resolver run asynchronously, where the
+ * first request is decided with the default policy.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Thread)
+public class ClientLoadingBenchmark {
+
+    private static final int CLIENTS_PER_INVOCATION = 1024;
+
+    @Param({"BUILDER", "RESOLVER", "ASYNC_RESOLVER"})
+    String loading;
+
+    @Param({"100"})
+    long resolverMicros;
+
+    private String[] clientIds;
+    private RateLimiter rateLimiter;
+    private RateLimitingPolicy defaultPolicy;
+    private ExecutorService resolverExecutor;
+
+    @Setup(Level.Trial)
+    public void setUpClientIds() {
+        clientIds = ClientKeys.clientIds(CLIENTS_PER_INVOCATION);
+        defaultPolicy = TokenBucketBuilder.builder()
+                .withCapacity(60)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .buildPolicy();
+        resolverExecutor = Executors.newFixedThreadPool(4);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        resolverExecutor.shutdownNow();
+    }
+
+    @Setup(Level.Invocation)
+    public void setUpRateLimiter() {
+        PolicyResolver slowResolver = clientId -> {
+            LockSupport.parkNanos(TimeUnit.MICROSECONDS.toNanos(resolverMicros));
+            return defaultPolicy;
+        };
+        switch (loading) {
+            case "BUILDER":
+                rateLimiter = new RateLimiterImpl(60, 1, TimeUnit.HOURS);
+                break;
+            case "RESOLVER":
+                rateLimiter = RateLimiterBuilder.builder().withPolicyResolver(slowResolver).build();
+                break;
+            case "ASYNC_RESOLVER":
+                rateLimiter = RateLimiterBuilder.builder()
+                        .withPolicyResolver(slowResolver)
+                        .withAsyncPolicyResolution(defaultPolicy, resolverExecutor)
+                        .build();
+                break;
+            default:
+                throw new IllegalArgumentException("Unknown loading " + loading);
+        }
+    }
+
+    @Benchmark
+    @OperationsPerInvocation(CLIENTS_PER_INVOCATION)
+    public int allowRequestFromNewClients() {
+        int allowed = 0;
+        for (String clientId : clientIds) {
+            if (rateLimiter.allowRequest(clientId)) {
+                allowed++;
+            }
+        }
+        return allowed;
+    }
+}
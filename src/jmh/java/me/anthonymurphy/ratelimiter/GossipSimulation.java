@@ -0,0 +1,112 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.util.List;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs several {@link GossipRateLimiter} nodes in one JVM on simulated time and reports how far they over-admit, for a
+ * range of exchange intervals
+ *
+ * Every client sends twice as many requests as its limit allows, each to a node chosen at random, so a single shared
+ * bucket would allow each client exactly its capacity plus what it earns over the run. The over-admission error is how
+ * many more requests the nodes allowed between them, as a percentage of that, over the whole run and in the worst
+ * single period, which is usually the first, before any reports have arrived. Reports are delivered instantly by an
+ * {@link InMemoryGossipTransport}, so the error comes from the exchange interval alone.
+ *
+ * Run with {@code ./gradlew gossipSimulation}.
+ */
+
+public final class GossipSimulation {
+
+    private static final int NODES = 4;
+    private static final int CLIENTS = 100;
+    private static final long CAPACITY = 100;
+    private static final long PERIOD_IN_MILLISECONDS = 1_000;
+    private static final long DURATION_IN_MILLISECONDS = 60_000;
+    private static final long[] EXCHANGE_INTERVALS_IN_MILLISECONDS = {10, 50, 100, 250, 500, 1_000, 5_000};
+
+    private GossipSimulation() { }
+
+    public static void main(String[] args) {
+        System.out.printf("%d nodes, %d clients, capacity %d per %d ms, %d ms simulated%n", NODES, CLIENTS, CAPACITY,
+                PERIOD_IN_MILLISECONDS, DURATION_IN_MILLISECONDS);
+        System.out.printf("%20s %12s %12s %12s %12s %14s%n", "exchange interval", "requests", "allowed", "limit",
+                "error", "worst period");
+        for (long interval : EXCHANGE_INTERVALS_IN_MILLISECONDS) {
+            Result result = simulate(interval);
+            System.out.printf("%17d ms %12d %12d %12d %11.2f%% %13.2f%%%n", interval, result.requests,
+                    result.allowed, result.limit, 100.0 * (result.allowed - result.limit) / result.limit,
+                    100.0 * result.worstPeriodError);
+        }
+    }
+
+    static Result simulate(long exchangeIntervalInMilliseconds) {
+        SimulatedTicker ticker = new SimulatedTicker();
+        List<InMemoryGossipTransport> network = InMemoryGossipTransport.network(NODES);
+        GossipRateLimiter[] nodes = new GossipRateLimiter[NODES];
+        for (int i = 0; i < NODES; i++) {
+            nodes[i] = RateLimiterBuilder.builder()
+                    .withTokenBucket(TokenBucketBuilder.builder()
+                            .withCapacity(CAPACITY)
+                            .withPeriod(PERIOD_IN_MILLISECONDS)
+                            .withTimeUnit(TimeUnit.MILLISECONDS)
+                            .withGreedyRefill(true)
+                            .withTicker(ticker))
+                    .buildGossip(network.get(i));
+        }
+
+        String[] clientIds = ClientKeys.clientIds(CLIENTS);
+        Random random = new Random(1);
+        // Twice the rate a client is allowed, in requests per millisecond
+        double demand = 2.0 * CAPACITY / PERIOD_IN_MILLISECONDS;
+        Result result = new Result();
+        long allowedInPeriod = 0;
+        for (long now = 1; now <= DURATION_IN_MILLISECONDS; now++) {
+            ticker.millis = now;
+            for (String clientId : clientIds) {
+                if (random.nextDouble() < demand) {
+                    result.requests++;
+                    if (nodes[random.nextInt(NODES)].allowRequest(clientId)) {
+                        result.allowed++;
+                        allowedInPeriod++;
+                    }
+                }
+            }
+            if (now % PERIOD_IN_MILLISECONDS == 0) {
+                // The first period's limit includes the burst every client starts with
+                long periodLimit = CLIENTS * CAPACITY * (now == PERIOD_IN_MILLISECONDS ? 2 : 1);
+                result.worstPeriodError = Math.max(result.worstPeriodError,
+                        (double) (allowedInPeriod - periodLimit) / periodLimit);
+                allowedInPeriod = 0;
+            }
+            if (now % exchangeIntervalInMilliseconds == 0) {
+                for (GossipRateLimiter node : nodes) {
+                    node.exchange();
+                }
+            }
+        }
+        result.limit = CLIENTS * (CAPACITY + CAPACITY * DURATION_IN_MILLISECONDS / PERIOD_IN_MILLISECONDS);
+        return result;
+    }
+
+    static final class Result {
+
+        long requests;
+        long allowed;
+        long limit;
+        double worstPeriodError;
+    }
+
+    private static final class SimulatedTicker extends Ticker {
+
+        long millis;
+
+        @Override
+        public long read() {
+            return TimeUnit.MILLISECONDS.toNanos(millis);
+        }
+    }
+}
@@ -0,0 +1,113 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Cost of instrumenting {@link RateLimiterImpl}, the time per decision with no listener, with counters only, with
+ * counters and the most denied Clients, every denial or a sample of them, and with everything including the latency
+ * histogram
+ *
+ * The capacity is small enough that most requests are denied, so the denied Clients sketch is updated on most
+ * decisions, which is its worst case.
+ */
+
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class MetricsBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+
+        @Param({"NONE", "COUNTERS", "DENIED_CLIENTS", "SAMPLED_DENIED_CLIENTS", "ALL"})
+        String metrics;
+
+        @Param({"10000"})
+        int clients;
+
+        RateLimiter rateLimiter;
+        String[] clientIds;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            RateLimiterBuilder.Builder builder = RateLimiterBuilder.builder()
+                    .withTokenBucket(TokenBucketBuilder.builder()
+                            .withCapacity(100)
+                            .withPeriod(1)
+                            .withTimeUnit(TimeUnit.HOURS));
+            switch (metrics) {
+                case "NONE":
+                    break;
+                case "COUNTERS":
+                    builder.withListener(RateLimiterMetricsBuilder.builder().build());
+                    break;
+                case "DENIED_CLIENTS":
+                    builder.withListener(RateLimiterMetricsBuilder.builder().withDeniedClients(100).build());
+                    break;
+                case "SAMPLED_DENIED_CLIENTS":
+                    builder.withListener(RateLimiterMetricsBuilder.builder()
+                            .withDeniedClients(100)
+                            .withDeniedClientsSampling(64)
+                            .build());
+                    break;
+                case "ALL":
+                    builder.withListener(RateLimiterMetricsBuilder.builder()
+                            .withDeniedClients(100)
+                            .withLatencyHistogram()
+                            .build());
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown metrics " + metrics);
+            }
+            rateLimiter = builder.build();
+            clientIds = ClientKeys.clientIds(clients);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+
+        private static final AtomicLong SEEDS = new AtomicLong();
+
+        String[] sequence;
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Limiter limiter) {
+            sequence = ClientKeys.sequence(limiter.clientIds, ClientKeys.Distribution.ZIPFIAN, SEEDS.incrementAndGet());
+        }
+
+        String nextClientId() {
+            return sequence[next++ & (sequence.length - 1)];
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean allowRequest(Limiter limiter, Requests requests) {
+        return limiter.rateLimiter.allowRequest(requests.nextClientId());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean allowRequestAllCores(Limiter limiter, Requests requests) {
+        return limiter.rateLimiter.allowRequest(requests.nextClientId());
+    }
+}
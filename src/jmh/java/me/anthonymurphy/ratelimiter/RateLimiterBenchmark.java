@@ -0,0 +1,152 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OperationsPerInvocation;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * Throughput of {@link RateLimiter#allowRequest(String)} for each RateLimiter implementation, for a single hot client, uniformly distributed clients and
+ * Zipfian skewed clients, from one thread and from as many threads as there are cores
+ *
+ * Batches of requests decided through {@link RateLimiter#allowRequests(List, BitSet)} are measured per request, so
+ * they can be compared directly with single requests.
+ *
+ * Run with {@code ./gradlew jmh}, the gc profiler is enabled in the build so every result also reports the allocation
+ * rate per operation.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class RateLimiterBenchmark {
+
+    private static final int BATCH_SIZE = 256;
+
+    @State(Scope.Benchmark)
+    public static class Limiter {
+
+        @Param({"CACHE", "STRIPED", "OFF_HEAP", "GCRA", "SKETCH", "LEASING", "SHARDED"})
+        String implementation;
+
+        @Param({"SINGLE", "UNIFORM", "ZIPFIAN"})
+        ClientKeys.Distribution distribution;
+
+        @Param({"10000"})
+        int clients;
+
+        @Param({"1000000"})
+        long capacity;
+
+        RateLimiter rateLimiter;
+        String[] clientIds;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            RateLimiterBuilder.Builder builder = RateLimiterBuilder.builder()
+                    .withTokenBucket(TokenBucketBuilder.builder()
+                            .withCapacity(capacity)
+                            .withPeriod(1)
+                            .withTimeUnit(TimeUnit.HOURS));
+            switch (implementation) {
+                case "CACHE":
+                    rateLimiter = builder.build();
+                    break;
+                case "STRIPED":
+                    rateLimiter = builder.buildStriped();
+                    break;
+                case "OFF_HEAP":
+                    rateLimiter = builder.withMaximumClients(2L * clients).buildOffHeap();
+                    break;
+                case "GCRA":
+                    rateLimiter = builder.withMaximumClients(2L * clients).buildGcra();
+                    break;
+                case "SKETCH":
+                    rateLimiter = builder.buildSketch(1 << 16, 4);
+                    break;
+                case "LEASING":
+                    // The store is in process, so only the node-local path and the lease refills are measured
+                    rateLimiter = LeasingRateLimiterBuilder.builder()
+                            .withStore(builder.buildTokenStore())
+                            .withLeaseSize(100)
+                            .build();
+                    break;
+                case "SHARDED":
+                    rateLimiter = builder.withHotKeySharding(Runtime.getRuntime().availableProcessors()).build();
+                    break;
+                default:
+                    throw new IllegalArgumentException("Unknown implementation " + implementation);
+            }
+            clientIds = ClientKeys.clientIds(clients);
+            // Load every client up front so only the steady state is measured
+            for (String clientId : clientIds) {
+                rateLimiter.allowRequest(clientId);
+            }
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+
+        private static final AtomicLong SEEDS = new AtomicLong();
+
+        String[] sequence;
+        List<String> sequenceList;
+        BitSet batchResult = new BitSet(BATCH_SIZE);
+        int next;
+
+        @Setup(Level.Trial)
+        public void setUp(Limiter limiter) {
+            sequence = ClientKeys.sequence(limiter.clientIds, limiter.distribution, SEEDS.incrementAndGet());
+            sequenceList = Arrays.asList(sequence);
+        }
+
+        String nextClientId() {
+            return sequence[next++ & (sequence.length - 1)];
+        }
+
+        List<String> nextBatch() {
+            int from = next & (sequence.length - 1) & -BATCH_SIZE;
+            next += BATCH_SIZE;
+            return sequenceList.subList(from, from + BATCH_SIZE);
+        }
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean allowRequest(Limiter limiter, Requests requests) {
+        return limiter.rateLimiter.allowRequest(requests.nextClientId());
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean allowRequestAllCores(Limiter limiter, Requests requests) {
+        return limiter.rateLimiter.allowRequest(requests.nextClientId());
+    }
+
+    @Benchmark
+    @Threads(1)
+    @OperationsPerInvocation(BATCH_SIZE)
+    public BitSet allowRequestsBatch(Limiter limiter, Requests requests) {
+        limiter.rateLimiter.allowRequests(requests.nextBatch(), requests.batchResult);
+        return requests.batchResult;
+    }
+}
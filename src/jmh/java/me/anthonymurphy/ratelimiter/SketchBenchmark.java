@@ -0,0 +1,115 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.AuxCounters;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Accuracy and throughput of {@link SketchRateLimiter} against an exact {@link GcraRateLimiter} with the same policy,
+ * for sketches of different sizes over a million Zipfian skewed clients
+ *
+ * {@code compare} makes each request of both rate limiters, the falseDenials counter is the number of requests the
+ * sketch denied that the exact rate limiter allowed, so falseDenials / requests is the sketch's error rate. The sketch
+ * never allows a request that the exact rate limiter denies. {@code sketch} and {@code exact} measure the throughput of
+ * each rate limiter alone, the memory of the sketch is 8 * width * depth bytes whatever the number of clients.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@Threads(1)
+public class SketchBenchmark {
+
+    @State(Scope.Benchmark)
+    public static class Limiters {
+
+        @Param({"4096", "65536", "1048576"})
+        int width;
+
+        @Param({"2", "4"})
+        int depth;
+
+        @Param({"1000000"})
+        int clients;
+
+        @Param({"100"})
+        long capacity;
+
+        SketchRateLimiter sketch;
+        GcraRateLimiter exact;
+        String[] sequence;
+
+        @Setup(Level.Trial)
+        public void setUp() {
+            RateLimiterBuilder.Builder builder = RateLimiterBuilder.builder()
+                    .withTokenBucket(TokenBucketBuilder.builder()
+                            .withCapacity(capacity)
+                            .withPeriod(1)
+                            .withTimeUnit(TimeUnit.SECONDS));
+            sketch = builder.buildSketch(width, depth);
+            exact = builder.withMaximumClients(2L * clients).buildGcra();
+            sequence = ClientKeys.sequence(ClientKeys.clientIds(clients), ClientKeys.Distribution.ZIPFIAN, 1);
+        }
+    }
+
+    @State(Scope.Thread)
+    public static class Requests {
+
+        int next;
+
+        String nextClientId(Limiters limiters) {
+            return limiters.sequence[next++ & (limiters.sequence.length - 1)];
+        }
+    }
+
+    @State(Scope.Thread)
+    @AuxCounters(AuxCounters.Type.EVENTS)
+    public static class Decisions {
+
+        public long requests;
+        public long falseDenials;
+
+        @Setup(Level.Iteration)
+        public void reset() {
+            requests = 0;
+            falseDenials = 0;
+        }
+    }
+
+    @Benchmark
+    public boolean compare(Limiters limiters, Requests requests, Decisions decisions) {
+        String clientId = requests.nextClientId(limiters);
+        boolean allowedBySketch = limiters.sketch.allowRequest(clientId);
+        boolean allowedExactly = limiters.exact.allowRequest(clientId);
+        decisions.requests++;
+        if (allowedExactly && !allowedBySketch) {
+            decisions.falseDenials++;
+        }
+        return allowedBySketch;
+    }
+
+    @Benchmark
+    public boolean sketch(Limiters limiters, Requests requests) {
+        return limiters.sketch.allowRequest(requests.nextClientId(limiters));
+    }
+
+    @Benchmark
+    public boolean exact(Limiters limiters, Requests requests) {
+        return limiters.exact.allowRequest(requests.nextClientId(limiters));
+    }
+}
@@ -0,0 +1,74 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Threads;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Throughput of {@link TokenBucket#consume()} on a single shared bucket for each TokenBucket implementation, from one
+ * thread and from as many threads as there are cores
+ *
+ * Each is run reading the system clock on every request and reading a coarse ticker updated every millisecond by a
+ * background thread, see {@link Tickers#coarse(long, TimeUnit)}.
+ */
+
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+@State(Scope.Benchmark)
+public class TokenBucketBenchmark {
+
+    @Param({"false", "true"})
+    boolean lockFree;
+
+    @Param({"SYSTEM", "COARSE"})
+    String ticker;
+
+    private TokenBucket bucket;
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // Large enough that the bucket never runs dry during an iteration
+        TokenBucketBuilder.Builder builder = TokenBucketBuilder.builder()
+                .withCapacity(LockFreeTokenBucket.MAX_CAPACITY)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .withLockFree(lockFree);
+        if ("COARSE".equals(ticker)) {
+            builder.withCoarseTicker(1, TimeUnit.MILLISECONDS);
+        }
+        bucket = builder.build();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean consume() {
+        return bucket.consume();
+    }
+
+    @Benchmark
+    @Threads(1)
+    public boolean tryConsumeTen() {
+        return bucket.tryConsume(10);
+    }
+
+    @Benchmark
+    @Threads(Threads.MAX)
+    public boolean consumeAllCores() {
+        return bucket.consume();
+    }
+}
@@ -0,0 +1,116 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * A million clients, each on its own virtual thread, making requests through {@link RateLimiterImpl} and waiting for
+ * tokens on a {@link ShapingTokenBucket}
+ *
+ * The fork traces pinned virtual threads, a virtual thread that blocks while holding a monitor prints its stack trace
+ * in the benchmark output, so a clean run shows the limiter never pins a carrier thread. Virtual threads need Java 21
+ * or later, on older JVMs the benchmarks fail in setup.
+ */
+
+@BenchmarkMode(Mode.SingleShotTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(value = 1, jvmArgsAppend = {"-Djdk.tracePinnedThreads=short", "-Xmx4g"})
+@State(Scope.Benchmark)
+public class VirtualThreadBenchmark {
+
+    private static final int REQUESTS_PER_CLIENT = 4;
+
+    @Param({"1000000"})
+    int clients;
+
+    private String[] clientIds;
+    private RateLimiter rateLimiter;
+    private ShapingTokenBucket bucket;
+
+    @Setup(Level.Trial)
+    public void setUpClientIds() {
+        clientIds = ClientKeys.clientIds(clients);
+    }
+
+    @Setup(Level.Iteration)
+    public void setUp() {
+        // Fewer tokens than requests, so clients contend for their buckets and some requests are denied
+        rateLimiter = new RateLimiterImpl(REQUESTS_PER_CLIENT / 2, 1, TimeUnit.HOURS);
+        // Refills with enough tokens for every client at once, so mostly the cost of parking and waking is measured
+        bucket = TokenBucketBuilder.builder()
+                .withCapacity(clients)
+                .withPeriod(100)
+                .withTimeUnit(TimeUnit.MILLISECONDS)
+                .buildShaping();
+        bucket.acquire(clients);
+    }
+
+    @Benchmark
+    public long allowRequest() throws InterruptedException {
+        LongAdder allowed = new LongAdder();
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        for (String clientId : clientIds) {
+            executor.execute(() -> {
+                for (int i = 0; i < REQUESTS_PER_CLIENT; i++) {
+                    if (rateLimiter.allowRequest(clientId)) {
+                        allowed.increment();
+                    }
+                }
+            });
+        }
+        awaitTermination(executor);
+        return allowed.sum();
+    }
+
+    @Benchmark
+    public long acquire() throws InterruptedException {
+        LongAdder acquired = new LongAdder();
+        ExecutorService executor = newVirtualThreadPerTaskExecutor();
+        for (int i = 0; i < clients; i++) {
+            executor.execute(() -> {
+                // The bucket starts empty, every client parks until the next refill
+                bucket.acquire();
+                acquired.increment();
+            });
+        }
+        awaitTermination(executor);
+        return acquired.sum();
+    }
+
+    private static void awaitTermination(ExecutorService executor) throws InterruptedException {
+        executor.shutdown();
+        if (!executor.awaitTermination(5, TimeUnit.MINUTES)) {
+            throw new IllegalStateException("Clients did not finish");
+        }
+    }
+
+    /*
+        Looked up reflectively so the benchmarks still compile against the Java 8 baseline
+     */
+    private static ExecutorService newVirtualThreadPerTaskExecutor() {
+        try {
+            return (ExecutorService) Executors.class.getMethod("newVirtualThreadPerTaskExecutor").invoke(null);
+        } catch (NoSuchMethodException e) {
+            throw new UnsupportedOperationException("Virtual threads need Java 21 or later", e);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
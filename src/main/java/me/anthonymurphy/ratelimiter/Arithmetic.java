@@ -0,0 +1,36 @@
+package me.anthonymurphy.ratelimiter;
+
+/**
+ * Overflow safe arithmetic for scaling token counts by elapsed time
+ */
+
+final class Arithmetic {
+
+    private Arithmetic() { }
+
+    /*
+        Calculates a * b / c rounded down, a and b must not be negative and c must be greater than 0. Exact unless
+        a * b overflows a long, which needs more than about 2.5 million tokens per hour, in which case it falls back to
+        double precision
+
+        @return a * b / c rounded down
+     */
+    static long multiplyDivide(long a, long b, long c) {
+        if (b == 0 || a <= Long.MAX_VALUE / b)
+            return a * b / c;
+        return (long) ((double) a * b / c);
+    }
+
+    /*
+        Calculates a * b / c rounded up, with the same constraints as {@link #multiplyDivide(long, long, long)}
+
+        @return a * b / c rounded up
+     */
+    static long multiplyDivideRoundUp(long a, long b, long c) {
+        if (b == 0 || a <= Long.MAX_VALUE / b) {
+            long product = a * b;
+            return product / c + (product % c == 0 ? 0 : 1);
+        }
+        return (long) Math.ceil((double) a * b / c);
+    }
+}
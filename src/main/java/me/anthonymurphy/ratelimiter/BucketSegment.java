@@ -0,0 +1,273 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * One stripe of a rate limiter that stores the state of each client's bucket inline as primitive longs
+ *
+ * Each slot holds the hash of the client id, the available tokens and the last refill time. Slots are found by linear
+ * probing, there are no per client objects. Capacity and RefillStrategy are shared by every client, so a slot is all
+ * the state a client needs.
+ *
+ * When the segment is too full to take a new client it grows, and once it cannot grow any more it drops clients whose
+ * bucket has refilled to capacity. A new bucket would be full too, so this never grants extra tokens. Clients are
+ * dropped in place, the clients after them in their probe sequence are shifted back into the freed slots, so a segment
+ * that cannot grow never copies its clients out of its storage. If that frees
+ * nothing, the new client shares the bucket of a client already in the segment, which can only deny requests, never
+ * allow extra ones.
+ *
+ * All methods must be called with the segment's lock held. It is a {@link ReentrantLock} rather than a monitor, so
+ * virtual threads waiting for a segment do not pin their carrier thread.
+ */
+
+abstract class BucketSegment {
+
+    static final int LONGS_PER_SLOT = 3;
+    static final int MINIMUM_SLOT_COUNT = 4;
+
+    private static final long EMPTY = 0;
+    private static final int KEY = 0;
+    private static final int TOKENS = 1;
+    private static final int LAST_REFILL_TIME = 2;
+
+    final ReentrantLock lock = new ReentrantLock();
+
+    private final long capacity;
+    private final RefillStrategy refillStrategy;
+    private int count;
+    private int skipMakeRoom;
+
+    BucketSegment(long capacity, RefillStrategy refillStrategy) {
+        this.capacity = capacity;
+        this.refillStrategy = refillStrategy;
+    }
+
+    /*
+        Returns the number of slots, always a power of two
+     */
+    abstract int slotCount();
+
+    abstract long get(int slot, int field);
+
+    abstract void set(int slot, int field, long value);
+
+    /*
+        Replaces the slots with a cleared table of more slots, only called while the segment is below its maximum
+        number of slots
+
+        @param slotCount the number of slots wanted, a power of two
+        @return the number of slots after clearing
+     */
+    abstract int clear(int slotCount);
+
+    /*
+        Returns the largest number of slots the segment may grow to
+     */
+    abstract int maximumSlotCount();
+
+    final int count() {
+        return count;
+    }
+
+    /*
+        Refills the client's bucket and consumes the requested number of tokens if they are available
+
+        @param key hash of the client id
+        @param permits number of tokens to consume
+        @param now current Ticker reading
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    final boolean tryConsume(long key, long permits, long now) {
+        int slot = slotFor(key, now);
+        long tokens = refill(slot, now);
+        if (tokens < permits) {
+            return false;
+        }
+        set(slot, TOKENS, tokens - permits);
+        return true;
+    }
+
+    /*
+        Refills the client's bucket and consumes as many of the requested number of tokens as are available
+
+        @param key hash of the client id
+        @param permits maximum number of tokens to consume
+        @param now current Ticker reading
+        @return number of tokens consumed
+     */
+    final long consumeUpTo(long key, long permits, long now) {
+        int slot = slotFor(key, now);
+        long consumed = Math.min(refill(slot, now), permits);
+        set(slot, TOKENS, get(slot, TOKENS) - consumed);
+        return consumed;
+    }
+
+    /*
+        Counts the slots in use, for storage that already holds clients when the segment is created
+     */
+    final void recount() {
+        int used = 0;
+        for (int slot = 0; slot < slotCount(); slot++) {
+            if (get(slot, KEY) != EMPTY) {
+                used++;
+            }
+        }
+        count = used;
+    }
+
+    private long refill(int slot, long now) {
+        long tokens = get(slot, TOKENS);
+        long lastRefillTime = get(slot, LAST_REFILL_TIME);
+        long tokensToAdd = refillStrategy.tokensToAdd(lastRefillTime, now);
+        if (tokensToAdd > 0) {
+            tokens = tokensToAdd >= capacity - tokens ? capacity : tokens + tokensToAdd;
+            set(slot, TOKENS, tokens);
+            set(slot, LAST_REFILL_TIME, refillStrategy.getRefillTime(lastRefillTime, now));
+        }
+        return tokens;
+    }
+
+    private int slotFor(long key, long now) {
+        int mask = slotCount() - 1;
+        int home = (int) key & mask;
+        // At least one slot is always empty, so probing always ends
+        int slot = home;
+        for (long slotKey = get(slot, KEY); slotKey != EMPTY; slotKey = get(slot, KEY)) {
+            if (slotKey == key) {
+                return slot;
+            }
+            slot = (slot + 1) & mask;
+        }
+
+        if (count < maximumCount()) {
+            insert(slot, key, capacity, now);
+            return slot;
+        }
+        if (makeRoom(now)) {
+            return slotFor(key, now);
+        }
+        if (count < slotCount() - 1) {
+            insert(slot, key, capacity, now);
+            return slot;
+        }
+        // Share the first bucket in the probe sequence rather than grant a new bucket
+        for (slot = home; get(slot, KEY) == EMPTY; slot = (slot + 1) & mask) {
+        }
+        return slot;
+    }
+
+    private boolean makeRoom(long now) {
+        int grown = Math.min(slotCount() * 2, maximumSlotCount());
+        if (grown > slotCount()) {
+            rehash(grown, now);
+            return true;
+        }
+        // A full scan that frees nothing is not retried until a quarter of the slots' worth of new clients have
+        // been turned away, so the cost of scanning stays constant per request
+        if (skipMakeRoom > 0) {
+            skipMakeRoom--;
+            return false;
+        }
+        int before = count;
+        compact(now);
+        if (count < before) {
+            return true;
+        }
+        skipMakeRoom = slotCount() >>> 2;
+        return false;
+    }
+
+    /*
+        Drops every client whose bucket is full. The scan starts after an empty slot, so no probe sequence wraps past
+        its start, and a slot is looked at again after a client is dropped from it, as a later client may have been
+        shifted into it
+     */
+    private void compact(long now) {
+        int mask = slotCount() - 1;
+        int start = 0;
+        while (get(start, KEY) != EMPTY) {
+            start++;
+        }
+        int slot = (start + 1) & mask;
+        for (int remaining = slotCount() - 1; remaining > 0; ) {
+            if (get(slot, KEY) != EMPTY && refill(slot, now) >= capacity) {
+                remove(slot);
+            } else {
+                slot = (slot + 1) & mask;
+                remaining--;
+            }
+        }
+    }
+
+    /*
+        Empties the slot by backward-shift deletion: each later client in the probe sequence that may live in the
+        freed slot is moved back into it, freeing its own slot in turn, until an empty slot is reached
+     */
+    private void remove(int slot) {
+        int mask = slotCount() - 1;
+        int free = slot;
+        for (int next = (free + 1) & mask; get(next, KEY) != EMPTY; next = (next + 1) & mask) {
+            int home = (int) get(next, KEY) & mask;
+            // A client whose home is between the free slot and its own slot would not be found from the free slot
+            if (((next - home) & mask) < ((next - free) & mask)) {
+                continue;
+            }
+            // The key is written last, so storage that outlives the process never holds a key with another client's
+            // bucket. Stopped part way the client is in both slots, and found in the earlier one
+            set(free, TOKENS, get(next, TOKENS));
+            set(free, LAST_REFILL_TIME, get(next, LAST_REFILL_TIME));
+            set(free, KEY, get(next, KEY));
+            free = next;
+        }
+        set(free, KEY, EMPTY);
+        count--;
+    }
+
+    /*
+        Moves every client whose bucket is not full into a cleared, larger table of the given size
+     */
+    private void rehash(int newSlotCount, long now) {
+        long[] kept = new long[count * LONGS_PER_SLOT];
+        int keptCount = 0;
+        for (int slot = 0; slot < slotCount(); slot++) {
+            long key = get(slot, KEY);
+            if (key != EMPTY && refill(slot, now) < capacity) {
+                kept[keptCount * LONGS_PER_SLOT + KEY] = key;
+                kept[keptCount * LONGS_PER_SLOT + TOKENS] = get(slot, TOKENS);
+                kept[keptCount * LONGS_PER_SLOT + LAST_REFILL_TIME] = get(slot, LAST_REFILL_TIME);
+                keptCount++;
+            }
+        }
+
+        int mask = clear(newSlotCount) - 1;
+        count = 0;
+        for (int i = 0; i < keptCount; i++) {
+            long key = kept[i * LONGS_PER_SLOT + KEY];
+            int slot = (int) key & mask;
+            while (get(slot, KEY) != EMPTY) {
+                slot = (slot + 1) & mask;
+            }
+            insert(slot, key, kept[i * LONGS_PER_SLOT + TOKENS], kept[i * LONGS_PER_SLOT + LAST_REFILL_TIME]);
+        }
+    }
+
+    private void insert(int slot, long key, long tokens, long lastRefillTime) {
+        set(slot, KEY, key);
+        set(slot, TOKENS, tokens);
+        set(slot, LAST_REFILL_TIME, lastRefillTime);
+        count++;
+    }
+
+    private int maximumCount() {
+        // Keep a quarter of the slots free so probe sequences stay short
+        return slotCount() - (slotCount() >>> 2);
+    }
+
+    static int checkSlotCount(int slotCount) {
+        checkArgument(slotCount >= MINIMUM_SLOT_COUNT && Integer.bitCount(slotCount) == 1,
+                "Slot count must be a power of two and at least %s", MINIMUM_SLOT_COUNT);
+        return slotCount;
+    }
+}
@@ -0,0 +1,57 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.nio.ByteBuffer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * BucketSegment stored in a fixed size ByteBuffer, usually a direct buffer so that the state of the clients is off the
+ * Java heap and is never scanned or copied by the garbage collector
+ *
+ * The segment never grows, once it is full it makes room by dropping clients whose bucket is full.
+ */
+
+final class ByteBufferBucketSegment extends BucketSegment {
+
+    static final int BYTES_PER_SLOT = LONGS_PER_SLOT * Long.BYTES;
+
+    private final ByteBuffer slots;
+    private final int slotCount;
+
+    ByteBufferBucketSegment(long capacity, RefillStrategy refillStrategy, ByteBuffer slots) {
+        super(capacity, refillStrategy);
+        checkArgument(slots.capacity() % BYTES_PER_SLOT == 0, "Buffer must hold a whole number of slots");
+        this.slots = slots;
+        this.slotCount = checkSlotCount(slots.capacity() / BYTES_PER_SLOT);
+    }
+
+    @Override
+    int slotCount() {
+        return slotCount;
+    }
+
+    @Override
+    long get(int slot, int field) {
+        return slots.getLong((slot * LONGS_PER_SLOT + field) * Long.BYTES);
+    }
+
+    @Override
+    void set(int slot, int field, long value) {
+        slots.putLong((slot * LONGS_PER_SLOT + field) * Long.BYTES, value);
+    }
+
+    /*
+        The segment never grows, and its slots are never cleared, a mapped segment always holds every client it kept
+
+        @throws UnsupportedOperationException always
+     */
+    @Override
+    int clear(int slotCount) {
+        throw new UnsupportedOperationException("ByteBufferBucketSegment does not grow");
+    }
+
+    @Override
+    int maximumSlotCount() {
+        return slotCount;
+    }
+}
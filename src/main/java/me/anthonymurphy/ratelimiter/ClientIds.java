@@ -0,0 +1,173 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkPositionIndexes;
+
+/**
+ * Hashes client ids to the 64 bit keys used by rate limiters that do not keep the client id itself
+ *
+ * Two client ids with the same hash share a bucket, which only ever denies requests that would otherwise have been
+ * allowed. With 64 bit hashes this is vanishingly unlikely until there are billions of clients.
+ *
+ * Ids that are not Strings, bytes read from a request or a socket address, are hashed without allocating and IP
+ * addresses can be keyed by network, so that every address in a CIDR block shares one bucket.
+ */
+
+public final class ClientIds {
+
+    static final long DEFAULT_SEED = 0x2545F4914F6CDD1DL;
+
+    private static final long FNV_PRIME = 0x100000001B3L;
+    private static final long WORD_PRIME_1 = 0x9E3779B185EBCA87L;
+    private static final long WORD_PRIME_2 = 0xC2B2AE3D27D4EB4FL;
+
+    // Sets IPv4 keys apart from small numeric keys, such as account numbers, given to the same rate limiter
+    private static final long IPV4_TAG = 4L << 40;
+
+    private ClientIds() { }
+
+    /*
+        Hashes a client id without allocating, the hash is never 0 so 0 can mark an empty slot
+
+        @param clientId the client id
+        @param seed seed for the hash, the same seed always gives the same hash
+        @return 64 bit hash of the client id
+     */
+    public static long hash(String clientId, long seed) {
+        long hash = seed;
+        for (int i = 0; i < clientId.length(); i++) {
+            hash = (hash ^ clientId.charAt(i)) * FNV_PRIME;
+        }
+        return nonZero(mix(hash ^ clientId.length()));
+    }
+
+    static long hash(String clientId) {
+        return hash(clientId, DEFAULT_SEED);
+    }
+
+    /*
+        Hashes a 64 bit client key, for example an account number. The mix is reversible, so two keys only share a
+        hash if one of them is the key whose hash would be 0
+
+        @param clientKey the client key
+        @param seed seed for the hash, the same seed always gives the same hash
+        @return 64 bit hash of the client key
+     */
+    public static long hash(long clientKey, long seed) {
+        return nonZero(mix(clientKey ^ seed));
+    }
+
+    static long hash(long clientKey) {
+        return hash(clientKey, DEFAULT_SEED);
+    }
+
+    /*
+        Hashes a client id given as bytes eight at a time, without allocating
+
+        @param clientId array holding the client id
+        @param offset index of the first byte of the client id
+        @param length number of bytes in the client id
+        @param seed seed for the hash, the same seed always gives the same hash
+        @return 64 bit hash of the client id
+     */
+    public static long hash(byte[] clientId, int offset, int length, long seed) {
+        checkPositionIndexes(offset, offset + length, clientId.length);
+        long hash = seed ^ length * WORD_PRIME_1;
+        int end = offset + length;
+        int index = offset;
+        for (; index + Long.BYTES <= end; index += Long.BYTES) {
+            long word = 0;
+            for (int i = Long.BYTES - 1; i >= 0; i--) {
+                word = word << 8 | (clientId[index + i] & 0xFFL);
+            }
+            hash = mixWord(hash, word);
+        }
+        long tail = 0;
+        for (int shift = 0; index < end; index++, shift += 8) {
+            tail |= (clientId[index] & 0xFFL) << shift;
+        }
+        return nonZero(mix(mixWord(hash, tail)));
+    }
+
+    /*
+        Hashes the bytes between the buffer's position and its limit, without moving the position. Gives the same hash
+        as the same bytes in an array, whatever the buffer's byte order and whether it is direct or not
+
+        @param clientId buffer holding the client id
+        @param seed seed for the hash, the same seed always gives the same hash
+        @return 64 bit hash of the client id
+     */
+    public static long hash(ByteBuffer clientId, long seed) {
+        int length = clientId.remaining();
+        long hash = seed ^ length * WORD_PRIME_1;
+        boolean littleEndian = clientId.order() == ByteOrder.LITTLE_ENDIAN;
+        int end = clientId.limit();
+        int index = clientId.position();
+        for (; index + Long.BYTES <= end; index += Long.BYTES) {
+            long word = clientId.getLong(index);
+            hash = mixWord(hash, littleEndian ? word : Long.reverseBytes(word));
+        }
+        long tail = 0;
+        for (int shift = 0; index < end; index++, shift += 8) {
+            tail |= (clientId.get(index) & 0xFFL) << shift;
+        }
+        return nonZero(mix(mixWord(hash, tail)));
+    }
+
+    /*
+        Returns the key of the IPv4 network an address is in, every address in the same network has the same key and
+        so shares a bucket. A prefix length of 24 keys 192.0.2.0/24 as one client, a prefix length of 32 keys each
+        address on its own. Networks with different prefix lengths never share a key
+
+        @param address IPv4 address, most significant byte first as in a packet
+        @param prefixLength number of leading bits that identify the network, from 0 to 32
+        @return client key of the network
+     */
+    public static long ipv4(int address, int prefixLength) {
+        checkArgument(prefixLength >= 0 && prefixLength <= 32, "Prefix length must be between 0 and 32");
+        int mask = prefixLength == 0 ? 0 : -1 << (32 - prefixLength);
+        return IPV4_TAG | (long) prefixLength << 32 | (address & mask) & 0xFFFFFFFFL;
+    }
+
+    /*
+        Returns the key of the IPv6 network an address is in, every address in the same network has the same key and
+        so shares a bucket. A prefix length of 64 keys a single subnet, which one host is commonly given in full, as
+        one client
+
+        @param high most significant 64 bits of the address
+        @param low least significant 64 bits of the address
+        @param prefixLength number of leading bits that identify the network, from 0 to 128
+        @return client key of the network
+     */
+    public static long ipv6(long high, long low, int prefixLength) {
+        checkArgument(prefixLength >= 0 && prefixLength <= 128, "Prefix length must be between 0 and 128");
+        long highMask = prefixLength == 0 ? 0 : prefixLength >= 64 ? -1L : -1L << (64 - prefixLength);
+        long lowMask = prefixLength <= 64 ? 0 : prefixLength == 128 ? -1L : -1L << (128 - prefixLength);
+        long hash = mixWord(DEFAULT_SEED ^ prefixLength * WORD_PRIME_1, high & highMask);
+        return nonZero(mix(mixWord(hash, low & lowMask)));
+    }
+
+    /*
+        Murmur3 finalizer, spreads every input bit over the whole hash so both the high and low bits can be used to
+        pick a stripe and a slot
+     */
+    static long mix(long hash) {
+        hash ^= hash >>> 33;
+        hash *= 0xFF51AFD7ED558CCDL;
+        hash ^= hash >>> 33;
+        hash *= 0xC4CEB9FE1A85EC53L;
+        hash ^= hash >>> 33;
+        return hash;
+    }
+
+    private static long mixWord(long hash, long word) {
+        return Long.rotateLeft(hash ^ word * WORD_PRIME_2, 31) * WORD_PRIME_1;
+    }
+
+    static long nonZero(long hash) {
+        return hash == 0 ? 1 : hash;
+    }
+}
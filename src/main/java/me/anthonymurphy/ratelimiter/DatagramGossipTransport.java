@@ -0,0 +1,118 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.collect.ImmutableList;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.net.DatagramPacket;
+import java.net.DatagramSocket;
+import java.net.SocketAddress;
+import java.util.Arrays;
+import java.util.Collection;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+/**
+ * GossipTransport that sends each report to every peer as a UDP datagram
+ *
+ * Reports are received on a daemon thread, started by {@link #onReceive(Consumer)}, which passes each datagram to the
+ * receiver. Datagrams that can not be sent are counted rather than thrown, a lost report only delays when the other
+ * nodes see the usage it carried.
+ */
+
+public class DatagramGossipTransport implements GossipTransport, Closeable {
+
+    // Largest payload of a UDP datagram
+    private static final int MAXIMUM_DATAGRAM_BYTES = 65_507;
+
+    private final DatagramSocket socket;
+    private final List<SocketAddress> peers;
+    private final LongAdder sendFailures = new LongAdder();
+    private final AtomicBoolean receiving = new AtomicBoolean();
+
+    DatagramGossipTransport(DatagramSocket socket, Collection<? extends SocketAddress> peers) {
+        this.socket = checkNotNull(socket, "Socket must be set");
+        this.peers = ImmutableList.copyOf(checkNotNull(peers, "Peers must be set"));
+    }
+
+    /*
+        Binds a socket to the local address and sends reports to each of the peers
+
+        @param localAddress address to receive reports on
+        @param peers addresses of the other nodes
+        @return transport bound to the local address
+     */
+    public static DatagramGossipTransport bind(SocketAddress localAddress, Collection<? extends SocketAddress> peers)
+            throws IOException {
+        return new DatagramGossipTransport(new DatagramSocket(localAddress), peers);
+    }
+
+    @Override
+    public void broadcast(byte[] report) {
+        for (SocketAddress peer : peers) {
+            try {
+                socket.send(new DatagramPacket(report, report.length, peer));
+            } catch (IOException e) {
+                sendFailures.increment();
+            }
+        }
+    }
+
+    @Override
+    public void onReceive(Consumer<byte[]> receiver) {
+        checkNotNull(receiver, "Receiver must be set");
+        checkState(receiving.compareAndSet(false, true), "Receiver is already set");
+        new ThreadFactoryBuilder()
+                .setNameFormat("gossip-receiver-" + socket.getLocalPort())
+                .setDaemon(true)
+                .build()
+                .newThread(() -> receive(receiver))
+                .start();
+    }
+
+    /*
+        Returns the local address reports are received on, useful when bound to an ephemeral port
+
+        @return local address of the socket
+     */
+    public SocketAddress getLocalAddress() {
+        return socket.getLocalSocketAddress();
+    }
+
+    /*
+        Returns the number of datagrams that could not be sent
+
+        @return number of failed sends
+     */
+    public long getSendFailureCount() {
+        return sendFailures.sum();
+    }
+
+    /*
+        Closes the socket, which stops the receiver thread
+     */
+    @Override
+    public void close() {
+        socket.close();
+    }
+
+    private void receive(Consumer<byte[]> receiver) {
+        DatagramPacket packet = new DatagramPacket(new byte[MAXIMUM_DATAGRAM_BYTES], MAXIMUM_DATAGRAM_BYTES);
+        while (!socket.isClosed()) {
+            try {
+                socket.receive(packet);
+            } catch (IOException e) {
+                // Thrown when the socket is closed
+                continue;
+            }
+            receiver.accept(Arrays.copyOfRange(packet.getData(), packet.getOffset(),
+                    packet.getOffset() + packet.getLength()));
+        }
+    }
+}
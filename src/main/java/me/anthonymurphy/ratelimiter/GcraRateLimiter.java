@@ -0,0 +1,294 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rate limiter using the Generic Cell Rate Algorithm, which keeps a single long per client
+ *
+ * Rather than a count of tokens and a refill time, GCRA keeps each client's theoretical arrival time, the time its
+ * bucket would be full again. A request that costs n tokens pushes it back by n emission intervals, the time it takes
+ * to earn a token, and is allowed if that leaves it no more than a whole period ahead of now. This is the same policy
+ * as a {@link TokenBucketImpl} with {@link GreedyRefillStrategy}: a client can use its capacity at once and then earns
+ * a token every period / capacity.
+ *
+ * Clients are kept as a 64 bit hash of their id and their theoretical arrival time in a fixed size, open addressing
+ * table of {@link AtomicLongArray}s, a request is a single compare-and-set and takes no locks. A client whose
+ * theoretical arrival time has passed has a full bucket, the same as a client that has never been seen, so its slot is
+ * handed to a new client when its neighbourhood of the table is full. If every slot a new client could use is held by
+ * a client that is still limited, it shares the first of them, which may deny it requests but never over-grants.
+ *
+ * A slot is handed over by first swapping its arrival time for a reservation, so a request that found the old client
+ * in the slot cannot charge it while the key changes, it looks for its slot again once the handover is done. A
+ * request whose compare-and-set lands just after the handover finds the key changed, takes its charge back if it can
+ * and looks for the client's slot again. If the new client has already been charged on top of it, the charge stays
+ * with the new client, which can only deny it requests.
+ *
+ * A request with an older time can find a slot still limited that another request for the same new client is being
+ * handed, and claim an empty slot further on. Every claim therefore looks for the key again, and a second slot is
+ * folded into the first: its charge is added to the first slot and it is emptied, so each client has a single slot.
+ */
+
+public class GcraRateLimiter implements KeyedRateLimiter {
+
+    // Slots a client can be placed in, starting from the one its hash picks
+    static final int MAXIMUM_PROBES = 16;
+
+    // Largest power of two whose slots fit in a single AtomicLongArray
+    static final int MAXIMUM_SLOTS_PER_SEGMENT = 1 << 29;
+
+    private static final int KEY = 0;
+    private static final int ARRIVAL_TIME = 1;
+
+    // Arrival time of a slot that is being handed to a new client, never in the past so it is not reused twice
+    private static final long RESERVED = Long.MAX_VALUE;
+
+    private final Ticker ticker;
+    private final long origin;
+    private final long capacity;
+    private final long emissionInterval;
+    private final long burstTolerance;
+    private final AtomicLongArray[] segments;
+    private final int segmentShift;
+    private final int slotMask;
+
+    GcraRateLimiter(Ticker ticker, long capacity, long periodInNanoseconds, int segmentCount, long maximumClients) {
+        checkNotNull(ticker, "Ticker must be set");
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(periodInNanoseconds > 0, "Period must be greater than 0");
+        checkArgument(segmentCount > 0 && Integer.bitCount(segmentCount) == 1,
+                "Number of segments must be a power of two");
+        int slots = StripedRateLimiter.slotsPerSegment(maximumClients, segmentCount, MAXIMUM_SLOTS_PER_SEGMENT);
+        this.ticker = ticker;
+        this.capacity = capacity;
+        this.emissionInterval = Arithmetic.multiplyDivideRoundUp(1, periodInNanoseconds, capacity);
+        this.burstTolerance = emissionInterval * capacity;
+        this.segments = new AtomicLongArray[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new AtomicLongArray(2 * slots);
+        }
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segmentCount);
+        this.slotMask = slots - 1;
+        // Times are kept relative to the creation of the rate limiter, so an empty slot's arrival time of 0 is past
+        this.origin = ticker.read();
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from its bucket
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed and Client may access the resource, {@code false} otherwise and
+        the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        all at once or not at all
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientId), cost);
+    }
+
+    /*
+        Checks if the Client with the given key can make a request, see KeyedRateLimiter
+
+        @param clientKey 64 bit key of the Client, for example an account number or a key from ClientIds
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(long clientKey, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientKey), cost);
+    }
+
+    private boolean allowHashedRequest(long key, long cost) {
+        if (cost > capacity) {
+            return false;
+        }
+        AtomicLongArray segment = segmentFor(key);
+        long now = ticker.read() - origin;
+        long increment = cost * emissionInterval;
+        for (;;) {
+            int found = indexFor(segment, key, now);
+            // A shared slot may change hands, the charge then stays with its new Client, which is only ever denied
+            boolean shared = found < 0;
+            int index = shared ? ~found : found;
+            for (;;) {
+                long arrivalTime = segment.get(index + ARRIVAL_TIME);
+                if (arrivalTime == RESERVED) {
+                    // Being handed to another Client
+                    break;
+                }
+                long nextArrivalTime = Math.max(arrivalTime, now) + increment;
+                if (nextArrivalTime - now > burstTolerance) {
+                    return false;
+                }
+                if (segment.compareAndSet(index + ARRIVAL_TIME, arrivalTime, nextArrivalTime)) {
+                    if (shared || segment.get(index + KEY) == key) {
+                        return true;
+                    }
+                    // The slot was handed over since it was found, take the charge back unless it has been built on
+                    segment.compareAndSet(index + ARRIVAL_TIME, nextArrivalTime, arrivalTime);
+                    break;
+                }
+            }
+        }
+    }
+
+    /*
+        Every Client shares the same capacity and rate, so a Client cannot be given its own TokenBucket
+
+        @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        throw new UnsupportedOperationException("GcraRateLimiter does not support per Client TokenBuckets");
+    }
+
+    /*
+        Returns the number of slots held by a Client, including Clients whose buckets have since filled up
+
+        @return number of Clients
+     */
+    public long getClientCount() {
+        long count = 0;
+        for (AtomicLongArray segment : segments) {
+            for (int i = KEY; i < segment.length(); i += 2) {
+                if (segment.get(i) != 0) {
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+
+    private AtomicLongArray segmentFor(long key) {
+        // The high bits pick the segment, the low bits pick the slot within it
+        return segments[(int) (key >>> segmentShift) & (segments.length - 1)];
+    }
+
+    /*
+        Finds the slot holding the key, or claims one for it. The key is looked for in the slots up to the first empty
+        one, it is then placed in the first slot whose Client's bucket is full, or failing that the empty slot
+
+        @return index of the slot's key in the segment, or its complement if the slot is shared with another Client
+     */
+    private int indexFor(AtomicLongArray segment, long key, long now) {
+        int home = (int) key & slotMask;
+        for (;;) {
+            int reusable = -1;
+            long reusableKey = 0;
+            for (int probe = 0; probe < MAXIMUM_PROBES; probe++) {
+                int index = 2 * ((home + probe) & slotMask);
+                long slotKey = segment.get(index + KEY);
+                if (slotKey == key) {
+                    return index;
+                }
+                if (slotKey == 0) {
+                    if (reusable >= 0)
+                        break;
+                    if (segment.compareAndSet(index + KEY, 0, key) || segment.get(index + KEY) == key)
+                        return claimed(segment, home, key, now);
+                    // Claimed by another Client in the meantime, carry on looking
+                    continue;
+                }
+                if (reusable < 0 && segment.get(index + ARRIVAL_TIME) <= now) {
+                    reusable = index;
+                    reusableKey = slotKey;
+                }
+            }
+            if (reusable < 0) {
+                return ~(2 * home);
+            }
+            long arrivalTime = segment.get(reusable + ARRIVAL_TIME);
+            if (arrivalTime <= now && segment.compareAndSet(reusable + ARRIVAL_TIME, arrivalTime, RESERVED)) {
+                if (segment.get(reusable + KEY) == reusableKey) {
+                    segment.set(reusable + KEY, key);
+                    segment.set(reusable + ARRIVAL_TIME, arrivalTime);
+                    return claimed(segment, home, key, now);
+                }
+                // Handed to another Client in the meantime
+                segment.set(reusable + ARRIVAL_TIME, arrivalTime);
+            }
+        }
+    }
+
+    /*
+        Folds every slot holding the key into the first one in probe order, after claiming a slot for the key
+
+        @return index of the key's slot
+     */
+    private int claimed(AtomicLongArray segment, int home, long key, long now) {
+        int first = -1;
+        for (int probe = 0; probe < MAXIMUM_PROBES; probe++) {
+            int index = 2 * ((home + probe) & slotMask);
+            if (segment.get(index + KEY) != key) {
+                continue;
+            }
+            if (first < 0) {
+                first = index;
+            } else if (index != first) {
+                fold(segment, key, index, first, now);
+            }
+        }
+        // The slot claimed can already have been handed to another Client, its bucket being full
+        return first >= 0 ? first : indexFor(segment, key, now);
+    }
+
+    /*
+        Adds what is left of the charge of a duplicate slot to the key's first slot, and empties the duplicate. A slot
+        emptied in front of another Client's slot is claimed again by that Client's next request, which folds its old
+        slot in turn
+     */
+    private void fold(AtomicLongArray segment, long key, int duplicate, int first, long now) {
+        long arrivalTime = segment.get(duplicate + ARRIVAL_TIME);
+        if (arrivalTime == RESERVED || !segment.compareAndSet(duplicate + ARRIVAL_TIME, arrivalTime, RESERVED)) {
+            // Being folded or handed over by another request
+            return;
+        }
+        if (segment.get(duplicate + KEY) != key) {
+            segment.set(duplicate + ARRIVAL_TIME, arrivalTime);
+            return;
+        }
+        long charge = Math.max(arrivalTime - now, 0);
+        for (;;) {
+            long firstArrivalTime = segment.get(first + ARRIVAL_TIME);
+            if (firstArrivalTime == RESERVED) {
+                // Being handed over or folded, which only takes a few steps
+                continue;
+            }
+            if (segment.get(first + KEY) != key) {
+                // The first slot has been handed to another Client, so the duplicate is kept
+                segment.set(duplicate + ARRIVAL_TIME, arrivalTime);
+                return;
+            }
+            if (charge == 0 || segment.compareAndSet(first + ARRIVAL_TIME, firstArrivalTime,
+                    Math.max(firstArrivalTime, now) + charge)) {
+                break;
+            }
+        }
+        // Requests that find the duplicate reserved look for the key again, and find the first slot
+        segment.set(duplicate + KEY, 0);
+        segment.set(duplicate + ARRIVAL_TIME, 0);
+    }
+}
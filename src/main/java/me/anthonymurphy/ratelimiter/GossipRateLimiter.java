@@ -0,0 +1,302 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.io.ByteArrayInputStream;
+import java.io.ByteArrayOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.charset.StandardCharsets;
+import java.util.Iterator;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rate limiter for a node that shares its Clients' limits with other nodes by gossip, without a central store
+ *
+ * Every node holds a full bucket for each of its Clients in a {@link RateLimiterImpl} and decides requests locally, so
+ * a request costs no network round trip. Each node counts the tokens its Clients consume and periodically, on
+ * {@link #exchange()}, sends the counts since its last exchange to the other nodes as a compact report. A node that
+ * receives a report owes the tokens other nodes consumed and pays the debt from the Client's bucket before it allows
+ * the Client any more requests, so the nodes together refill each Client at the rate of a single bucket. Debt is only
+ * taken on for Clients that have a bucket on this node, a Client new to the node has a full bucket whatever it used
+ * elsewhere, so reports cannot make a node hold counts for Clients it has never seen.
+ *
+ * Limits hold approximately, until a report arrives each node may allow what its own bucket holds, so a Client that
+ * spreads its requests over N nodes can be allowed up to N buckets in its first exchange interval and, when every node
+ * is busy, about N times the tokens the bucket earns in one interval more than its limit in each period. The shorter
+ * the exchange interval, the closer the nodes stay to a single limit, at the cost of more reports.
+ *
+ * The counts for a Client with no requests on this node for a whole exchange interval are dropped once the Client's
+ * bucket has paid off what it owes, which it does as it refills. A request that counts its tokens just as they are
+ * dropped goes unreported, which only lets the other nodes allow that many more tokens. The counts are also dropped,
+ * debt and all, once the Client's bucket has left this node's cache, so they are held for no more Clients than the
+ * cache holds and those requested since the last exchange. A Client id too long to fit in a report is never reported,
+ * each node limits that Client on its own.
+ */
+
+public class GossipRateLimiter implements RateLimiter {
+
+    // Keeps a report within a single UDP datagram on an Ethernet network
+    static final int MAXIMUM_REPORT_BYTES = 1200;
+
+    // Longest encoding of a Client id's length and a count, as variable length integers
+    private static final int MAXIMUM_ENTRY_OVERHEAD_BYTES = 15;
+
+    // Longest Client id, in UTF-8 bytes, that fits in a report
+    static final int MAXIMUM_CLIENT_ID_BYTES = MAXIMUM_REPORT_BYTES - MAXIMUM_ENTRY_OVERHEAD_BYTES;
+
+    private final RateLimiterImpl local;
+    private final GossipTransport transport;
+    private final Map<String, Usage> usage = new ConcurrentHashMap<>();
+    private final LongAdder reportsSent = new LongAdder();
+    private final LongAdder reportsReceived = new LongAdder();
+    private final LongAdder malformedReports = new LongAdder();
+
+    GossipRateLimiter(RateLimiterImpl local, GossipTransport transport) {
+        this.local = checkNotNull(local, "RateLimiter must be set");
+        this.transport = checkNotNull(transport, "Transport must be set");
+        transport.onReceive(this::receive);
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from the node's bucket for the
+        Client, once the Client's debt to other nodes is paid
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed and Client may access the resource, {@code false} otherwise and
+        the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        all at once or not at all
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        Usage clientUsage = usageFor(clientId);
+        if (!clientUsage.active) {
+            clientUsage.active = true;
+        }
+        if (clientUsage.debt.get() > 0 && !payDebt(clientId, clientUsage)) {
+            return false;
+        }
+        boolean allowed = local.allowRequest(clientId, cost);
+        if (allowed) {
+            clientUsage.unreported.add(cost);
+        }
+        return allowed;
+    }
+
+    /*
+        Gives the Client its own TokenBucket on this node, tokens consumed on other nodes are still taken from it
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param tokenBucket previously constructed TokenBucket
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        local.addClient(clientId, tokenBucket);
+    }
+
+    /*
+        Sends the tokens consumed on this node since the last exchange to the other nodes, in as many reports as they
+        need, and drops the counts of Clients that have been idle since the last exchange and either owe nothing or
+        no longer have a bucket on this node
+     */
+    public void exchange() {
+        ByteArrayOutputStream report = new ByteArrayOutputStream(MAXIMUM_REPORT_BYTES);
+        DataOutputStream output = new DataOutputStream(report);
+        try {
+            Iterator<Map.Entry<String, Usage>> entries = usage.entrySet().iterator();
+            while (entries.hasNext()) {
+                Map.Entry<String, Usage> entry = entries.next();
+                Usage clientUsage = entry.getValue();
+                long consumed = clientUsage.unreported.sumThenReset();
+                if (consumed > 0) {
+                    byte[] clientId = entry.getKey().getBytes(StandardCharsets.UTF_8);
+                    if (clientId.length <= MAXIMUM_CLIENT_ID_BYTES) {
+                        int entryBytes = clientId.length + MAXIMUM_ENTRY_OVERHEAD_BYTES;
+                        if (report.size() > 0 && report.size() + entryBytes > MAXIMUM_REPORT_BYTES) {
+                            send(report);
+                        }
+                        writeVarLong(output, clientId.length);
+                        output.write(clientId);
+                        writeVarLong(output, consumed);
+                    }
+                } else if (!clientUsage.active
+                        && (!local.hasBucket(entry.getKey()) || payDebt(entry.getKey(), clientUsage))) {
+                    entries.remove();
+                }
+                clientUsage.active = false;
+            }
+            if (report.size() > 0) {
+                send(report);
+            }
+        } catch (IOException e) {
+            // Writing to a byte array never fails
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /*
+        Calls exchange periodically on the given executor, cancel the returned future to stop
+
+        @param executor executor to run exchange on
+        @param interval time between exchanges
+        @param timeUnit unit of the interval
+        @return future that cancels the periodic exchange
+     */
+    public ScheduledFuture<?> scheduleExchange(ScheduledExecutorService executor, long interval, TimeUnit timeUnit) {
+        checkArgument(interval > 0, "Interval must be greater than 0");
+        return executor.scheduleWithFixedDelay(this::exchange, interval, interval, timeUnit);
+    }
+
+    /*
+        Returns the number of tokens the Client owes for requests allowed on other nodes
+
+        @param clientId unique identifier for the Client
+        @return tokens owed
+     */
+    public long getDebt(String clientId) {
+        Usage clientUsage = usage.get(clientId);
+        return clientUsage == null ? 0 : clientUsage.debt.get();
+    }
+
+    /*
+        Returns the number of Clients this node holds unreported tokens or debt for
+
+        @return number of Clients
+     */
+    public long getClientCount() {
+        return usage.size();
+    }
+
+    public long getReportsSentCount() {
+        return reportsSent.sum();
+    }
+
+    public long getReportsReceivedCount() {
+        return reportsReceived.sum();
+    }
+
+    /*
+        Returns the number of reports that could not be decoded and were ignored
+
+        @return number of malformed reports
+     */
+    public long getMalformedReportCount() {
+        return malformedReports.sum();
+    }
+
+    /*
+        Adds the tokens consumed on another node to the debt of each Client in the report that has a bucket on this
+        node
+     */
+    void receive(byte[] report) {
+        DataInputStream input = new DataInputStream(new ByteArrayInputStream(report));
+        try {
+            while (input.available() > 0) {
+                // The length comes off the network, so it is checked against the bytes left before allocating
+                long length = readVarLong(input);
+                checkArgument(length <= input.available(), "Client id longer than report");
+                byte[] clientId = new byte[(int) length];
+                input.readFully(clientId);
+                long consumed = readVarLong(input);
+                String id = new String(clientId, StandardCharsets.UTF_8);
+                if (local.hasBucket(id)) {
+                    usageFor(id).debt.addAndGet(consumed);
+                }
+            }
+            reportsReceived.increment();
+        } catch (IOException | RuntimeException e) {
+            // Clients decoded before the report turned out to be malformed keep their debt
+            malformedReports.increment();
+        }
+    }
+
+    /*
+        Takes as much of the Client's debt as the bucket holds, the debt is claimed first so concurrent requests do
+        not pay the same debt twice
+
+        @return {@code true} if the debt is paid off
+     */
+    private boolean payDebt(String clientId, Usage clientUsage) {
+        long debt = clientUsage.debt.getAndSet(0);
+        if (debt == 0) {
+            return true;
+        }
+        long paid = local.bucketFor(clientId).consumeUpTo(debt);
+        if (paid < debt) {
+            clientUsage.debt.addAndGet(debt - paid);
+            return false;
+        }
+        return true;
+    }
+
+    private Usage usageFor(String clientId) {
+        Usage clientUsage = usage.get(clientId);
+        if (clientUsage != null) {
+            return clientUsage;
+        }
+        return usage.computeIfAbsent(clientId, id -> new Usage());
+    }
+
+    private void send(ByteArrayOutputStream report) {
+        transport.broadcast(report.toByteArray());
+        reportsSent.increment();
+        report.reset();
+    }
+
+    private static void writeVarLong(DataOutputStream output, long value) throws IOException {
+        while ((value & ~0x7FL) != 0) {
+            output.writeByte((int) (value & 0x7F) | 0x80);
+            value >>>= 7;
+        }
+        output.writeByte((int) value);
+    }
+
+    private static long readVarLong(DataInputStream input) throws IOException {
+        long value = 0;
+        for (int shift = 0; shift < Long.SIZE; shift += 7) {
+            int b = input.readUnsignedByte();
+            value |= (long) (b & 0x7F) << shift;
+            if ((b & 0x80) == 0) {
+                checkArgument(value >= 0, "Negative value in report");
+                return value;
+            }
+        }
+        throw new IllegalArgumentException("Malformed value in report");
+    }
+
+    /*
+        A Client's tokens consumed on this node that have not been reported yet, and the tokens it owes for requests
+        allowed on other nodes
+     */
+    private static final class Usage {
+
+        final LongAdder unreported = new LongAdder();
+        final AtomicLong debt = new AtomicLong();
+        volatile boolean active;
+    }
+}
@@ -0,0 +1,28 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.function.Consumer;
+
+/**
+ * Carries usage reports between the nodes of a {@link GossipRateLimiter}
+ *
+ * Delivery is best effort, a report may be lost or arrive late and nodes carry on limiting locally either way, so a
+ * transport never blocks the sender for long and never throws from broadcast. {@link DatagramGossipTransport} sends
+ * reports over UDP and {@link InMemoryGossipTransport} connects nodes in the same process.
+ */
+
+public interface GossipTransport {
+
+    /*
+        Sends a report to every other node
+
+        @param report encoded usage report, no larger than a single datagram
+     */
+    void broadcast(byte[] report);
+
+    /*
+        Sets the receiver that reports from other nodes are passed to
+
+        @param receiver called with each report received
+     */
+    void onReceive(Consumer<byte[]> receiver);
+}
@@ -0,0 +1,82 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Adds tokens continuously, in proportion to the time elapsed since the last refill
+ *
+ * A bucket with a capacity of 60 and a period of an hour gains a token every minute rather than 60 tokens at the top
+ * of the hour, so clients that have used up their tokens are let through evenly rather than all at once when a period
+ * starts.
+ *
+ * Only whole tokens are added, the refill time is advanced by exactly the time those tokens took to earn, so the
+ * fraction of a token earned since then is carried forward with nanosecond precision rather than lost.
+ */
+
+public class GreedyRefillStrategy implements RefillStrategy {
+
+    private final long capacity;
+    private final long periodInNanoseconds;
+    private final long nanosecondsPerToken;
+
+    GreedyRefillStrategy(long capacity, long period, TimeUnit unit) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(period > 0, "Period must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        this.capacity = capacity;
+        this.periodInNanoseconds = unit.toNanos(period);
+        this.nanosecondsPerToken = Arithmetic.multiplyDivideRoundUp(1, periodInNanoseconds, capacity);
+    }
+
+    /*
+        Returns the number of whole tokens earned since the last refill, never more than the capacity
+
+        @param lastRefillTime time of the last refill
+        @param currentTime current time
+        @return number of tokens to add to the bucket
+     */
+    @Override
+    public long tokensToAdd(long lastRefillTime, long currentTime) {
+        long elapsed = currentTime - lastRefillTime;
+        if (elapsed <= 0)
+            return 0;
+        if (elapsed >= periodInNanoseconds)
+            return capacity;
+        return Arithmetic.multiplyDivide(elapsed, capacity, periodInNanoseconds);
+    }
+
+    /*
+        Returns the time at which the tokens returned by tokensToAdd were fully earned. Once a whole period has elapsed
+        the bucket is full and any further time is discarded
+
+        @param lastRefillTime time of the last refill
+        @param currentTime current time
+        @return time to record as the last refill
+     */
+    @Override
+    public long getRefillTime(long lastRefillTime, long currentTime) {
+        long elapsed = currentTime - lastRefillTime;
+        if (elapsed <= 0)
+            return lastRefillTime;
+        if (elapsed >= periodInNanoseconds)
+            return currentTime;
+        long tokens = Arithmetic.multiplyDivide(elapsed, capacity, periodInNanoseconds);
+        // Rounding up never exceeds elapsed, and never hands out the rounding error as extra tokens
+        return lastRefillTime
+                + Math.min(elapsed, Arithmetic.multiplyDivideRoundUp(tokens, periodInNanoseconds, capacity));
+    }
+
+    /*
+        Returns the time the next token is earned
+
+        @param lastRefillTime time of the last refill
+        @return time of the next refill
+     */
+    @Override
+    public long getNextRefillTime(long lastRefillTime) {
+        return lastRefillTime + nanosecondsPerToken;
+    }
+}
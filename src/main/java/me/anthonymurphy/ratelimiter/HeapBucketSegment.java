@@ -0,0 +1,43 @@
+package me.anthonymurphy.ratelimiter;
+
+/**
+ * BucketSegment stored in a long array on the heap, grows by doubling up to a maximum number of slots
+ */
+
+final class HeapBucketSegment extends BucketSegment {
+
+    private final int maximumSlotCount;
+    private long[] slots;
+
+    HeapBucketSegment(long capacity, RefillStrategy refillStrategy, int initialSlotCount, int maximumSlotCount) {
+        super(capacity, refillStrategy);
+        this.maximumSlotCount = checkSlotCount(maximumSlotCount);
+        this.slots = new long[checkSlotCount(Math.min(initialSlotCount, maximumSlotCount)) * LONGS_PER_SLOT];
+    }
+
+    @Override
+    int slotCount() {
+        return slots.length / LONGS_PER_SLOT;
+    }
+
+    @Override
+    long get(int slot, int field) {
+        return slots[slot * LONGS_PER_SLOT + field];
+    }
+
+    @Override
+    void set(int slot, int field, long value) {
+        slots[slot * LONGS_PER_SLOT + field] = value;
+    }
+
+    @Override
+    int clear(int slotCount) {
+        slots = new long[slotCount * LONGS_PER_SLOT];
+        return slotCount;
+    }
+
+    @Override
+    int maximumSlotCount() {
+        return maximumSlotCount;
+    }
+}
@@ -0,0 +1,166 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Bounded sketch of the Clients seen most often, using the Space-Saving algorithm
+ *
+ * A fixed number of Clients are counted, when a Client that is not counted is seen it takes the place of the Client
+ * with the lowest count and starts from that count plus one. Any Client seen more than 1 / capacity of the time is
+ * always held, and a Client's count is over-estimated by at most the count it took over. Counters are kept in a
+ * min-heap so the lowest is found in constant time and updates are logarithmic in the capacity.
+ *
+ * The sketch is guarded by a lock that offer only tries to take, a sighting is dropped rather than wait for another
+ * thread, so recording never blocks and under heavy contention the counts are a sample of the sightings.
+ */
+
+public class HeavyHitters {
+
+    private final Counter[] heap;
+    private final Map<String, Counter> counters;
+    private final ReentrantLock lock = new ReentrantLock();
+    private int size;
+
+    HeavyHitters(int capacity) {
+        checkArgument(capacity > 0, "Capacity must be greater than 0");
+        this.heap = new Counter[capacity];
+        this.counters = new HashMap<>(2 * capacity);
+    }
+
+    /*
+        Counts a sighting of the Client, unless another thread is counting at the same time
+
+        @param clientId unique identifier for the Client
+        @return {@code true} if the sighting was counted
+     */
+    public boolean offer(String clientId) {
+        if (!lock.tryLock()) {
+            return false;
+        }
+        try {
+            Counter counter = counters.get(clientId);
+            if (counter != null) {
+                counter.count++;
+                siftDown(counter.index);
+            } else if (size < heap.length) {
+                counter = new Counter(clientId, size);
+                heap[size++] = counter;
+                counters.put(clientId, counter);
+                siftUp(counter.index);
+            } else {
+                // Take over the counter with the lowest count, which is at the root of the heap
+                counter = heap[0];
+                counters.remove(counter.clientId);
+                counter.clientId = clientId;
+                counter.count++;
+                counters.put(clientId, counter);
+                siftDown(0);
+            }
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns the Clients with the highest counts, highest first
+
+        @param limit maximum number of Clients to return
+        @return estimated count of each Client
+     */
+    public Map<String, Long> getTop(int limit) {
+        checkArgument(limit >= 0, "Limit must not be negative");
+        String[] clientIds;
+        long[] counts;
+        lock.lock();
+        try {
+            clientIds = new String[size];
+            counts = new long[size];
+            for (int i = 0; i < size; i++) {
+                clientIds[i] = heap[i].clientId;
+                counts[i] = heap[i].count;
+            }
+        } finally {
+            lock.unlock();
+        }
+        Integer[] order = new Integer[clientIds.length];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, Comparator.comparingLong((Integer i) -> counts[i]).reversed());
+        Map<String, Long> top = new LinkedHashMap<>();
+        for (int i = 0; i < Math.min(limit, order.length); i++) {
+            top.put(clientIds[order[i]], counts[order[i]]);
+        }
+        return top;
+    }
+
+    /*
+        Forgets every Client
+     */
+    public void reset() {
+        lock.lock();
+        try {
+            Arrays.fill(heap, null);
+            counters.clear();
+            size = 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void siftUp(int index) {
+        while (index > 0) {
+            int parent = (index - 1) / 2;
+            if (heap[parent].count <= heap[index].count) {
+                return;
+            }
+            swap(index, parent);
+            index = parent;
+        }
+    }
+
+    private void siftDown(int index) {
+        for (;;) {
+            int smallest = index;
+            int left = 2 * index + 1;
+            int right = left + 1;
+            if (left < size && heap[left].count < heap[smallest].count)
+                smallest = left;
+            if (right < size && heap[right].count < heap[smallest].count)
+                smallest = right;
+            if (smallest == index) {
+                return;
+            }
+            swap(index, smallest);
+            index = smallest;
+        }
+    }
+
+    private void swap(int i, int j) {
+        Counter counter = heap[i];
+        heap[i] = heap[j];
+        heap[j] = counter;
+        heap[i].index = i;
+        heap[j].index = j;
+    }
+
+    private static final class Counter {
+
+        String clientId;
+        long count = 1;
+        int index;
+
+        Counter(String clientId, int index) {
+            this.clientId = clientId;
+            this.index = index;
+        }
+    }
+}
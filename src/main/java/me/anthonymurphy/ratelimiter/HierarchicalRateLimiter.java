@@ -0,0 +1,172 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.List;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+import java.util.function.Function;
+import java.util.stream.IntStream;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * Rate limiter that enforces several tiers of limits at once, for example per client, per tenant and global
+ *
+ * Each tier maps the client id to a key, such as the tenant the client belongs to, and holds a TokenBucket per key. A
+ * request is allowed only if every tier has the tokens for it, all of them are consumed or none are. Tiers are tried
+ * one at a time, when one denies the request the tokens already taken from the tiers before it are refunded to the
+ * buckets they were taken from, even if a tier has since replaced the key's bucket, and the tiers after it are never
+ * touched, so a request holds at most one bucket's lock at a time and tiers cannot deadlock. A concurrent request can
+ * see tokens missing while they are held for a request that is then denied, which can only deny it, never allow it
+ * extra. The buckets a request holds tokens from are kept on the stack as it goes from tier to tier, so a request
+ * allocates nothing.
+ *
+ * Each tier decides through its own rate limiter, so the tier's listener is told of the decisions it made. A tier
+ * that allowed a request counts it as allowed even if a later tier denies it and the tokens are refunded.
+ *
+ * Tiers are tried in order of how often they have recently denied requests, so the tier most likely to deny is
+ * checked first and the requests it denies take no tokens from any other tier.
+ */
+
+public class HierarchicalRateLimiter implements RateLimiter {
+
+    // Denials between re-ordering the tiers
+    static final int REORDER_INTERVAL = 64;
+
+    private final Tier[] tiers;
+    private final long[] denialsAtLastReorder;
+    private final AtomicInteger denialsSinceReorder = new AtomicInteger();
+    private final ReentrantLock reorderLock = new ReentrantLock();
+    private volatile int[] order;
+
+    HierarchicalRateLimiter(List<Tier> tiers) {
+        checkArgument(!tiers.isEmpty(), "At least one tier must be specified");
+        this.tiers = tiers.toArray(new Tier[0]);
+        this.denialsAtLastReorder = new long[this.tiers.length];
+        int[] order = new int[this.tiers.length];
+        Arrays.setAll(order, i -> i);
+        this.order = order;
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from its bucket in every tier
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed from every tier and Client may access the resource, {@code false}
+        otherwise and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        from every tier or from none
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes in each tier
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowRequest(clientId, cost, order, 0);
+    }
+
+    /*
+        Consumes the tokens from the tier at the given position in the order and the tiers after it, refunding the
+        tier's bucket if a later tier denies the request
+     */
+    private boolean allowRequest(String clientId, long cost, int[] order, int position) {
+        if (position == order.length) {
+            return true;
+        }
+        Tier tier = tiers[order[position]];
+        TokenBucket tokenBucket = tier.consume(clientId, cost);
+        if (tokenBucket == null) {
+            denied(tier);
+            return false;
+        }
+        if (allowRequest(clientId, cost, order, position + 1)) {
+            return true;
+        }
+        tokenBucket.refund(cost);
+        return false;
+    }
+
+    /*
+        Add a specific TokenBucket for the Client's key in the first tier, usually the per Client tier. Will
+        overwrite any existing bucket for the key
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param tokenBucket previously constructed TokenBucket
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        Tier tier = tiers[0];
+        tier.limiter.addClient(tier.keyFunction.apply(clientId), tokenBucket);
+    }
+
+    /*
+        Returns the indexes of the tiers in the order they are tried
+     */
+    int[] getTierOrder() {
+        return order.clone();
+    }
+
+    private void denied(Tier tier) {
+        tier.denials.increment();
+        if (denialsSinceReorder.incrementAndGet() >= REORDER_INTERVAL && reorderLock.tryLock()) {
+            try {
+                reorder();
+            } finally {
+                reorderLock.unlock();
+            }
+        }
+    }
+
+    /*
+        Orders the tiers by the number of requests each denied since the last re-order, most first. Tiers that denied
+        the same number keep the order they were added in
+     */
+    private void reorder() {
+        denialsSinceReorder.set(0);
+        long[] recentDenials = new long[tiers.length];
+        for (int i = 0; i < tiers.length; i++) {
+            long denials = tiers[i].denials.sum();
+            recentDenials[i] = denials - denialsAtLastReorder[i];
+            denialsAtLastReorder[i] = denials;
+        }
+        // A stable sort, so ties stay in the order the tiers were added
+        order = IntStream.range(0, tiers.length)
+                .boxed()
+                .sorted(Comparator.comparingLong((Integer tier) -> recentDenials[tier]).reversed())
+                .mapToInt(Integer::intValue)
+                .toArray();
+    }
+
+    /*
+        A tier of limits, the Client id is mapped to the key of the bucket that limits it in this tier
+     */
+    static final class Tier {
+
+        final Function<String, String> keyFunction;
+        final RateLimiterImpl limiter;
+        final LongAdder denials = new LongAdder();
+
+        Tier(Function<String, String> keyFunction, RateLimiterImpl limiter) {
+            this.keyFunction = keyFunction;
+            this.limiter = limiter;
+        }
+
+        TokenBucket consume(String clientId, long cost) {
+            return limiter.consume(keyFunction.apply(clientId), cost);
+        }
+    }
+}
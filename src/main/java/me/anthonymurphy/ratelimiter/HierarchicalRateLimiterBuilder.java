@@ -0,0 +1,55 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.function.Function;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+
+public final class HierarchicalRateLimiterBuilder {
+
+    // Key of the single bucket in a global tier
+    private static final String GLOBAL_KEY = "";
+
+    private HierarchicalRateLimiterBuilder() { }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private final List<HierarchicalRateLimiter.Tier> tiers = new ArrayList<>();
+
+        /*
+            Adds a tier that limits each Client on its own
+         */
+        public Builder withClientTier(RateLimiterBuilder.Builder rateLimiterBuilder) {
+            return withTier(Function.identity(), rateLimiterBuilder);
+        }
+
+        /*
+            Adds a tier that limits Clients together by the key the function maps them to, for example their tenant.
+            The RateLimiterBuilder sets the bucket each key gets and how many keys are held
+         */
+        public Builder withTier(Function<String, String> keyFunction, RateLimiterBuilder.Builder rateLimiterBuilder) {
+            checkNotNull(keyFunction, "Key function must be specified");
+            checkNotNull(rateLimiterBuilder, "RateLimiter must be specified");
+            tiers.add(new HierarchicalRateLimiter.Tier(keyFunction, rateLimiterBuilder.build()));
+            return this;
+        }
+
+        /*
+            Adds a tier with a single bucket shared by every Client
+         */
+        public Builder withGlobalTier(TokenBucketBuilder.Builder tokenBucketBuilder) {
+            return withTier(clientId -> GLOBAL_KEY, RateLimiterBuilder.builder().withTokenBucket(tokenBucketBuilder));
+        }
+
+        public HierarchicalRateLimiter build() {
+            return new HierarchicalRateLimiter(tiers);
+        }
+    }
+
+
+}
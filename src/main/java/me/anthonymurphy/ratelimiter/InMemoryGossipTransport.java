@@ -0,0 +1,57 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.Consumer;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * GossipTransport between nodes in the same process, for tests and simulations
+ *
+ * A report is passed to the receiver of every other node on the broadcasting thread, so a simulation decides exactly
+ * when reports arrive. Reports broadcast before a node has a receiver are dropped, as they would be by a node that has
+ * not started yet.
+ */
+
+public class InMemoryGossipTransport implements GossipTransport {
+
+    private final List<InMemoryGossipTransport> network;
+    private volatile Consumer<byte[]> receiver;
+
+    private InMemoryGossipTransport(List<InMemoryGossipTransport> network) {
+        this.network = network;
+    }
+
+    /*
+        Returns the transports of a network of the given number of nodes, each connected to all of the others
+
+        @param nodes number of nodes
+        @return one transport for each node
+     */
+    public static List<InMemoryGossipTransport> network(int nodes) {
+        checkArgument(nodes > 0, "Nodes must be greater than 0");
+        List<InMemoryGossipTransport> network = new ArrayList<>(nodes);
+        for (int i = 0; i < nodes; i++) {
+            network.add(new InMemoryGossipTransport(Collections.unmodifiableList(network)));
+        }
+        return Collections.unmodifiableList(network);
+    }
+
+    @Override
+    public void broadcast(byte[] report) {
+        for (InMemoryGossipTransport node : network) {
+            Consumer<byte[]> nodeReceiver = node.receiver;
+            if (node != this && nodeReceiver != null) {
+                nodeReceiver.accept(report);
+            }
+        }
+    }
+
+    @Override
+    public void onReceive(Consumer<byte[]> receiver) {
+        this.receiver = checkNotNull(receiver, "Receiver must be set");
+    }
+}
@@ -0,0 +1,69 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Rate limiter that keys Clients by a 64 bit hash rather than keeping their ids, so Clients can also be identified by
+ * a number, bytes or an IP address without a String being created for each request
+ *
+ * Keys are hashed again by the rate limiter, so they need not be evenly spread, sequential account numbers are fine.
+ * {@link ClientIds#ipv4(int, int)} and {@link ClientIds#ipv6(long, long, int)} key addresses by network, so that a
+ * whole CIDR block shares one bucket.
+ *
+ * @see ClientIds
+ */
+
+public interface KeyedRateLimiter extends RateLimiter {
+
+    /*
+        Checks if the Client with the given key can make a request that costs the given number of tokens, which are
+        consumed all at once or not at all
+
+        @param clientKey 64 bit key of the Client, for example an account number or a key from ClientIds
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    boolean allowRequest(long clientKey, long cost);
+
+    default boolean allowRequest(long clientKey) {
+        return allowRequest(clientKey, 1);
+    }
+
+    /*
+        Checks a request from a Client identified by bytes, for example a token read from the request
+     */
+    default boolean allowRequest(byte[] clientId) {
+        return allowRequest(ClientIds.hash(clientId, 0, clientId.length, ClientIds.DEFAULT_SEED), 1);
+    }
+
+    /*
+        Checks a request from a Client identified by the bytes between the buffer's position and its limit, the
+        position is not moved
+     */
+    default boolean allowRequest(ByteBuffer clientId) {
+        return allowRequest(ClientIds.hash(clientId, ClientIds.DEFAULT_SEED), 1);
+    }
+
+    /*
+        Checks a request from an IPv4 address, each address is a Client on its own, use ClientIds.ipv4 to key a
+        network instead
+
+        @param address IPv4 address, most significant byte first as in a packet
+     */
+    default boolean allowIpv4Request(int address) {
+        return allowRequest(ClientIds.ipv4(address, 32), 1);
+    }
+
+    /*
+        Checks a request from an IPv6 address, each address is a Client on its own, use ClientIds.ipv6 to key a
+        network instead
+
+        @param high most significant 64 bits of the address
+        @param low least significant 64 bits of the address
+     */
+    default boolean allowIpv6Request(long high, long low) {
+        return allowRequest(ClientIds.ipv6(high, low, 128), 1);
+    }
+}
@@ -0,0 +1,220 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.Cache;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.RemovalListeners;
+import com.google.common.cache.RemovalNotification;
+
+import java.util.Map;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rate limiter for a node that shares its Clients' limits with other nodes through a {@link TokenStore}
+ *
+ * Rather than asking the store on every request, a node leases a batch of tokens for a Client from the store and
+ * serves the Client's requests from the lease, only going back to the store once the lease runs out. The larger the
+ * lease the fewer round trips, but the more of a Client's tokens can be held by one node while its requests arrive
+ * at another. Tokens are never created by leasing, so across all nodes a Client is allowed no more than its bucket in
+ * the store grants.
+ *
+ * A lease is returned to the store once the lease duration has passed since tokens were last leased, or when the
+ * Client has been idle that long, so tokens held by a node that no longer sees the Client go back to the other nodes.
+ * Leases of Clients that are evicted or idle are returned on an executor, so the request that evicts them does not wait
+ * for the store.
+ * When the store has no tokens for a Client the node denies the Client's requests without asking again for the rest of
+ * the lease duration, so a Client that is over its limit does not cost a round trip per request.
+ *
+ * Each lease is guarded by its own {@link ReentrantLock}, held while the store is asked for more tokens, so a node
+ * makes at most one request to the store at a time for each Client. A lease is checked to still be the Client's under
+ * its lock before tokens are leased into it, so tokens are never leased into a lease that has already been returned.
+ */
+
+public class LeasingRateLimiter implements RateLimiter {
+
+    private final TokenStore store;
+    private final Ticker ticker;
+    private final long leaseSize;
+    private final long leaseDurationInNanoseconds;
+    private final Cache<String, Lease> leases;
+    private final LongAdder storeRequests = new LongAdder();
+
+    LeasingRateLimiter(TokenStore store, Ticker ticker, long leaseSize, long leaseDurationInNanoseconds,
+                       CacheBuilder<Object, Object> cacheBuilder, Executor releaseExecutor) {
+        checkArgument(leaseSize > 0, "Lease size must be greater than 0");
+        checkArgument(leaseDurationInNanoseconds > 0, "Lease duration must be greater than 0");
+        this.store = checkNotNull(store, "TokenStore must be set");
+        this.ticker = checkNotNull(ticker, "Ticker must be set");
+        this.leaseSize = leaseSize;
+        this.leaseDurationInNanoseconds = leaseDurationInNanoseconds;
+        checkNotNull(releaseExecutor, "Executor must be set");
+        this.leases = cacheBuilder
+                .ticker(ticker)
+                .expireAfterAccess(leaseDurationInNanoseconds, TimeUnit.NANOSECONDS)
+                .removalListener(RemovalListeners.asynchronous(this::onRemoval, releaseExecutor))
+                .build();
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from the node's lease
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed and Client may access the resource, {@code false} otherwise and
+        the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        all at once or not at all, the lease is topped up from the store if it does not hold enough
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        for (;;) {
+            Lease lease = leaseFor(clientId);
+            lease.lock.lock();
+            try {
+                long now = ticker.read();
+                if (now - lease.leasedAt >= leaseDurationInNanoseconds) {
+                    // Tokens held longer than the lease may belong to a period that has ended, so they go back
+                    if (lease.tokens > 0) {
+                        release(clientId, lease.tokens);
+                        lease.tokens = 0;
+                    }
+                    lease.refused = false;
+                }
+                if (lease.tokens >= cost) {
+                    lease.tokens -= cost;
+                    return true;
+                }
+                if (lease.refused) {
+                    return false;
+                }
+                // Removed since it was looked up, the removal listener may already have returned its tokens
+                if (leases.asMap().get(clientId) != lease) {
+                    continue;
+                }
+                long granted = acquire(clientId, Math.max(leaseSize, cost) - lease.tokens);
+                lease.tokens += granted;
+                lease.leasedAt = now;
+                lease.refused = lease.tokens < cost;
+                if (lease.refused) {
+                    return false;
+                }
+                lease.tokens -= cost;
+                return true;
+            } finally {
+                lease.lock.unlock();
+            }
+        }
+    }
+
+    /*
+        Leases are taken from the shared store, so a Client cannot be given a TokenBucket of its own on one node
+
+        @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        throw new UnsupportedOperationException("LeasingRateLimiter does not support per Client TokenBuckets");
+    }
+
+    /*
+        Returns every leased token to the store, for example before the node shuts down. The tokens have been returned
+        by the time it returns, rather than on the release executor
+     */
+    public void releaseAll() {
+        ConcurrentMap<String, Lease> map = leases.asMap();
+        for (Map.Entry<String, Lease> entry : map.entrySet()) {
+            if (map.remove(entry.getKey(), entry.getValue())) {
+                releaseLease(entry.getKey(), entry.getValue());
+            }
+        }
+    }
+
+    /*
+        Returns the number of times the store has been asked for or given back tokens
+
+        @return number of store requests
+     */
+    public long getStoreRequestCount() {
+        return storeRequests.sum();
+    }
+
+    /*
+        Returns the approximate number of Clients with a lease
+
+        @return number of Clients
+     */
+    public long getClientCount() {
+        return leases.size();
+    }
+
+    /*
+        Returns the lease for a Client, adding an empty one on its first request. As in RateLimiterImpl, new leases
+        are added through the cache's map view so a virtual thread never waits for the cache while holding a monitor
+     */
+    private Lease leaseFor(String clientId) {
+        Lease lease = leases.getIfPresent(clientId);
+        if (lease != null) {
+            return lease;
+        }
+        return leases.asMap().computeIfAbsent(clientId, id -> new Lease(ticker.read() - leaseDurationInNanoseconds));
+    }
+
+    private long acquire(String clientId, long permits) {
+        storeRequests.increment();
+        return store.acquire(clientId, permits);
+    }
+
+    private void release(String clientId, long permits) {
+        storeRequests.increment();
+        store.release(clientId, permits);
+    }
+
+    private void onRemoval(RemovalNotification<String, Lease> removal) {
+        releaseLease(removal.getKey(), removal.getValue());
+    }
+
+    private void releaseLease(String clientId, Lease lease) {
+        lease.lock.lock();
+        try {
+            if (lease.tokens > 0) {
+                release(clientId, lease.tokens);
+                lease.tokens = 0;
+            }
+        } finally {
+            lease.lock.unlock();
+        }
+    }
+
+    private static final class Lease {
+
+        final ReentrantLock lock = new ReentrantLock();
+        long tokens;
+        long leasedAt;
+        boolean refused;
+
+        Lease(long leasedAt) {
+            this.leasedAt = leasedAt;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+
+import java.util.concurrent.Executor;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+
+public final class LeasingRateLimiterBuilder {
+
+    static final long DEFAULT_LEASE_SIZE = 10;
+    static final long DEFAULT_LEASE_DURATION_IN_NANOSECONDS = TimeUnit.SECONDS.toNanos(1);
+
+    private LeasingRateLimiterBuilder() { }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private TokenStore store = null;
+        private Ticker ticker = null;
+        private long leaseSize = DEFAULT_LEASE_SIZE;
+        private long leaseDurationInNanoseconds = DEFAULT_LEASE_DURATION_IN_NANOSECONDS;
+        private long maximumClients = -1;
+        private Executor releaseExecutor = null;
+
+        /*
+            Sets the store the Clients' buckets are shared through
+         */
+        public Builder withStore(TokenStore store) {
+            this.store = store;
+            return this;
+        }
+
+        /*
+            Sets the number of tokens leased from the store at a time, a request that costs more leases its cost
+         */
+        public Builder withLeaseSize(long leaseSize) {
+            checkArgument(leaseSize > 0, "Lease size must be greater than 0");
+            this.leaseSize = leaseSize;
+            return this;
+        }
+
+        /*
+            Sets how long leased tokens are held before they are returned to the store, and how long a Client the
+            store has refused is refused without asking again. Must be shorter than the Token Bucket period, so a node
+            does not carry tokens from one period into the next, build fails with an IllegalStateException if the
+            store's buckets have a period and the lease is not shorter
+         */
+        public Builder withLeaseDuration(long leaseDuration, TimeUnit timeUnit) {
+            checkArgument(leaseDuration > 0, "Lease duration must be greater than 0");
+            checkNotNull(timeUnit, "TimeUnit must be specified");
+            this.leaseDurationInNanoseconds = timeUnit.toNanos(leaseDuration);
+            return this;
+        }
+
+        /*
+            Sets the Ticker leases are timed with
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /*
+            Caps the number of Clients with a lease, the lease of the least recently used Client is returned to the
+            store to make room for a new one
+         */
+        public Builder withMaximumClients(long maximumClients) {
+            checkArgument(maximumClients > 0, "Maximum Clients must be greater than 0");
+            this.maximumClients = maximumClients;
+            return this;
+        }
+
+        /*
+            Sets the executor the leases of evicted and expired Clients are returned to the store on, so a request
+            that evicts a lease does not wait for the store. Defaults to the common ForkJoinPool
+         */
+        public Builder withReleaseExecutor(Executor executor) {
+            this.releaseExecutor = checkNotNull(executor, "Executor must be specified");
+            return this;
+        }
+
+        public LeasingRateLimiter build() {
+            checkNotNull(this.store, "TokenStore must be specified");
+            long periodInNanoseconds = store.getPeriodInNanoseconds();
+            checkState(periodInNanoseconds == 0 || leaseDurationInNanoseconds < periodInNanoseconds,
+                    "Lease Duration must be shorter than the Token Bucket period");
+
+            CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+            if (maximumClients > 0)
+                cacheBuilder.maximumSize(maximumClients);
+            return new LeasingRateLimiter(store, ticker != null ? ticker : Ticker.systemTicker(), leaseSize,
+                    leaseDurationInNanoseconds, cacheBuilder,
+                    releaseExecutor != null ? releaseExecutor : ForkJoinPool.commonPool());
+        }
+    }
+
+
+}
@@ -0,0 +1,200 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Lock-free variant of {@link TokenBucketImpl}
+ *
+ * The refill period the bucket was last refilled in and the number of available tokens are packed into a single
+ * {@link AtomicLong}, the upper 32 bits hold the refill period and the lower 32 bits hold the tokens. Refill and
+ * consume are a single compare-and-set on that word, so concurrent callers never block and never lose or over-grant
+ * tokens.
+ *
+ * Refill periods are compared for equality only, so a bucket that is left untouched for exactly a multiple of 2^32
+ * periods will miss a single refill.
+ */
+
+public class LockFreeTokenBucket implements TokenBucket {
+
+    static final long MAX_CAPACITY = 0xFFFFFFFFL;
+
+    private static final int TOKEN_BITS = 32;
+    private static final long TOKEN_MASK = 0xFFFFFFFFL;
+
+    private final long capacity;
+    private final long periodInNanoseconds;
+    private final long startOfFirstRefillPeriod;
+    private final Ticker ticker;
+    private final long epochOffset;
+    private final AtomicLong state;
+
+    LockFreeTokenBucket(Clock clock, long capacity, long period, TimeUnit unit) {
+        this(Tickers.fromClock(clock), capacity, period, unit);
+    }
+
+    LockFreeTokenBucket(Ticker ticker, long capacity, long period, TimeUnit unit) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(capacity <= MAX_CAPACITY, "Token Bucket Capacity must not be greater than %s", MAX_CAPACITY);
+        checkArgument(period > 0, "Period must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        checkNotNull(ticker, "Ticker must be set");
+        this.capacity = capacity;
+        this.ticker = ticker;
+        this.periodInNanoseconds = unit.toNanos(period);
+        this.epochOffset = Tickers.epochOffset(ticker);
+        this.startOfFirstRefillPeriod = ticker.read();
+        this.state = new AtomicLong(pack(0, capacity));
+    }
+
+    /*
+        Returns the capacity of the bucket, this is the maximum number of tokens that the bucket can hold at a time
+
+        @return The capacity of the TokenBucket
+     */
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /*
+        Returns the number of Tokens available in the bucket as of the last refill or consume
+
+        @return The current number of Tokens available in the bucket
+     */
+    @Override
+    public long getAvailableTokens() {
+        return tokens(state.get());
+    }
+
+    /*
+        Returns true if successfully consumed a token, false if no tokens available. Refills the bucket first if a new
+        refill period has started, the refill and the consume are applied in the same compare-and-set
+
+        @return {@code true} if token was consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean consume() {
+        return tryConsume(1);
+    }
+
+    /*
+        Returns true if successfully consumed the requested number of tokens, false if fewer tokens are available, in
+        which case no tokens are consumed. All the tokens are taken in the same compare-and-set
+
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        int currentPeriod = currentPeriod();
+        for (;;) {
+            long current = state.get();
+            long tokens = period(current) == currentPeriod ? tokens(current) : capacity;
+            if (tokens < permits) {
+                return false;
+            }
+            if (state.compareAndSet(current, pack(currentPeriod, tokens - permits))) {
+                return true;
+            }
+        }
+    }
+
+    /*
+        Consumes as many of the requested number of tokens as are available, in a single compare-and-set
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        int currentPeriod = currentPeriod();
+        for (;;) {
+            long current = state.get();
+            long tokens = period(current) == currentPeriod ? tokens(current) : capacity;
+            long consumed = Math.min(tokens, permits);
+            if (consumed == 0) {
+                return 0;
+            }
+            if (state.compareAndSet(current, pack(currentPeriod, tokens - consumed))) {
+                return consumed;
+            }
+        }
+    }
+
+    /*
+        Returns tokens to the bucket, up to its capacity, in a single compare-and-set. Tokens returned after a new
+        refill period has started are lost in the refill
+
+        @param permits number of tokens to return
+     */
+    @Override
+    public void refund(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        for (;;) {
+            long current = state.get();
+            long tokens = tokens(current);
+            long refunded = permits >= capacity - tokens ? capacity : tokens + permits;
+            if (state.compareAndSet(current, pack(period(current), refunded))) {
+                return;
+            }
+        }
+    }
+
+    /*
+        Simple refill strategy, reset the bucket to capacity if a new refill period has started
+     */
+    @Override
+    public void refill() {
+        int currentPeriod = currentPeriod();
+        for (;;) {
+            long current = state.get();
+            if (period(current) == currentPeriod
+                    || state.compareAndSet(current, pack(currentPeriod, capacity))) {
+                return;
+            }
+        }
+    }
+
+    /*
+        Returns the timestamp for the next refill of bucket
+
+        @return timestamp for next refill
+     */
+    @Override
+    public Instant getNextRefillTime() {
+        long periodsSinceStart = periodsSinceStart();
+        // Recover the full refill period from the truncated 32 bit value held in the state
+        long lastRefillPeriod = periodsSinceStart - ((int) periodsSinceStart - period(state.get()) & TOKEN_MASK);
+        return Tickers.toInstant(startOfFirstRefillPeriod + (lastRefillPeriod + 1) * periodInNanoseconds + epochOffset);
+    }
+
+    private int currentPeriod() {
+        return (int) periodsSinceStart();
+    }
+
+    private long periodsSinceStart() {
+        return Math.max(0, ticker.read() - startOfFirstRefillPeriod) / periodInNanoseconds;
+    }
+
+    private static long pack(int period, long tokens) {
+        return ((long) period << TOKEN_BITS) | tokens;
+    }
+
+    private static int period(long state) {
+        return (int) (state >>> TOKEN_BITS);
+    }
+
+    private static long tokens(long state) {
+        return state & TOKEN_MASK;
+    }
+}
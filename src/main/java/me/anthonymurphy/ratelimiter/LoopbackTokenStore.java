@@ -0,0 +1,60 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.concurrent.atomic.LongAdder;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * TokenStore that keeps the Clients' buckets in a {@link RateLimiterImpl} in the same process, built with
+ * {@link RateLimiterBuilder.Builder#buildTokenStore()}
+ *
+ * Every {@link LeasingRateLimiter} given the same store shares its buckets, so several nodes can be run in one process
+ * to test how leasing behaves, and the number of round trips a remote store would have served is counted.
+ */
+
+public class LoopbackTokenStore implements TokenStore {
+
+    private final RateLimiterImpl buckets;
+    private final long periodInNanoseconds;
+    private final LongAdder roundTrips = new LongAdder();
+
+    LoopbackTokenStore(RateLimiterImpl buckets, long periodInNanoseconds) {
+        checkArgument(periodInNanoseconds >= 0, "Period must not be negative");
+        this.buckets = checkNotNull(buckets, "RateLimiter must be set");
+        this.periodInNanoseconds = periodInNanoseconds;
+    }
+
+    @Override
+    public long acquire(String clientId, long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        roundTrips.increment();
+        return buckets.bucketFor(clientId).consumeUpTo(permits);
+    }
+
+    @Override
+    public void release(String clientId, long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        roundTrips.increment();
+        buckets.bucketFor(clientId).refund(permits);
+    }
+
+    /*
+        Returns the period of every Client's bucket, or 0 if the buckets were built from a Policy Resolver
+
+        @return period of the buckets in nanoseconds, or 0 if it is not known
+     */
+    @Override
+    public long getPeriodInNanoseconds() {
+        return periodInNanoseconds;
+    }
+
+    /*
+        Returns the number of calls to acquire and release, each of which would be a round trip to a remote store
+
+        @return number of round trips
+     */
+    public long getRoundTripCount() {
+        return roundTrips.sum();
+    }
+}
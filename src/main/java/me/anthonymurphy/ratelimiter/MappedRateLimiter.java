@@ -0,0 +1,151 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+import static java.nio.file.StandardOpenOption.CREATE;
+import static java.nio.file.StandardOpenOption.READ;
+import static java.nio.file.StandardOpenOption.WRITE;
+
+/**
+ * StripedRateLimiter whose buckets live in a memory-mapped file, so a restarted process carries on enforcing limits
+ * from where the previous one stopped rather than giving every Client a full bucket
+ *
+ * The file starts with a header describing its layout and the buckets' policy, followed by one fixed size region of
+ * slots per segment. Reopening a file only maps it and counts the Clients in each segment, nothing is replayed or
+ * reloaded, so a file must be reopened with the layout, capacity, period and refill it was written with. Bucket times
+ * must come from a Ticker whose readings survive a restart, such as {@link Tickers#systemEpochTicker()}.
+ *
+ * A full segment makes room by dropping full buckets and shifting the clients after them back within the file, it is
+ * never cleared and rewritten, so a process killed while a segment makes room leaves every client it kept in the file.
+ *
+ * Writes reach the file when the operating system flushes the mapped pages, or when {@link #force()} is called. Java
+ * cannot unmap a file, the mapping is released when the rate limiter is garbage collected.
+ */
+
+public class MappedRateLimiter extends StripedRateLimiter {
+
+    static final int HEADER_BYTES = 64;
+
+    private static final long MAGIC = 0x52415445_4C494D54L;
+    private static final int VERSION = 2;
+
+    private final MappedByteBuffer[] buffers;
+
+    private MappedRateLimiter(Ticker ticker, BucketSegment[] segments, MappedByteBuffer[] buffers) {
+        super(ticker, segments);
+        this.buffers = buffers;
+    }
+
+    /*
+        Maps the file, creating it if it does not exist, and checks that an existing file has the same layout and
+        policy
+
+        @param file the file holding the buckets
+        @param ticker time source for the buckets, its readings must be comparable across restarts
+        @param capacity capacity of every bucket
+        @param refillStrategy refill strategy of every bucket
+        @param periodInNanoseconds period of every bucket
+        @param greedyRefill whether the refill strategy is greedy
+        @param segmentCount number of segments, a power of two
+        @param slotsPerSegment number of slots in each segment, a power of two
+        @return rate limiter backed by the file
+        @throws IOException if the file cannot be opened or mapped
+        @throws IllegalStateException if the file was written with a different layout or policy
+     */
+    static MappedRateLimiter open(Path file, Ticker ticker, long capacity, RefillStrategy refillStrategy,
+                                  long periodInNanoseconds, boolean greedyRefill, int segmentCount,
+                                  int slotsPerSegment) throws IOException {
+        checkNotNull(file, "File must be set");
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        long segmentBytes = (long) slotsPerSegment * ByteBufferBucketSegment.BYTES_PER_SLOT;
+        checkArgument(segmentBytes <= Integer.MAX_VALUE, "Segment must fit in a single mapping");
+
+        try (FileChannel channel = FileChannel.open(file, READ, WRITE, CREATE)) {
+            boolean created = channel.size() == 0;
+            MappedByteBuffer header = channel.map(FileChannel.MapMode.READ_WRITE, 0, HEADER_BYTES);
+            header.order(ByteOrder.LITTLE_ENDIAN);
+            if (created) {
+                writeHeader(header, capacity, periodInNanoseconds, greedyRefill, segmentCount, slotsPerSegment);
+            } else {
+                checkHeader(header, file, capacity, periodInNanoseconds, greedyRefill, segmentCount,
+                        slotsPerSegment);
+            }
+
+            MappedByteBuffer[] buffers = new MappedByteBuffer[segmentCount + 1];
+            BucketSegment[] segments = new BucketSegment[segmentCount];
+            buffers[segmentCount] = header;
+            for (int i = 0; i < segmentCount; i++) {
+                buffers[i] = channel.map(FileChannel.MapMode.READ_WRITE, HEADER_BYTES + i * segmentBytes,
+                        segmentBytes);
+                ByteBuffer slots = buffers[i].order(ByteOrder.LITTLE_ENDIAN);
+                segments[i] = new ByteBufferBucketSegment(capacity, refillStrategy, slots);
+                if (!created) {
+                    segments[i].recount();
+                }
+            }
+            return new MappedRateLimiter(ticker, segments, buffers);
+        }
+    }
+
+    /*
+        Writes any changes to the buckets through to the file
+     */
+    public void force() {
+        for (MappedByteBuffer buffer : buffers) {
+            buffer.force();
+        }
+    }
+
+    /*
+        Calls force periodically on the given executor, cancel the returned future to stop
+
+        @param executor executor to run force on
+        @param interval time between calls to force
+        @param timeUnit unit of the interval
+        @return future that cancels the periodic force
+     */
+    public ScheduledFuture<?> scheduleForce(ScheduledExecutorService executor, long interval, TimeUnit timeUnit) {
+        checkArgument(interval > 0, "Interval must be greater than 0");
+        return executor.scheduleWithFixedDelay(this::force, interval, interval, timeUnit);
+    }
+
+    private static void writeHeader(ByteBuffer header, long capacity, long periodInNanoseconds, boolean greedyRefill,
+                                    int segmentCount, int slotsPerSegment) {
+        header.putLong(0, MAGIC);
+        header.putInt(8, VERSION);
+        header.putInt(12, segmentCount);
+        header.putInt(16, slotsPerSegment);
+        header.putLong(24, capacity);
+        header.putLong(32, periodInNanoseconds);
+        header.putInt(40, greedyRefill ? 1 : 0);
+    }
+
+    private static void checkHeader(ByteBuffer header, Path file, long capacity, long periodInNanoseconds,
+                                    boolean greedyRefill, int segmentCount, int slotsPerSegment) {
+        checkState(header.getLong(0) == MAGIC, "%s is not a rate limiter file", file);
+        checkState(header.getInt(8) == VERSION, "%s has version %s, expected %s", file, header.getInt(8), VERSION);
+        checkState(header.getInt(12) == segmentCount && header.getInt(16) == slotsPerSegment,
+                "%s has %s segments of %s slots, expected %s segments of %s slots", file, header.getInt(12),
+                header.getInt(16), segmentCount, slotsPerSegment);
+        checkState(header.getLong(24) == capacity,
+                "%s has a capacity of %s, expected %s", file, header.getLong(24), capacity);
+        checkState(header.getLong(32) == periodInNanoseconds,
+                "%s has a period of %sns, expected %sns", file, header.getLong(32), periodInNanoseconds);
+        checkState((header.getInt(40) != 0) == greedyRefill,
+                "%s has %s refill, expected %s refill", file, header.getInt(40) != 0 ? "greedy" : "simple",
+                greedyRefill ? "greedy" : "simple");
+    }
+}
@@ -0,0 +1,29 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Map;
+
+/**
+ * Chooses the RateLimitingPolicy for a Client
+ *
+ * The resolver is consulted once, on the first request from a Client, and the bucket it creates is kept for later
+ * requests, so a new tier of Clients needs only a new policy rather than a bucket added for each Client. Resolvers
+ * can be any function of the Client id, for example a lookup of the Client's tenant and the tenant's plan.
+ */
+
+@FunctionalInterface
+public interface PolicyResolver {
+
+    RateLimitingPolicy resolve(String clientId);
+
+    /*
+        Returns a resolver that chooses the policy of the longest prefix of the Client id in the map, or the default
+        policy if no prefix matches
+
+        @param policiesByPrefix policy for Client ids starting with each prefix
+        @param defaultPolicy policy for Client ids that match no prefix
+        @return resolver by prefix
+     */
+    static PolicyResolver byPrefix(Map<String, RateLimitingPolicy> policiesByPrefix, RateLimitingPolicy defaultPolicy) {
+        return new PrefixPolicyResolver(policiesByPrefix, defaultPolicy);
+    }
+}
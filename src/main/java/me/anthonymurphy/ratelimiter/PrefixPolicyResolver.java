@@ -0,0 +1,49 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Comparator;
+import java.util.Map;
+
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resolves the policy of the longest prefix of the Client id, see {@link PolicyResolver#byPrefix(Map,
+ * RateLimitingPolicy)}
+ */
+
+class PrefixPolicyResolver implements PolicyResolver {
+
+    private final String[] prefixes;
+    private final RateLimitingPolicy[] policies;
+    private final RateLimitingPolicy defaultPolicy;
+
+    PrefixPolicyResolver(Map<String, RateLimitingPolicy> policiesByPrefix, RateLimitingPolicy defaultPolicy) {
+        checkNotNull(policiesByPrefix, "Policies must be set");
+        this.defaultPolicy = checkNotNull(defaultPolicy, "Default policy must be set");
+        // Longest first, so the first match is the longest
+        this.prefixes = policiesByPrefix.keySet().stream()
+                .sorted(Comparator.comparingInt(String::length).reversed())
+                .toArray(String[]::new);
+        this.policies = new RateLimitingPolicy[prefixes.length];
+        for (int i = 0; i < prefixes.length; i++) {
+            policies[i] = checkNotNull(policiesByPrefix.get(prefixes[i]), "Policy must be set for %s", prefixes[i]);
+        }
+    }
+
+    @Override
+    public RateLimitingPolicy resolve(String clientId) {
+        for (int i = 0; i < prefixes.length; i++) {
+            if (clientId.startsWith(prefixes[i])) {
+                return policies[i];
+            }
+        }
+        return defaultPolicy;
+    }
+
+    long getLongestPeriodInNanoseconds() {
+        long longest = defaultPolicy.getPeriodInNanoseconds();
+        for (RateLimitingPolicy policy : policies) {
+            longest = Math.max(longest, policy.getPeriodInNanoseconds());
+        }
+        return longest;
+    }
+}
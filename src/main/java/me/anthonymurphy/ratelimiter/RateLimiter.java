@@ -1,6 +1,10 @@
 package me.anthonymurphy.ratelimiter;
 
 
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.List;
+
 /**
  * Ratelimiter allows access to a resource if rate limiting strategy allows
  *
@@ -10,6 +14,30 @@ package me.anthonymurphy.ratelimiter;
 public interface RateLimiter {
 
     boolean allowRequest(String requestorId);
+    boolean allowRequest(String requestorId, long cost);
     void addClient(String clientId, TokenBucket tokenBucket);
 
+    /*
+        Decides a batch of requests, result[i] is {@code true} if the request from requestorIds[i] is allowed
+     */
+    default boolean[] allowRequests(String[] requestorIds) {
+        BitSet allowed = new BitSet(requestorIds.length);
+        allowRequests(Arrays.asList(requestorIds), allowed);
+        boolean[] result = new boolean[requestorIds.length];
+        for (int i = allowed.nextSetBit(0); i >= 0; i = allowed.nextSetBit(i + 1)) {
+            result[i] = true;
+        }
+        return result;
+    }
+
+    /*
+        Decides a batch of requests, bit i of result is set if the request from requestorIds.get(i) is allowed and
+        cleared otherwise
+     */
+    default void allowRequests(List<String> requestorIds, BitSet result) {
+        for (int i = 0; i < requestorIds.size(); i++) {
+            result.set(i, allowRequest(requestorIds.get(i)));
+        }
+    }
+
 }
@@ -0,0 +1,395 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.file.Path;
+import java.util.concurrent.Executor;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
+
+
+public final class RateLimiterBuilder {
+
+    /*
+        Estimate of the heap used by a client in the cache, excluding the characters of the client id. Covers the
+        cache entry, the String and the TokenBucket
+     */
+    static final long ESTIMATED_BYTES_PER_CLIENT = 200;
+
+    /*
+        Heap used by a client in a StripedRateLimiter, three longs at a load factor of 3/4
+     */
+    static final long STRIPED_BYTES_PER_CLIENT = 32;
+
+    /*
+        Heap used by a client in a GcraRateLimiter, two longs at a load factor of 3/4
+     */
+    static final long GCRA_BYTES_PER_CLIENT = 22;
+
+    private static final long DEFAULT_MAXIMUM_STRIPED_CLIENTS = 1L << 32;
+
+    // Segments of a memory-mapped file unless a concurrency level is given, fixed so the file's layout does not
+    // depend on the number of processors of the host that wrote it
+    private static final int MAPPED_SEGMENT_COUNT = 64;
+
+    // Largest power of two whose slots fit in a single ByteBuffer
+    private static final int MAXIMUM_SLOTS_PER_BUFFER = 1 << 26;
+
+    private RateLimiterBuilder() { }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private TokenBucketBuilder.Builder tokenBucketBuilder = null;
+        private PolicyResolver policyResolver = null;
+        private RateLimiterListener listener = RateLimiterListener.NO_OP;
+        private Ticker ticker = null;
+        private long maximumClients = -1;
+        private long maximumMemoryInBytes = -1;
+        private long idleExpiry = -1;
+        private TimeUnit idleExpiryTimeUnit = null;
+        private int concurrencyLevel = -1;
+        private int hotKeyShards = 0;
+        private RateLimitingPolicy defaultPolicy = null;
+        private Executor resolverExecutor = null;
+        private long policyRefresh = -1;
+        private TimeUnit policyRefreshTimeUnit = null;
+
+        /*
+            Sets the builder used to create the TokenBucket for a Client on its first request
+         */
+        public Builder withTokenBucket(TokenBucketBuilder.Builder tokenBucketBuilder) {
+            this.tokenBucketBuilder = tokenBucketBuilder;
+            return this;
+        }
+
+        /*
+            Resolves the policy for a Client on its first request, so Clients can be given different limits, for
+            example by tenant or by key prefix. Buckets built from policies read this builder's Ticker, or the system
+            Ticker if none is set. Only supported by build(), and not together with withTokenBucket
+         */
+        public Builder withPolicyResolver(PolicyResolver policyResolver) {
+            this.policyResolver = policyResolver;
+            return this;
+        }
+
+        /*
+            Resolves policies on the executor rather than on the thread making a Client's first request, which is
+            decided at once with a bucket for the default policy. Once resolved, the Client's bucket is swapped for
+            one with its own policy, started with the tokens it has already consumed. Needs withPolicyResolver
+         */
+        public Builder withAsyncPolicyResolution(RateLimitingPolicy defaultPolicy, Executor executor) {
+            this.defaultPolicy = checkNotNull(defaultPolicy, "Default Policy must be specified");
+            this.resolverExecutor = checkNotNull(executor, "Executor must be specified");
+            return this;
+        }
+
+        /*
+            Resolves a Client's policy again, on the executor, on its first request once the given time has passed
+            since it was last resolved, so changed policies reach Clients that are already cached. Needs
+            withAsyncPolicyResolution
+         */
+        public Builder withPolicyRefresh(long refresh, TimeUnit timeUnit) {
+            checkArgument(refresh > 0, "Policy Refresh must be greater than 0");
+            this.policyRefresh = refresh;
+            this.policyRefreshTimeUnit = checkNotNull(timeUnit, "TimeUnit must be specified");
+            return this;
+        }
+
+        /*
+            Tells the listener of every decision. Given RateLimiterMetrics, the client cache also records its
+            statistics for them. Only supported by build()
+         */
+        public Builder withListener(RateLimiterListener listener) {
+            this.listener = checkNotNull(listener, "Listener must be specified");
+            return this;
+        }
+
+        /*
+            Sets the Ticker the client cache measures idle time with, buckets take their Ticker from the
+            TokenBucketBuilder
+         */
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /*
+            Caps the number of Clients held, the least recently used Client is evicted to make room for a new one.
+            An evicted Client whose bucket has not refilled is kept aside and gets its bucket back on its next
+            request, so eviction never grants extra tokens. A quarter of the maximum is set aside for kept Clients and
+            the cache holds the rest, so together they never hold more than the maximum. While the kept Clients fill
+            their share, new Clients share a single overflow bucket of their own, never the bucket of a known Client,
+            until the kept buckets refill
+         */
+        public Builder withMaximumClients(long maximumClients) {
+            checkArgument(maximumClients > 0, "Maximum Clients must be greater than 0");
+            this.maximumClients = maximumClients;
+            return this;
+        }
+
+        /*
+            Caps the estimated heap used by the Clients held, the least recently used Client is evicted to make room
+            for a new one. Evicted Clients whose buckets have not refilled are kept aside as with withMaximumClients,
+            in a quarter of the memory, weighed with the same estimate as the cache
+         */
+        public Builder withMaximumMemory(long maximumMemoryInBytes) {
+            checkArgument(maximumMemoryInBytes > 0, "Maximum Memory must be greater than 0");
+            this.maximumMemoryInBytes = maximumMemoryInBytes;
+            return this;
+        }
+
+        /*
+            Expires Clients that have made no requests for the given time. The time must be at least the Token Bucket
+            period, a bucket that has not been used for a whole period is full, so an expired Client gets no more
+            tokens from a new bucket than it would have from its old one. The Token Bucket, Default Policy and the
+            policies of a PrefixPolicyResolver are checked when the rate limiter is built. A Client whose bucket is
+            not full when it expires, because it was added with addClient or resolved to a policy with a longer
+            period, is kept aside with its bucket until the bucket refills, as when it is evicted from a full cache.
+            Call cleanUp periodically to drop kept buckets that have refilled
+         */
+        public Builder withIdleExpiry(long idleExpiry, TimeUnit timeUnit) {
+            checkArgument(idleExpiry > 0, "Idle Expiry must be greater than 0");
+            this.idleExpiry = idleExpiry;
+            this.idleExpiryTimeUnit = checkNotNull(timeUnit, "TimeUnit must be specified");
+            return this;
+        }
+
+        /*
+            Sets the number of independently locked stripes the Clients are split over, rounded up to a power of two
+         */
+        public Builder withConcurrencyLevel(int concurrencyLevel) {
+            checkArgument(concurrencyLevel > 0, "Concurrency Level must be greater than 0");
+            this.concurrencyLevel = concurrencyLevel;
+            return this;
+        }
+
+        /*
+            Wraps the bucket of a Client whose bucket is contended by many threads in a ShardedTokenBucket, which
+            splits it into shards, rounded up to a power of two, that threads take tokens from without contending,
+            and merges them again once the Client cools. Uncontended Clients keep their plain bucket. Only supported
+            by build(), for locking token buckets
+         */
+        public Builder withHotKeySharding(int shards) {
+            checkArgument(shards > 0, "Number of shards must be greater than 0");
+            this.hotKeyShards = StripedRateLimiter.ceilingPowerOfTwo(Math.min(shards, 1 << 16));
+            return this;
+        }
+
+        public RateLimiterImpl build() {
+            if (policyResolver == null)
+                checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(policyResolver == null || tokenBucketBuilder == null,
+                    "Only one of TokenBucket and Policy Resolver may be specified");
+            checkState(maximumClients < 0 || maximumMemoryInBytes < 0,
+                    "Only one of Maximum Clients and Maximum Memory may be specified");
+
+            CacheBuilder<Object, Object> cacheBuilder = CacheBuilder.newBuilder();
+            if (ticker != null)
+                cacheBuilder.ticker(ticker);
+            if (concurrencyLevel > 0)
+                cacheBuilder.concurrencyLevel(concurrencyLevel);
+            if (maximumClients > 0)
+                cacheBuilder.maximumSize(maximumClients - drainedShare(maximumClients));
+            if (maximumMemoryInBytes > 0)
+                cacheBuilder.maximumWeight(maximumMemoryInBytes - drainedShare(maximumMemoryInBytes))
+                        .weigher((clientId, tokenBucket) -> estimateBytes((String) clientId));
+            if (idleExpiry > 0) {
+                long idleExpiryInNanoseconds = idleExpiryTimeUnit.toNanos(idleExpiry);
+                checkState(tokenBucketBuilder == null
+                                || idleExpiryInNanoseconds >= tokenBucketBuilder.getPeriodInNanoseconds(),
+                        "Idle Expiry must be at least the Token Bucket period");
+                checkState(defaultPolicy == null || idleExpiryInNanoseconds >= defaultPolicy.getPeriodInNanoseconds(),
+                        "Idle Expiry must be at least the Default Policy period");
+                checkState(!(policyResolver instanceof PrefixPolicyResolver) || idleExpiryInNanoseconds
+                                >= ((PrefixPolicyResolver) policyResolver).getLongestPeriodInNanoseconds(),
+                        "Idle Expiry must be at least the period of every policy");
+                cacheBuilder.expireAfterAccess(idleExpiry, idleExpiryTimeUnit);
+            }
+            checkState(hotKeyShards == 0 || tokenBucketBuilder == null
+                            || tokenBucketBuilder.getAlgorithm() == TokenBucketBuilder.Algorithm.TOKEN_BUCKET
+                            && !tokenBucketBuilder.isLockFree(),
+                    "Hot key sharding only supports the token bucket algorithm with locking buckets");
+            checkState(defaultPolicy == null || policyResolver != null,
+                    "Asynchronous Policy Resolution needs a Policy Resolver");
+            checkState(policyRefresh < 0 || defaultPolicy != null,
+                    "Policy Refresh needs Asynchronous Policy Resolution");
+            if (policyRefresh > 0)
+                cacheBuilder.refreshAfterWrite(policyRefresh, policyRefreshTimeUnit);
+            if (listener instanceof RateLimiterMetrics)
+                cacheBuilder.recordStats();
+            Ticker bucketTicker = ticker != null ? ticker : Ticker.systemTicker();
+            RateLimiterImpl rateLimiter;
+            if (defaultPolicy != null)
+                rateLimiter = new RateLimiterImpl(policyResolver, defaultPolicy, resolverExecutor, bucketTicker,
+                        cacheBuilder, listener, hotKeyShards);
+            else if (policyResolver != null)
+                rateLimiter = new RateLimiterImpl(policyResolver, bucketTicker, cacheBuilder, listener, hotKeyShards);
+            else
+                rateLimiter = new RateLimiterImpl(tokenBucketBuilder, cacheBuilder, listener, hotKeyShards);
+            if (maximumClients > 1)
+                rateLimiter.retainDrainedClients(drainedShare(maximumClients), clientId -> 1);
+            if (maximumMemoryInBytes > 0)
+                rateLimiter.retainDrainedClients(drainedShare(maximumMemoryInBytes), Builder::estimateBytes);
+            if (listener instanceof RateLimiterMetrics)
+                ((RateLimiterMetrics) listener).monitor(rateLimiter);
+            return rateLimiter;
+        }
+
+        /*
+            Builds a TokenStore that keeps the Clients' buckets in this process, to share between LeasingRateLimiters
+            in tests or on a single node. Its period is the Token Bucket period, so lease durations are checked against
+            it
+         */
+        public LoopbackTokenStore buildTokenStore() {
+            return new LoopbackTokenStore(build(),
+                    tokenBucketBuilder != null ? tokenBucketBuilder.getPeriodInNanoseconds() : 0);
+        }
+
+        /*
+            Builds a GossipRateLimiter, which limits Clients on this node with the RateLimiterImpl this builder builds
+            and shares their usage with other nodes through the transport. Call exchange, or scheduleExchange, to send
+            reports
+         */
+        public GossipRateLimiter buildGossip(GossipTransport transport) {
+            return new GossipRateLimiter(build(), transport);
+        }
+
+        /*
+            Builds a StripedRateLimiter, which keeps each Client's bucket inline in a striped hash table. Clients whose
+            buckets are full are dropped to make room once the maximum number of Clients is reached, so idle expiry
+            does not apply
+         */
+        public StripedRateLimiter buildStriped() {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(idleExpiry < 0, "Idle Expiry is not supported by the striped Rate Limiter");
+            checkState(maximumClients < 0 || maximumMemoryInBytes < 0,
+                    "Only one of Maximum Clients and Maximum Memory may be specified");
+
+            long clients = DEFAULT_MAXIMUM_STRIPED_CLIENTS;
+            if (maximumClients > 0)
+                clients = maximumClients;
+            if (maximumMemoryInBytes > 0)
+                clients = Math.max(1, maximumMemoryInBytes / STRIPED_BYTES_PER_CLIENT);
+            return new StripedRateLimiter(tokenBucketBuilder.buildTicker(), tokenBucketBuilder.getCapacity(),
+                    tokenBucketBuilder.buildRefillStrategy(), segmentCount(), clients);
+        }
+
+        /*
+            Builds a StripedRateLimiter that keeps the Clients' buckets in direct ByteBuffers, off the Java heap, so
+            the heap and garbage collection times do not grow with the number of Clients. The memory for the maximum
+            number of Clients is allocated up front, so a maximum must be given
+         */
+        public StripedRateLimiter buildOffHeap() {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(idleExpiry < 0, "Idle Expiry is not supported by the off-heap Rate Limiter");
+
+            long capacity = tokenBucketBuilder.getCapacity();
+            RefillStrategy refillStrategy = tokenBucketBuilder.buildRefillStrategy();
+            BucketSegment[] segments = new BucketSegment[segmentCount()];
+            int slots = StripedRateLimiter.slotsPerSegment(fixedMaximumClients(STRIPED_BYTES_PER_CLIENT),
+                    segments.length, MAXIMUM_SLOTS_PER_BUFFER);
+            for (int i = 0; i < segments.length; i++) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(slots * ByteBufferBucketSegment.BYTES_PER_SLOT)
+                        .order(ByteOrder.nativeOrder());
+                segments[i] = new ByteBufferBucketSegment(capacity, refillStrategy, buffer);
+            }
+            return new StripedRateLimiter(tokenBucketBuilder.buildTicker(), segments);
+        }
+
+        /*
+            Builds a StripedRateLimiter that keeps the Clients' buckets in a memory-mapped file, so a restarted
+            process resumes enforcing limits where the last one stopped. The file is created if it does not exist,
+            an existing file must have been written with the same maximum, concurrency level, capacity, period and
+            refill. Without a concurrency level the file has a fixed number of segments, so it can be reopened on a
+            host with a different number of processors. Unless the TokenBucketBuilder has a Ticker or Clock, buckets
+            read the system clock
+         */
+        public MappedRateLimiter buildMapped(Path file) throws IOException {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(idleExpiry < 0, "Idle Expiry is not supported by the memory-mapped Rate Limiter");
+
+            int segmentCount = concurrencyLevel > 0 ? segmentCount() : MAPPED_SEGMENT_COUNT;
+            int slots = StripedRateLimiter.slotsPerSegment(fixedMaximumClients(STRIPED_BYTES_PER_CLIENT), segmentCount,
+                    MAXIMUM_SLOTS_PER_BUFFER);
+            return MappedRateLimiter.open(file, tokenBucketBuilder.buildTicker(Tickers.systemEpochTicker()),
+                    tokenBucketBuilder.getCapacity(), tokenBucketBuilder.buildRefillStrategy(),
+                    tokenBucketBuilder.getPeriodInNanoseconds(), tokenBucketBuilder.isGreedyRefill(), segmentCount,
+                    slots);
+        }
+
+        /*
+            Builds a GcraRateLimiter, which keeps a single long per Client and never blocks. The Token Bucket
+            capacity is the burst a Client can make at once and it earns a token every period / capacity, as with
+            greedy refill. The table for the maximum number of Clients is allocated up front, so a maximum must be
+            given, Clients whose buckets are full are replaced once it is reached, so idle expiry does not apply
+         */
+        public GcraRateLimiter buildGcra() {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(idleExpiry < 0, "Idle Expiry is not supported by the GCRA Rate Limiter");
+            checkState(tokenBucketBuilder.getAlgorithm() == TokenBucketBuilder.Algorithm.TOKEN_BUCKET,
+                    "The GCRA Rate Limiter only supports the token bucket algorithm");
+
+            return new GcraRateLimiter(tokenBucketBuilder.buildTicker(), tokenBucketBuilder.getCapacity(),
+                    tokenBucketBuilder.getPeriodInNanoseconds(), segmentCount(),
+                    fixedMaximumClients(GCRA_BYTES_PER_CLIENT));
+        }
+
+        /*
+            Builds a SketchRateLimiter, which estimates each Client's bucket from a Count-Min sketch of depth rows of
+            width counters, so its memory, 8 bytes a counter, does not depend on the number of Clients. Estimates
+            only ever deny requests that would have been allowed, wider rows make that rarer and more rows make large
+            errors rarer. The policy is that of greedy refill, and idle expiry and client limits do not apply
+         */
+        public SketchRateLimiter buildSketch(int width, int depth) {
+            checkNotNull(this.tokenBucketBuilder, "TokenBucket must be specified");
+            checkState(idleExpiry < 0, "Idle Expiry is not supported by the sketch Rate Limiter");
+            checkState(maximumClients < 0 && maximumMemoryInBytes < 0,
+                    "Maximum Clients and Maximum Memory are not supported by the sketch Rate Limiter");
+            checkState(tokenBucketBuilder.getAlgorithm() == TokenBucketBuilder.Algorithm.TOKEN_BUCKET,
+                    "The sketch Rate Limiter only supports the token bucket algorithm");
+
+            return new SketchRateLimiter(tokenBucketBuilder.buildTicker(), tokenBucketBuilder.getCapacity(),
+                    tokenBucketBuilder.getPeriodInNanoseconds(), width, depth);
+        }
+
+        /*
+            Returns the maximum number of Clients for rate limiters whose memory is allocated up front
+         */
+        private long fixedMaximumClients(long bytesPerClient) {
+            checkState(maximumClients > 0 ^ maximumMemoryInBytes > 0,
+                    "One of Maximum Clients and Maximum Memory must be specified");
+            return maximumClients > 0
+                    ? maximumClients
+                    : Math.max(1, maximumMemoryInBytes / bytesPerClient);
+        }
+
+        private int segmentCount() {
+            int level = concurrencyLevel > 0 ? concurrencyLevel : 4 * Runtime.getRuntime().availableProcessors();
+            return StripedRateLimiter.ceilingPowerOfTwo(Math.min(level, 1 << 16));
+        }
+
+        /*
+            Returns the share of the bound set aside for evicted Clients kept until their buckets refill, a quarter,
+            leaving the cache at least one Client
+         */
+        private static long drainedShare(long maximum) {
+            return Math.min((maximum + 3) / 4, maximum - 1);
+        }
+
+        private static int estimateBytes(String clientId) {
+            return (int) Math.min(Integer.MAX_VALUE, ESTIMATED_BYTES_PER_CLIENT + 2L * clientId.length());
+        }
+    }
+
+
+}
@@ -6,27 +6,100 @@ package me.anthonymurphy.ratelimiter;
  */
 
 
+import com.google.common.base.Ticker;
 import com.google.common.cache.CacheBuilder;
 import com.google.common.cache.CacheLoader;
+import com.google.common.cache.CacheStats;
 import com.google.common.cache.LoadingCache;
+import com.google.common.cache.RemovalCause;
+import com.google.common.cache.RemovalNotification;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ListenableFuture;
 
+import java.util.BitSet;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.function.Function;
+import java.util.function.ToLongFunction;
+
+import static com.google.common.base.Preconditions.checkNotNull;
 
 public class RateLimiterImpl implements RateLimiter {
 
+    // Contended consumes of a Client's bucket before it is wrapped in a ShardedTokenBucket
+    static final long HOT_KEY_CONTENTION = ShardedTokenBucket.DEFAULT_CONTENTION_THRESHOLD;
+
     private LoadingCache<String, TokenBucket> clientCache;
+    private final Function<String, TokenBucket> newTokenBucket;
+    // Wraps a contended bucket for hot key sharding, null if hot keys are not sharded
+    private final Function<TokenBucketImpl, TokenBucket> hotKeyWrapper;
+    private final LongAdder evictionCount = new LongAdder();
+    private final RateLimiterListener listener;
+    private final boolean latencyRecorded;
+    private final boolean resolvedAsynchronously;
+    private final ConcurrentMap<String, TokenBucket> drainedClients = new ConcurrentHashMap<>();
+    private final AtomicLong drainedWeight = new AtomicLong();
+    private final AtomicLong skipPurge = new AtomicLong();
+    private final AtomicReference<TokenBucket> overflowBucket = new AtomicReference<>();
+    private long maximumDrainedWeight = 0;
+    private ToLongFunction<String> drainedWeigher = clientId -> 1;
 
     RateLimiterImpl(long capacity, long period, TimeUnit timeUnit) {
+        this(TokenBucketBuilder.builder()
+                        .withCapacity(capacity)
+                        .withPeriod(period)
+                        .withTimeUnit(timeUnit),
+                CacheBuilder.newBuilder(), RateLimiterListener.NO_OP, 0);
+    }
+
+    RateLimiterImpl(TokenBucketBuilder.Builder tokenBucketBuilder, CacheBuilder<Object, Object> cacheBuilder,
+                    RateLimiterListener listener, int hotKeyShards) {
+        this(id -> tokenBucketBuilder.build(),
+                hotKeyShards > 0
+                        ? tokenBucket -> new ShardedTokenBucket(tokenBucket, tokenBucketBuilder.buildTicker(),
+                                tokenBucketBuilder.getPeriodInNanoseconds(), hotKeyShards)
+                        : null,
+                null, cacheBuilder, listener);
+    }
+
+    RateLimiterImpl(PolicyResolver policyResolver, Ticker ticker, CacheBuilder<Object, Object> cacheBuilder,
+                    RateLimiterListener listener, int hotKeyShards) {
+        this(id -> policyResolver.resolve(id).newTokenBucket(ticker), policyShards(ticker, hotKeyShards), null,
+                cacheBuilder, listener);
+    }
 
-        clientCache = CacheBuilder.newBuilder()
-               .build(
+    /*
+        Gives a new Client a bucket for the default policy at once, and resolves its own policy on the executor
+     */
+    RateLimiterImpl(PolicyResolver policyResolver, RateLimitingPolicy defaultPolicy, Executor executor, Ticker ticker,
+                    CacheBuilder<Object, Object> cacheBuilder, RateLimiterListener listener, int hotKeyShards) {
+        this(id -> defaultPolicy.newTokenBucket(ticker), policyShards(ticker, hotKeyShards),
+                CacheLoader.asyncReloading(new PolicyLoader(policyResolver, defaultPolicy, ticker), executor),
+                cacheBuilder, listener);
+    }
+
+    private RateLimiterImpl(Function<String, TokenBucket> newTokenBucket,
+                            Function<TokenBucketImpl, TokenBucket> hotKeyWrapper,
+                            CacheLoader<String, TokenBucket> loader, CacheBuilder<Object, Object> cacheBuilder, RateLimiterListener listener) {
+        this.newTokenBucket = newTokenBucket;
+        this.hotKeyWrapper = hotKeyWrapper;
+        this.listener = checkNotNull(listener, "Listener must be set");
+        this.latencyRecorded = listener.isLatencyRecorded();
+        this.resolvedAsynchronously = loader != null;
+        clientCache = cacheBuilder
+               .removalListener(this::onRemoval)
+               .build(loader != null ? loader :
                        new CacheLoader<String, TokenBucket>() {
                            public TokenBucket load(String id) {
-                               return TokenBucketBuilder.builder()
-                                       .withCapacity(capacity)
-                                       .withPeriod(period)
-                                       .withTimeUnit(timeUnit)
-                                       .build();
+                               return newTokenBucket.apply(id);
                            }
                        }
                );
@@ -45,7 +118,91 @@ public class RateLimiterImpl implements RateLimiter {
      */
     @Override
     public boolean allowRequest(String clientId) {
-        return clientCache.getUnchecked(clientId).consume();
+        if (latencyRecorded) {
+            return timedAllowRequest(clientId, 1);
+        }
+        boolean allowed = bucketFor(clientId).consume();
+        listener.onDecision(clientId, 1, allowed);
+        return allowed;
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token, for example the number
+        of bytes in the request or the complexity of a query. The tokens are consumed all at once or not at all
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        if (latencyRecorded) {
+            return timedAllowRequest(clientId, cost);
+        }
+        boolean allowed = bucketFor(clientId).tryConsume(cost);
+        listener.onDecision(clientId, cost, allowed);
+        return allowed;
+    }
+
+    /*
+        Returns true if the Client has a bucket in the cache, without creating one or counting as an access to it
+
+        @param clientId unique identifier for the Client
+        @return {@code true} if the Client has a bucket
+     */
+    boolean hasBucket(String clientId) {
+        return clientCache.asMap().containsKey(clientId);
+    }
+
+    /*
+        Decides a request as allowRequest does, telling the listener, and returns the bucket the tokens were taken
+        from, so a caller that turns the request down after all can refund them to it
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return the bucket the tokens were consumed from, {@code null} if the request was denied
+     */
+    TokenBucket consume(String clientId, long cost) {
+        long start = latencyRecorded ? System.nanoTime() : 0;
+        TokenBucket tokenBucket = bucketFor(clientId);
+        boolean allowed = tokenBucket.tryConsume(cost);
+        if (latencyRecorded) {
+            listener.onLatency(System.nanoTime() - start);
+        }
+        listener.onDecision(clientId, cost, allowed);
+        return allowed ? tokenBucket : null;
+    }
+
+    /*
+        Decides a batch of requests with one cache lookup and one consume per distinct Client in the batch. When a
+        Client appears more often than it has tokens, its earliest requests in the batch are the ones allowed. The
+        listener is told of each request, but batches are not timed
+
+        @param clientIds unique identifiers for the Client of each request in the batch
+        @param result bit i is set if the request from clientIds.get(i) is allowed and cleared otherwise
+     */
+    @Override
+    public void allowRequests(List<String> clientIds, BitSet result) {
+        Map<String, long[]> requestsPerClient = new HashMap<>();
+        for (String clientId : clientIds) {
+            requestsPerClient.computeIfAbsent(clientId, id -> new long[1])[0]++;
+        }
+
+        // Replace the number of requests with the number of tokens granted to the Client
+        for (Map.Entry<String, long[]> entry : requestsPerClient.entrySet()) {
+            long[] requests = entry.getValue();
+            requests[0] = bucketFor(entry.getKey()).consumeUpTo(requests[0]);
+        }
+
+        for (int i = 0; i < clientIds.size(); i++) {
+            long[] granted = requestsPerClient.get(clientIds.get(i));
+            boolean allowed = granted[0]-- > 0;
+            result.set(i, allowed);
+            listener.onDecision(clientIds.get(i), 1, allowed);
+        }
     }
 
     /*
@@ -57,6 +214,273 @@ public class RateLimiterImpl implements RateLimiter {
      */
     @Override
     public void addClient(String clientId, TokenBucket tokenBucket){
+        takeDrained(clientId);
         clientCache.put(clientId, tokenBucket);
     }
+
+    /*
+        Returns the number of Clients removed from the cache because it was full or because they were idle
+
+        @return number of Clients evicted
+     */
+    public long getEvictionCount() {
+        return evictionCount.sum();
+    }
+
+    /*
+        Returns the approximate number of Clients in the cache
+
+        @return number of Clients
+     */
+    public long getClientCount() {
+        return clientCache.size();
+    }
+
+    /*
+        Returns the number of evicted Clients whose buckets are kept until they refill
+
+        @return number of kept Clients
+     */
+    long getDrainedClientCount() {
+        return drainedClients.size();
+    }
+
+    /*
+        Returns the statistics of the client cache, which are only recorded when the rate limiter was built with
+        RateLimiterMetrics
+
+        @return statistics of the client cache
+     */
+    public CacheStats getCacheStats() {
+        return clientCache.stats();
+    }
+
+    /*
+        Returns the number of Clients whose buckets are currently split into shards, when built with hot key sharding
+
+        @return number of hot Clients
+     */
+    public long getShardedClientCount() {
+        return clientCache.asMap().values().stream()
+                .filter(bucket -> bucket instanceof ShardedTokenBucket && ((ShardedTokenBucket) bucket).isSharded())
+                .count();
+    }
+
+    /*
+        Expires idle Clients now, rather than as a side effect of later requests, and drops the kept buckets of
+        evicted and expired Clients that have refilled
+     */
+    public void cleanUp() {
+        clientCache.cleanUp();
+        dropFullDrained();
+    }
+
+    /*
+        Returns the Client's TokenBucket, creating it if this is the Client's first request. New buckets are built
+        outside the cache and added through its map view rather than its loader, the loader waits for the cache's
+        lock while holding a monitor, which would pin the carrier thread of a virtual thread, and building a bucket
+        under the cache's lock would stall the first request of every other Client in the same segment behind a slow
+        Policy Resolver. Threads racing on a new Client may each build a bucket, the first one added is kept.
+
+        A Client evicted from a full cache before its bucket refilled gets its old bucket back, see
+        retainDrainedClients. When policies are resolved asynchronously a new Client's default bucket is put in the
+        cache, and a refresh resolves its own policy off the calling thread. With hot key sharding, a bucket whose
+        lock has been contended often is swapped in the cache for a ShardedTokenBucket wrapping it, so only hot
+        Clients pay for sharding
+     */
+    TokenBucket bucketFor(String clientId) {
+        TokenBucket tokenBucket = clientCache.getIfPresent(clientId);
+        if (tokenBucket != null) {
+            if (hotKeyWrapper != null && tokenBucket instanceof TokenBucketImpl
+                    && ((TokenBucketImpl) tokenBucket).getContendedCount() >= HOT_KEY_CONTENTION) {
+                return wrapHotKey(clientId, (TokenBucketImpl) tokenBucket);
+            }
+            return tokenBucket;
+        }
+        tokenBucket = drainedClients.isEmpty() ? null : takeDrained(clientId);
+        if (tokenBucket == null) {
+            if (maximumDrainedWeight > 0 && drainedWeight.get() >= maximumDrainedWeight && !purgeDrainedClients()) {
+                return overflowBucket(clientId);
+            }
+            tokenBucket = newTokenBucket.apply(clientId);
+        }
+        TokenBucket existing = clientCache.asMap().putIfAbsent(clientId, tokenBucket);
+        if (existing != null) {
+            return existing;
+        }
+        if (resolvedAsynchronously) {
+            clientCache.refresh(clientId);
+        }
+        return tokenBucket;
+    }
+
+    /*
+        Times the decision with System.nanoTime rather than the buckets' Ticker, which may be a coarse or fake clock
+     */
+    private boolean timedAllowRequest(String clientId, long cost) {
+        long start = System.nanoTime();
+        boolean allowed = bucketFor(clientId).tryConsume(cost);
+        listener.onLatency(System.nanoTime() - start);
+        listener.onDecision(clientId, cost, allowed);
+        return allowed;
+    }
+
+    /*
+        Swaps the Client's contended bucket for one that wraps it, the tokens stay in the wrapped bucket so nothing
+        is lost to requests decided on it meanwhile. A bucket without a policy to take its period from, added with
+        addClient, is left as it is
+     */
+    private TokenBucket wrapHotKey(String clientId, TokenBucketImpl tokenBucket) {
+        TokenBucket wrapped = hotKeyWrapper.apply(tokenBucket);
+        if (wrapped == tokenBucket || clientCache.asMap().replace(clientId, tokenBucket, wrapped)) {
+            return wrapped;
+        }
+        // Wrapped, replaced or evicted by another thread
+        TokenBucket current = clientCache.getIfPresent(clientId);
+        return current != null ? current : tokenBucket;
+    }
+
+    private static Function<TokenBucketImpl, TokenBucket> policyShards(Ticker ticker, int hotKeyShards) {
+        if (hotKeyShards == 0) {
+            return null;
+        }
+        return tokenBucket -> tokenBucket.getPolicy() == null ? tokenBucket
+                : new ShardedTokenBucket(tokenBucket, ticker, tokenBucket.getPolicy().getPeriodInNanoseconds(),
+                        hotKeyShards);
+    }
+
+    /*
+        Keeps the buckets of Clients evicted because the cache was full until they refill, so a Client evicted with
+        a drained bucket gets it back rather than a full one. The kept Clients are weighed as the cache weighs its
+        Clients, and the builder takes their share of the bound out of the cache's, so together they stay within
+        the bound. Set by the builder when the cache is bounded, before the rate limiter is used
+
+        @param maximumWeight total weight of the evicted Clients whose buckets are kept
+        @param weigher weight of a kept Client, 1 when the cache is bounded by number of Clients
+     */
+    void retainDrainedClients(long maximumWeight, ToLongFunction<String> weigher) {
+        this.maximumDrainedWeight = maximumWeight;
+        this.drainedWeigher = checkNotNull(weigher, "Weigher must be set");
+    }
+
+    /*
+        Drops the kept buckets that have refilled to capacity, a new bucket would be full too. A purge that frees
+        nothing is not retried until a quarter of the kept Clients' worth of new Clients have been turned away, so
+        the cost of scanning stays constant per request, as in BucketSegment
+
+        @return {@code true} if any bucket was dropped
+     */
+    private boolean purgeDrainedClients() {
+        if (skipPurge.get() > 0 && skipPurge.getAndDecrement() > 0) {
+            return false;
+        }
+        boolean purged = dropFullDrained();
+        if (!purged) {
+            skipPurge.set(drainedClients.size() >>> 2);
+        }
+        return purged;
+    }
+
+    private void keepDrained(String clientId, TokenBucket tokenBucket) {
+        if (drainedClients.put(clientId, tokenBucket) == null) {
+            drainedWeight.addAndGet(drainedWeigher.applyAsLong(clientId));
+        }
+    }
+
+    private TokenBucket takeDrained(String clientId) {
+        TokenBucket tokenBucket = drainedClients.remove(clientId);
+        if (tokenBucket != null) {
+            drainedWeight.addAndGet(-drainedWeigher.applyAsLong(clientId));
+        }
+        return tokenBucket;
+    }
+
+    private boolean dropFullDrained() {
+        boolean dropped = false;
+        for (Map.Entry<String, TokenBucket> entry : drainedClients.entrySet()) {
+            if (isFull(entry.getValue()) && drainedClients.remove(entry.getKey(), entry.getValue())) {
+                drainedWeight.addAndGet(-drainedWeigher.applyAsLong(entry.getKey()));
+                dropped = true;
+            }
+        }
+        return dropped;
+    }
+
+    /*
+        Returns the bucket new Clients share while no kept bucket can be dropped, built for the first of them. It is
+        never the bucket of a known Client, so new Clients can only deny each other, never a Client already limited.
+        The new Client is not cached, so it gets its own bucket once there is room
+     */
+    private TokenBucket overflowBucket(String clientId) {
+        TokenBucket tokenBucket = overflowBucket.get();
+        if (tokenBucket == null) {
+            overflowBucket.compareAndSet(null, newTokenBucket.apply(clientId));
+            tokenBucket = overflowBucket.get();
+        }
+        return tokenBucket;
+    }
+
+    private static boolean isFull(TokenBucket tokenBucket) {
+        tokenBucket.refill();
+        return tokenBucket.getAvailableTokens() >= tokenBucket.getCapacity();
+    }
+
+    private void onRemoval(RemovalNotification<String, TokenBucket> removal) {
+        if (removal.wasEvicted()) {
+            evictionCount.increment();
+        }
+        // A Client expired before its bucket refilled has a longer period than the idle expiry, it keeps its bucket
+        // rather than come back with more tokens, whether or not the cache is bounded
+        boolean kept = removal.getCause() == RemovalCause.SIZE && maximumDrainedWeight > 0
+                || removal.getCause() == RemovalCause.EXPIRED;
+        if (kept && !isFull(removal.getValue())) {
+            keepDrained(removal.getKey(), removal.getValue());
+        }
+    }
+
+    /*
+        Loads a Client with the default policy, the policy is resolved on reload, which the cache runs on the
+        executor
+     */
+    private static final class PolicyLoader extends CacheLoader<String, TokenBucket> {
+
+        private final PolicyResolver policyResolver;
+        private final RateLimitingPolicy defaultPolicy;
+        private final Ticker ticker;
+
+        PolicyLoader(PolicyResolver policyResolver, RateLimitingPolicy defaultPolicy, Ticker ticker) {
+            this.policyResolver = checkNotNull(policyResolver, "Policy Resolver must be set");
+            this.defaultPolicy = checkNotNull(defaultPolicy, "Default Policy must be set");
+            this.ticker = checkNotNull(ticker, "Ticker must be set");
+        }
+
+        @Override
+        public TokenBucket load(String clientId) {
+            return defaultPolicy.newTokenBucket(ticker);
+        }
+
+        /*
+            Swaps in a bucket for the Client's resolved policy, started with the tokens the Client has already
+            consumed. The bucket is kept if its policy has not changed, and buckets added with addClient are never
+            replaced. The old bucket's tokens are taken all at once, so the count carried over is final: a request
+            decided on the old bucket while the new one is being swapped in is denied rather than lost. Tokens a hot
+            Client's shards already hold were consumed from the bucket and are carried over with the rest
+         */
+        @Override
+        public ListenableFuture<TokenBucket> reload(String clientId, TokenBucket tokenBucket) {
+            RateLimitingPolicy policy = policyResolver.resolve(clientId);
+            TokenBucketImpl policyBucket = tokenBucket instanceof ShardedTokenBucket
+                    ? ((ShardedTokenBucket) tokenBucket).getBucket()
+                    : tokenBucket instanceof TokenBucketImpl ? (TokenBucketImpl) tokenBucket : null;
+            if (policyBucket == null || policyBucket.getPolicy() == null || policy.equals(policyBucket.getPolicy())) {
+                return Futures.immediateFuture(tokenBucket);
+            }
+            long consumed = policyBucket.getCapacity() - policyBucket.consumeUpTo(policyBucket.getCapacity());
+            TokenBucket resolved = policy.newTokenBucket(ticker);
+            if (consumed > 0) {
+                resolved.consumeUpTo(consumed);
+            }
+            return Futures.immediateFuture(resolved);
+        }
+    }
 }
@@ -0,0 +1,41 @@
+package me.anthonymurphy.ratelimiter;
+
+/**
+ * Told of every decision a {@link RateLimiterImpl} makes, for metrics or logging
+ *
+ * Listeners are called on the thread that made the request, after its tokens have been consumed or refused, so they
+ * should be quick and must not block. {@link RateLimiterMetrics} counts decisions and can keep a latency histogram
+ * and the most denied Clients.
+ */
+
+public interface RateLimiterListener {
+
+    RateLimiterListener NO_OP = (clientId, cost, allowed) -> { };
+
+    /*
+        Called once a request has been allowed or denied
+
+        @param clientId unique identifier for the Client that made the request
+        @param cost number of tokens the request asked for
+        @param allowed {@code true} if the request was allowed
+     */
+    void onDecision(String clientId, long cost, boolean allowed);
+
+    /*
+        Returns true if the rate limiter should time each decision and pass it to onLatency. Timing reads the clock
+        twice a request, so it is off unless a listener asks for it
+
+        @return {@code true} to be told how long decisions take
+     */
+    default boolean isLatencyRecorded() {
+        return false;
+    }
+
+    /*
+        Called with the time taken to decide a single request, only if isLatencyRecorded returns true
+
+        @param latencyInNanoseconds time taken to decide the request
+     */
+    default void onLatency(long latencyInNanoseconds) {
+    }
+}
@@ -0,0 +1,189 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.cache.CacheStats;
+
+import javax.management.JMException;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counts the decisions of a {@link RateLimiterImpl}, built with {@link RateLimiterMetricsBuilder}
+ *
+ * Allowed and denied requests are counted in {@link LongAdder}s, which adds a few nanoseconds to a decision and does
+ * not contend between threads. A {@link LatencyHistogram} of decision times and a {@link HeavyHitters} sketch of the
+ * most denied Clients can be added, the histogram costs two clock reads a request and the sketch is only updated on
+ * denial, or on a random sample of denials. Once given to
+ * {@link RateLimiterBuilder.Builder#withListener(RateLimiterListener)} the client cache's statistics are recorded too,
+ * and everything can be read over JMX after {@link #register(String)}.
+ */
+
+public class RateLimiterMetrics implements RateLimiterListener, RateLimiterMetricsMXBean {
+
+    static final String DOMAIN = "me.anthonymurphy.ratelimiter";
+
+    // Number of Clients reported by getTopDeniedClients
+    static final int TOP_DENIED_CLIENTS = 10;
+
+    private final LongAdder allowed = new LongAdder();
+    private final LongAdder denied = new LongAdder();
+    private final LatencyHistogram latencyHistogram;
+    private final HeavyHitters deniedClients;
+    private final int deniedClientsSampling;
+    private volatile RateLimiterImpl rateLimiter;
+
+    RateLimiterMetrics(LatencyHistogram latencyHistogram, HeavyHitters deniedClients, int deniedClientsSampling) {
+        this.latencyHistogram = latencyHistogram;
+        this.deniedClients = deniedClients;
+        this.deniedClientsSampling = deniedClientsSampling;
+    }
+
+    @Override
+    public void onDecision(String clientId, long cost, boolean allowed) {
+        if (allowed) {
+            this.allowed.increment();
+        } else {
+            denied.increment();
+            if (deniedClients != null && (deniedClientsSampling == 1
+                    || ThreadLocalRandom.current().nextInt(deniedClientsSampling) == 0)) {
+                deniedClients.offer(clientId);
+            }
+        }
+    }
+
+    @Override
+    public boolean isLatencyRecorded() {
+        return latencyHistogram != null;
+    }
+
+    @Override
+    public void onLatency(long latencyInNanoseconds) {
+        latencyHistogram.record(latencyInNanoseconds);
+    }
+
+    /*
+        Registers these metrics with the platform MBeanServer
+
+        @param name name that tells this rate limiter apart from others in the same process
+        @return the name the metrics were registered under
+     */
+    public ObjectName register(String name) throws JMException {
+        ObjectName objectName = new ObjectName(DOMAIN, "name", ObjectName.quote(name));
+        ManagementFactory.getPlatformMBeanServer().registerMBean(this, objectName);
+        return objectName;
+    }
+
+    @Override
+    public long getAllowedCount() {
+        return allowed.sum();
+    }
+
+    @Override
+    public long getDeniedCount() {
+        return denied.sum();
+    }
+
+    /*
+        Returns the approximate number of Clients held by the rate limiter, 0 until given to a rate limiter
+     */
+    @Override
+    public long getClientCount() {
+        RateLimiterImpl rateLimiter = this.rateLimiter;
+        return rateLimiter == null ? 0 : rateLimiter.getClientCount();
+    }
+
+    @Override
+    public long getEvictionCount() {
+        RateLimiterImpl rateLimiter = this.rateLimiter;
+        return rateLimiter == null ? 0 : rateLimiter.getEvictionCount();
+    }
+
+    /*
+        Returns the number of requests from Clients that were already held
+     */
+    @Override
+    public long getCacheHitCount() {
+        return cacheStats().hitCount();
+    }
+
+    /*
+        Returns the number of requests from Clients that were not held and were given a new bucket
+     */
+    @Override
+    public long getCacheMissCount() {
+        return cacheStats().missCount();
+    }
+
+    @Override
+    public long getLatencyMedian() {
+        return latencyAtPercentile(50);
+    }
+
+    @Override
+    public long getLatency99thPercentile() {
+        return latencyAtPercentile(99);
+    }
+
+    @Override
+    public long getLatency999thPercentile() {
+        return latencyAtPercentile(99.9);
+    }
+
+    /*
+        Returns the Clients denied most often and their approximate number of denials, most denied first
+     */
+    @Override
+    public Map<String, Long> getTopDeniedClients() {
+        if (deniedClients == null) {
+            return Collections.emptyMap();
+        }
+        Map<String, Long> top = new LinkedHashMap<>();
+        deniedClients.getTop(TOP_DENIED_CLIENTS)
+                .forEach((clientId, count) -> top.put(clientId, count * deniedClientsSampling));
+        return top;
+    }
+
+    /*
+        Returns the histogram of decision times, or null if latencies are not recorded
+     */
+    public LatencyHistogram getLatencyHistogram() {
+        return latencyHistogram;
+    }
+
+    /*
+        Returns the sketch of the most denied Clients, or null if they are not tracked
+     */
+    public HeavyHitters getDeniedClients() {
+        return deniedClients;
+    }
+
+    /*
+        Clears the counts, histogram and denied Clients. The rate limiter's own counts are not reset
+     */
+    @Override
+    public void reset() {
+        allowed.reset();
+        denied.reset();
+        if (latencyHistogram != null)
+            latencyHistogram.reset();
+        if (deniedClients != null)
+            deniedClients.reset();
+    }
+
+    void monitor(RateLimiterImpl rateLimiter) {
+        this.rateLimiter = rateLimiter;
+    }
+
+    private CacheStats cacheStats() {
+        RateLimiterImpl rateLimiter = this.rateLimiter;
+        return rateLimiter == null ? new CacheStats(0, 0, 0, 0, 0, 0) : rateLimiter.getCacheStats();
+    }
+
+    private long latencyAtPercentile(double percentile) {
+        return latencyHistogram == null ? 0 : latencyHistogram.getValueAtPercentile(percentile);
+    }
+}
@@ -0,0 +1,54 @@
+package me.anthonymurphy.ratelimiter;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+public final class RateLimiterMetricsBuilder {
+
+    private RateLimiterMetricsBuilder() { }
+
+    public static Builder builder() {
+        return new Builder();
+    }
+
+    public static class Builder {
+        private boolean latencyRecorded = false;
+        private int deniedClients = 0;
+        private int deniedClientsSampling = 1;
+
+        /*
+            Times every decision into a LatencyHistogram, at the cost of reading the clock twice a request
+         */
+        public Builder withLatencyHistogram() {
+            this.latencyRecorded = true;
+            return this;
+        }
+
+        /*
+            Tracks the Clients denied most often in a HeavyHitters sketch of the given number of Clients. A larger
+            sketch gives more accurate counts, Clients denied more than 1 / deniedClients of the time are always held
+         */
+        public Builder withDeniedClients(int deniedClients) {
+            checkArgument(deniedClients > 0, "Denied Clients must be greater than 0");
+            this.deniedClients = deniedClients;
+            return this;
+        }
+
+        /*
+            Offers only one in every given number of denials to the denied Clients sketch, chosen at random, and scales
+            the counts up to match. Updating the sketch costs far more than counting, sampling keeps the cost of a
+            denial close to that of an allowed request when most requests are denied, at the cost of exact counts
+         */
+        public Builder withDeniedClientsSampling(int oneIn) {
+            checkArgument(oneIn > 0, "Sampling must be greater than 0");
+            this.deniedClientsSampling = oneIn;
+            return this;
+        }
+
+        public RateLimiterMetrics build() {
+            return new RateLimiterMetrics(
+                    latencyRecorded ? new LatencyHistogram() : null,
+                    deniedClients > 0 ? new HeavyHitters(deniedClients) : null,
+                    deniedClientsSampling);
+        }
+    }
+}
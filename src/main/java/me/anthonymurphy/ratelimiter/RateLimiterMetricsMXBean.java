@@ -0,0 +1,32 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.Map;
+
+/**
+ * Management interface of {@link RateLimiterMetrics}, registered with {@link RateLimiterMetrics#register(String)}
+ */
+
+public interface RateLimiterMetricsMXBean {
+
+    long getAllowedCount();
+
+    long getDeniedCount();
+
+    long getClientCount();
+
+    long getEvictionCount();
+
+    long getCacheHitCount();
+
+    long getCacheMissCount();
+
+    long getLatencyMedian();
+
+    long getLatency99thPercentile();
+
+    long getLatency999thPercentile();
+
+    Map<String, Long> getTopDeniedClients();
+
+    void reset();
+}
@@ -0,0 +1,104 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.MoreObjects;
+import com.google.common.base.Ticker;
+import com.google.common.collect.Interner;
+import com.google.common.collect.Interners;
+
+import java.util.Objects;
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+
+/**
+ * The limit a Client's Token Bucket enforces, its capacity, period and how it is refilled
+ *
+ * Policies are interned, every policy with the same limit is the same instance, so millions of buckets share a handful
+ * of policies and their RefillStrategy rather than each holding its own. Policies are built with
+ * {@link TokenBucketBuilder.Builder#buildPolicy()}.
+ */
+
+public final class RateLimitingPolicy {
+
+    private static final Interner<RateLimitingPolicy> POLICIES = Interners.newWeakInterner();
+
+    private final long capacity;
+    private final long periodInNanoseconds;
+    private final boolean greedyRefill;
+    private final RefillStrategy refillStrategy;
+
+    private RateLimitingPolicy(long capacity, long periodInNanoseconds, boolean greedyRefill) {
+        this.capacity = capacity;
+        this.periodInNanoseconds = periodInNanoseconds;
+        this.greedyRefill = greedyRefill;
+        this.refillStrategy = greedyRefill
+                ? new GreedyRefillStrategy(capacity, periodInNanoseconds, TimeUnit.NANOSECONDS)
+                : new SimpleRefillStrategy(capacity, periodInNanoseconds, TimeUnit.NANOSECONDS);
+    }
+
+    /*
+        Returns the policy with the given limit, the same instance for the same limit
+
+        @param capacity maximum number of tokens in the bucket
+        @param periodInNanoseconds period the capacity is refilled over
+        @param greedyRefill {@code true} to add tokens continuously, {@code false} to refill once per period
+        @return the interned policy
+     */
+    static RateLimitingPolicy of(long capacity, long periodInNanoseconds, boolean greedyRefill) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(periodInNanoseconds > 0, "Period must be greater than 0");
+        return POLICIES.intern(new RateLimitingPolicy(capacity, periodInNanoseconds, greedyRefill));
+    }
+
+    public long getCapacity() {
+        return capacity;
+    }
+
+    public long getPeriodInNanoseconds() {
+        return periodInNanoseconds;
+    }
+
+    public boolean isGreedyRefill() {
+        return greedyRefill;
+    }
+
+    RefillStrategy getRefillStrategy() {
+        return refillStrategy;
+    }
+
+    /*
+        Creates a full bucket that enforces this policy
+
+        @param ticker time source of the bucket
+        @return new TokenBucket
+     */
+    TokenBucketImpl newTokenBucket(Ticker ticker) {
+        return new TokenBucketImpl(ticker, this);
+    }
+
+    @Override
+    public boolean equals(Object other) {
+        if (this == other)
+            return true;
+        if (!(other instanceof RateLimitingPolicy))
+            return false;
+        RateLimitingPolicy policy = (RateLimitingPolicy) other;
+        return capacity == policy.capacity
+                && periodInNanoseconds == policy.periodInNanoseconds
+                && greedyRefill == policy.greedyRefill;
+    }
+
+    @Override
+    public int hashCode() {
+        return Objects.hash(capacity, periodInNanoseconds, greedyRefill);
+    }
+
+    @Override
+    public String toString() {
+        return MoreObjects.toStringHelper(this)
+                .add("capacity", capacity)
+                .add("periodInNanoseconds", periodInNanoseconds)
+                .add("greedyRefill", greedyRefill)
+                .toString();
+    }
+}
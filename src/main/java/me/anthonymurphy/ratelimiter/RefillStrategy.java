@@ -0,0 +1,18 @@
+package me.anthonymurphy.ratelimiter;
+
+
+/**
+ * Decides how many tokens are added to a Token Bucket as time passes
+ *
+ * Strategies hold no per bucket state, all times are {@link com.google.common.base.Ticker} readings in nanoseconds,
+ * so a single strategy can be shared by every bucket with the same capacity and period.
+ *
+ */
+
+public interface RefillStrategy {
+
+    long tokensToAdd(long lastRefillTime, long currentTime);
+    long getRefillTime(long lastRefillTime, long currentTime);
+    long getNextRefillTime(long lastRefillTime);
+
+}
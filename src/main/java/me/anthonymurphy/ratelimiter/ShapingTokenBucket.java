@@ -0,0 +1,290 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Futures;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+import com.google.common.util.concurrent.Uninterruptibles;
+
+import java.time.Instant;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.TimeoutException;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Token Bucket that shapes rather than polices, callers can wait for tokens instead of being refused
+ *
+ * Waiters are queued in the order they asked and served first come, first served. Nothing polls the bucket and no
+ * thread is parked per waiter, while the queue is not empty a single task on a shared scheduler runs when the bucket's
+ * next refill is due, hands the refilled tokens to as many waiters as they cover and reschedules itself for the next
+ * refill. {@link #acquire(long)} and {@link #tryAcquire(long, long, TimeUnit)} block the calling thread on the
+ * {@link CompletableFuture} returned by {@link #acquireAsync(long)}.
+ *
+ * The policing methods of {@link TokenBucket} are passed on to the wrapped bucket, except that while there are waiters
+ * they refuse tokens rather than take them ahead of the queue.
+ *
+ * Waiting parks the thread on the future and the queue is guarded by a {@link ReentrantLock} rather than a monitor, so
+ * virtual threads can wait for tokens without pinning their carrier thread.
+ */
+
+public class ShapingTokenBucket implements TokenBucket {
+
+    // Lower bound on the time between attempts, in case the refill time is reached before the tokens are
+    private static final long MINIMUM_DELAY_IN_NANOSECONDS = TimeUnit.MICROSECONDS.toNanos(50);
+
+    private final TokenBucket bucket;
+    private final Ticker ticker;
+    private final long epochOffset;
+    private final ScheduledExecutorService scheduler;
+    private final Queue<Waiter> waiters = new ArrayDeque<>();
+    private final ReentrantLock lock = new ReentrantLock();
+    private boolean drainScheduled;
+
+    ShapingTokenBucket(TokenBucket bucket, Ticker ticker) {
+        this(bucket, ticker, SharedScheduler.INSTANCE);
+    }
+
+    ShapingTokenBucket(TokenBucket bucket, Ticker ticker, ScheduledExecutorService scheduler) {
+        this.bucket = checkNotNull(bucket, "TokenBucket must be set");
+        this.ticker = checkNotNull(ticker, "Ticker must be set");
+        this.scheduler = checkNotNull(scheduler, "Scheduler must be set");
+        this.epochOffset = Tickers.epochOffset(ticker);
+    }
+
+    /*
+        Waits until a token has been consumed
+
+        Waiting is not interrupted, the interrupt status of the thread is restored once the token has been consumed
+     */
+    public void acquire() {
+        acquire(1);
+    }
+
+    /*
+        Waits until the requested number of tokens have been consumed
+
+        @param permits number of tokens to consume, no more than the capacity of the bucket
+     */
+    public void acquire(long permits) {
+        Futures.getUnchecked(acquireAsync(permits));
+    }
+
+    /*
+        Waits up to the timeout for the requested number of tokens to be consumed, if they are not the request is
+        withdrawn and no tokens are consumed
+
+        @param permits number of tokens to consume, no more than the capacity of the bucket
+        @param timeout maximum time to wait
+        @param unit unit of the timeout
+        @return {@code true} if the tokens were consumed, {@code false} if the timeout elapsed first
+     */
+    public boolean tryAcquire(long permits, long timeout, TimeUnit unit) {
+        checkNotNull(unit, "TimeUnit must be set");
+        CompletableFuture<Void> acquired = acquireAsync(permits);
+        try {
+            Uninterruptibles.getUninterruptibly(acquired, timeout, unit);
+            return true;
+        } catch (TimeoutException e) {
+            lock.lock();
+            try {
+                if (waiters.removeIf(waiter -> waiter.acquired == acquired)) {
+                    acquired.cancel(false);
+                    return false;
+                }
+            } finally {
+                lock.unlock();
+            }
+            // The tokens were consumed after the timeout elapsed, and the future is about to be completed
+            acquired.join();
+            return true;
+        } catch (ExecutionException e) {
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    /*
+        Returns a future completed once the requested number of tokens have been consumed, on the calling thread if
+        they are available now and there are no earlier waiters, otherwise on the scheduler. Cancelling the future
+        withdraws the request
+
+        @param permits number of tokens to consume, no more than the capacity of the bucket
+        @return future completed when the tokens are consumed
+     */
+    public CompletableFuture<Void> acquireAsync(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        checkArgument(permits <= bucket.getCapacity(), "Permits must not be greater than the capacity %s",
+                bucket.getCapacity());
+        lock.lock();
+        try {
+            if (waiters.isEmpty() && bucket.tryConsume(permits)) {
+                return CompletableFuture.completedFuture(null);
+            }
+            CompletableFuture<Void> acquired = new CompletableFuture<>();
+            waiters.add(new Waiter(permits, acquired));
+            if (!drainScheduled) {
+                scheduleDrain();
+            }
+            return acquired;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns the number of callers waiting for tokens, including any that have been cancelled but not yet removed
+
+        @return number of waiters
+     */
+    public int getWaiterCount() {
+        lock.lock();
+        try {
+            return waiters.size();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public long getCapacity() {
+        return bucket.getCapacity();
+    }
+
+    @Override
+    public long getAvailableTokens() {
+        return bucket.getAvailableTokens();
+    }
+
+    @Override
+    public boolean consume() {
+        return tryConsume(1);
+    }
+
+    /*
+        Consumes the requested number of tokens if they are available now and no one is waiting for tokens
+
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        lock.lock();
+        try {
+            return waiters.isEmpty() && bucket.tryConsume(permits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Consumes as many of the requested number of tokens as are available now, none if anyone is waiting for tokens
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            return waiters.isEmpty() ? bucket.consumeUpTo(permits) : 0;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    @Override
+    public void refund(long permits) {
+        bucket.refund(permits);
+    }
+
+    @Override
+    public void refill() {
+        bucket.refill();
+    }
+
+    @Override
+    public Instant getNextRefillTime() {
+        return bucket.getNextRefillTime();
+    }
+
+    /*
+        Hands tokens to waiters in order until the first one the bucket cannot cover, then reschedules for the next
+        refill. Futures are completed outside the lock, so their callbacks can not hold up other callers
+     */
+    private void drain() {
+        List<Waiter> acquired = new ArrayList<>();
+        lock.lock();
+        try {
+            drainScheduled = false;
+            Waiter waiter;
+            while ((waiter = waiters.peek()) != null) {
+                if (!waiter.acquired.isDone()) {
+                    if (!bucket.tryConsume(waiter.permits)) {
+                        scheduleDrain();
+                        break;
+                    }
+                    acquired.add(waiter);
+                }
+                waiters.remove();
+            }
+        } finally {
+            lock.unlock();
+        }
+        for (Waiter waiter : acquired) {
+            // Cancelled since its tokens were consumed, so they are given back for the next waiter
+            if (!waiter.acquired.complete(null)) {
+                bucket.refund(waiter.permits);
+            }
+        }
+    }
+
+    /*
+        Schedules a drain for the bucket's next refill. The bucket converts its refill time to an Instant with the
+        epoch offset of the Ticker, which this bucket shares, so the delay is measured on the bucket's own clock
+     */
+    private void scheduleDrain() {
+        long now = ticker.read() + epochOffset;
+        long delay = Tickers.toEpochNanos(bucket.getNextRefillTime()) - now;
+        scheduler.schedule(this::drain, Math.max(delay, MINIMUM_DELAY_IN_NANOSECONDS), TimeUnit.NANOSECONDS);
+        drainScheduled = true;
+    }
+
+    private static final class Waiter {
+
+        final long permits;
+        final CompletableFuture<Void> acquired;
+
+        Waiter(long permits, CompletableFuture<Void> acquired) {
+            this.permits = permits;
+            this.acquired = acquired;
+        }
+    }
+
+    /*
+        Scheduler shared by every ShapingTokenBucket and RateLimitedPublisher that is not given one, a single daemon
+        thread is enough as it only moves tokens from buckets to waiting futures and subscriptions
+     */
+    static final class SharedScheduler {
+
+        static final ScheduledExecutorService INSTANCE = create();
+
+        private static ScheduledExecutorService create() {
+            ScheduledThreadPoolExecutor executor = new ScheduledThreadPoolExecutor(1, new ThreadFactoryBuilder()
+                    .setNameFormat("token-bucket-scheduler-%d")
+                    .setDaemon(true)
+                    .build());
+            executor.setRemoveOnCancelPolicy(true);
+            return executor;
+        }
+    }
+}
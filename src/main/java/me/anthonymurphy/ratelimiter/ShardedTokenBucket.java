@@ -0,0 +1,381 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.time.Instant;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Token Bucket for a single hot Client, which splits the Client's bucket into per-core shards while threads contend for
+ * it
+ *
+ * While the Client is cold every request goes straight to the wrapped {@link TokenBucketImpl}. Once its lock has been
+ * contended a threshold number of times within a window the bucket is split: each thread takes tokens from one of a
+ * number of shards, each on its own cache lines, and only goes back to the wrapped bucket for a batch of tokens when
+ * its shard runs dry, much as a {@link java.util.concurrent.atomic.LongAdder} spreads a count over cells. As with its
+ * cells, a thread's shard is picked by a random per-thread probe that moves on when the thread collides with another
+ * on its shard. A thread that finds both its shard and the bucket empty steals the tokens other shards hold, so tokens
+ * are not stranded on shards whose threads have gone quiet. Once the Client makes fewer requests in a window than the
+ * threshold the shards' tokens are refunded to the bucket and requests go straight to it again.
+ *
+ * Tokens are consumed from the wrapped bucket before they are held by a shard, but tokens taken before a refill can
+ * still be used after it, so on top of what the bucket allows a hot Client may use the batches its shards hold, no more
+ * than a sixteenth of the capacity. While the bucket is empty a hot Client's requests are refused from the shards,
+ * without taking the bucket's lock, for the time it takes a greedy bucket to earn a batch, or until the next refill
+ * of a bucket that refills at the end of its period.
+ */
+
+public class ShardedTokenBucket implements TokenBucket {
+
+    static final long DEFAULT_CONTENTION_THRESHOLD = 1000;
+    static final long DEFAULT_WINDOW_IN_NANOSECONDS = TimeUnit.MILLISECONDS.toNanos(100);
+
+    // Shards together hold no more than this fraction of the capacity
+    private static final int BATCH_DIVISOR = 16;
+
+    // Longs from one shard to the next, so no two shards share a cache line or an adjacent line the CPU prefetches
+    private static final int STRIDE = 16;
+    private static final int TOKENS = 0;
+    private static final int REQUESTS = 1;
+
+    // Per-thread hash picking the thread's shard, ThreadLocalRandom keeps its own probe for LongAdder to itself
+    private static final ThreadLocal<Probe> PROBE = ThreadLocal.withInitial(Probe::new);
+
+    private final TokenBucketImpl bucket;
+    private final Ticker ticker;
+    private final int shardCount;
+    private final long batchSize;
+    private final long backoffInNanoseconds;
+    private final boolean greedyRefill;
+    private final long epochOffset;
+    private final long threshold;
+    private final long windowInNanoseconds;
+    private final ReentrantLock lock = new ReentrantLock();
+    private volatile AtomicLongArray shards;
+    private volatile long nextContentionCheck;
+    private volatile long emptyUntil;
+    // Written under the lock, volatile so a request can check the window without taking the lock
+    private volatile long windowStart;
+    // Guarded by the lock
+    private long requestsAtWindowStart;
+
+    ShardedTokenBucket(TokenBucketImpl bucket, Ticker ticker, long periodInNanoseconds, int shardCount) {
+        this(bucket, ticker, periodInNanoseconds, shardCount, DEFAULT_CONTENTION_THRESHOLD,
+                DEFAULT_WINDOW_IN_NANOSECONDS);
+    }
+
+    ShardedTokenBucket(TokenBucketImpl bucket, Ticker ticker, long periodInNanoseconds, int shardCount,
+                       long threshold, long windowInNanoseconds) {
+        checkNotNull(bucket, "TokenBucket must be set");
+        checkNotNull(ticker, "Ticker must be set");
+        checkArgument(periodInNanoseconds > 0, "Period must be greater than 0");
+        checkArgument(shardCount > 0 && Integer.bitCount(shardCount) == 1, "Number of shards must be a power of two");
+        checkArgument(threshold > 0, "Threshold must be greater than 0");
+        checkArgument(windowInNanoseconds > 0, "Window must be greater than 0");
+        this.bucket = bucket;
+        this.ticker = ticker;
+        this.shardCount = shardCount;
+        this.batchSize = Math.max(1, bucket.getCapacity() / ((long) shardCount * BATCH_DIVISOR));
+        this.backoffInNanoseconds = Arithmetic.multiplyDivideRoundUp(batchSize, periodInNanoseconds,
+                bucket.getCapacity());
+        this.greedyRefill = bucket.isGreedyRefill();
+        this.epochOffset = Tickers.epochOffset(ticker);
+        this.threshold = threshold;
+        this.windowInNanoseconds = windowInNanoseconds;
+        // A bucket is wrapped once it is contended, it is split if it is contended as often again within a window
+        this.nextContentionCheck = bucket.getContendedCount() + threshold;
+        this.windowStart = ticker.read();
+        this.emptyUntil = windowStart;
+    }
+
+    @Override
+    public long getCapacity() {
+        return bucket.getCapacity();
+    }
+
+    /*
+        Returns the tokens available in the wrapped bucket and, while the Client is split, held by its shards
+
+        @return The current number of Tokens available
+     */
+    @Override
+    public long getAvailableTokens() {
+        long available = bucket.getAvailableTokens();
+        AtomicLongArray shards = this.shards;
+        if (shards != null) {
+            for (int index = 0; index < shards.length(); index += STRIDE) {
+                available += shards.get(index + TOKENS);
+            }
+        }
+        return available;
+    }
+
+    @Override
+    public boolean consume() {
+        return tryConsume(1);
+    }
+
+    /*
+        Returns true if the requested number of tokens were consumed, false otherwise, in which case no tokens are
+        consumed
+
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        AtomicLongArray shards = this.shards;
+        if (shards == null) {
+            boolean consumed = bucket.tryConsume(permits);
+            checkContention();
+            return consumed;
+        }
+        return take(shards, permits, false) == permits;
+    }
+
+    /*
+        Consumes as many of the requested number of tokens as are available, while the Client is split that is what
+        its shard holds and can be restocked with
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        AtomicLongArray shards = this.shards;
+        if (shards == null) {
+            long consumed = bucket.consumeUpTo(permits);
+            checkContention();
+            return consumed;
+        }
+        return take(shards, permits, true);
+    }
+
+    /*
+        Returns tokens to the wrapped bucket, which never holds more than its capacity
+
+        @param permits number of tokens to return
+     */
+    @Override
+    public void refund(long permits) {
+        bucket.refund(permits);
+    }
+
+    @Override
+    public void refill() {
+        bucket.refill();
+    }
+
+    @Override
+    public Instant getNextRefillTime() {
+        return bucket.getNextRefillTime();
+    }
+
+    /*
+        Returns true while the Client's bucket is split into shards
+
+        @return {@code true} if the Client is hot, {@code false} otherwise
+     */
+    public boolean isSharded() {
+        return shards != null;
+    }
+
+    TokenBucketImpl getBucket() {
+        return bucket;
+    }
+
+    /*
+        Splits the bucket into shards now, rather than once it is contended
+     */
+    void split() {
+        lock.lock();
+        try {
+            if (shards == null) {
+                split(ticker.read());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Refunds the tokens held by the shards and sends requests straight to the wrapped bucket again. A thread that
+        was restocking its shard as the bucket merged may leave tokens on the discarded shards, which only ever refuses
+        requests that would have been allowed
+     */
+    void merge() {
+        lock.lock();
+        try {
+            if (shards != null) {
+                merge(ticker.read());
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private long take(AtomicLongArray shards, long permits, boolean partial) {
+        Probe probe = PROBE.get();
+        int index = (probe.hash & (shardCount - 1)) * STRIDE;
+        // Not an atomic increment, a count lost to another thread on the same shard only makes the Client look cooler
+        shards.lazySet(index + REQUESTS, shards.get(index + REQUESTS) + 1);
+        long taken = takeFromShard(shards, index, permits, partial, probe);
+        if (taken == permits) {
+            return taken;
+        }
+        long needed = permits - taken;
+        long now = ticker.read();
+        if (cooled(shards, now)) {
+            // Merged, so the rest come straight from the bucket
+            return taken + (partial ? bucket.consumeUpTo(needed) : bucket.tryConsume(needed) ? needed : 0);
+        }
+        if (restock(shards, index, needed, now)) {
+            taken += takeFromShard(shards, index, needed, partial, probe);
+        }
+        return taken;
+    }
+
+    /*
+        Takes the tokens from the shard, or as many as it holds if partial, otherwise none. A thread that loses a
+        compare-and-set to another thread on the shard moves to a different shard for its next request
+     */
+    private static long takeFromShard(AtomicLongArray shards, int index, long permits, boolean partial, Probe probe) {
+        for (;;) {
+            long available = shards.get(index + TOKENS);
+            long taken = Math.min(available, permits);
+            if (taken == 0 || (taken < permits && !partial)) {
+                return 0;
+            }
+            if (shards.compareAndSet(index + TOKENS, available, available - taken)) {
+                return taken;
+            }
+            probe.advance();
+        }
+    }
+
+    /*
+        Adds a batch from the wrapped bucket to the shard, unless the bucket was recently found empty, then tokens
+        stolen from other shards until there are enough. A bucket that refills at the end of its period earns nothing
+        before then and everything at once, so once it is found empty it is not tried again until its next refill
+
+        @return {@code true} if any tokens were added
+     */
+    private boolean restock(AtomicLongArray shards, int index, long needed, long now) {
+        long added = 0;
+        if (now - emptyUntil >= 0) {
+            added = bucket.consumeUpTo(Math.max(batchSize, needed));
+            if (added < needed) {
+                // SimpleRefillStrategy only refills once the next refill time has passed
+                emptyUntil = greedyRefill ? now + backoffInNanoseconds
+                        : Tickers.toEpochNanos(bucket.getNextRefillTime()) - epochOffset + 1;
+            }
+        }
+        for (int other = 0; other < shards.length() && added < needed; other += STRIDE) {
+            if (other != index && shards.get(other + TOKENS) > 0) {
+                added += shards.getAndSet(other + TOKENS, 0);
+            }
+        }
+        if (added == 0) {
+            return false;
+        }
+        shards.addAndGet(index + TOKENS, added);
+        return true;
+    }
+
+    /*
+        Splits the bucket if the threshold of contended consumes has been reached within a window of the last check.
+        The count is read without the lock on every request, the Ticker only once per threshold contended consumes
+     */
+    private void checkContention() {
+        if (bucket.getContendedCount() < nextContentionCheck || !lock.tryLock()) {
+            return;
+        }
+        try {
+            long contended = bucket.getContendedCount();
+            if (shards != null || contended < nextContentionCheck) {
+                return;
+            }
+            long now = ticker.read();
+            if (now - windowStart < windowInNanoseconds) {
+                split(now);
+            } else {
+                windowStart = now;
+                nextContentionCheck = contended + threshold;
+            }
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Merges the shards if fewer requests than the threshold were made per window since the last check. Only checked
+        when a shard runs dry, so it does not add to requests the shard can serve
+
+        @return {@code true} if the shards have been merged
+     */
+    private boolean cooled(AtomicLongArray shards, long now) {
+        if (now - windowStart < windowInNanoseconds || !lock.tryLock()) {
+            return this.shards != shards;
+        }
+        try {
+            if (this.shards != shards || now - windowStart < windowInNanoseconds) {
+                return this.shards != shards;
+            }
+            long requests = 0;
+            for (int index = 0; index < shards.length(); index += STRIDE) {
+                requests += shards.get(index + REQUESTS);
+            }
+            // Checks can be more than a window apart, so the requests are compared per window
+            long requestsSinceCheck = Math.max(0, requests - requestsAtWindowStart);
+            if (Arithmetic.multiplyDivide(requestsSinceCheck, windowInNanoseconds, now - windowStart) < threshold) {
+                merge(now);
+                return true;
+            }
+            windowStart = now;
+            requestsAtWindowStart = requests;
+            return false;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void split(long now) {
+        shards = new AtomicLongArray(shardCount * STRIDE);
+        windowStart = now;
+        requestsAtWindowStart = 0;
+    }
+
+    private void merge(long now) {
+        AtomicLongArray merged = shards;
+        shards = null;
+        long tokens = 0;
+        for (int index = 0; index < merged.length(); index += STRIDE) {
+            tokens += merged.getAndSet(index + TOKENS, 0);
+        }
+        if (tokens > 0) {
+            bucket.refund(tokens);
+        }
+        windowStart = now;
+        nextContentionCheck = bucket.getContendedCount() + threshold;
+    }
+
+    private static final class Probe {
+
+        private int hash = ThreadLocalRandom.current().nextInt() | 1;
+
+        // Marsaglia xorshift, never reaches 0 from a non-zero hash
+        void advance() {
+            hash ^= hash << 13;
+            hash ^= hash >>> 17;
+            hash ^= hash << 5;
+        }
+    }
+}
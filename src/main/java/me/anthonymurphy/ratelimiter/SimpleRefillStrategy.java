@@ -0,0 +1,64 @@
+package me.anthonymurphy.ratelimiter;
+
+import java.util.concurrent.TimeUnit;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Resets the bucket to capacity on the first refill after the current period has elapsed
+ *
+ * Refill times stay aligned to the period the bucket was created in, so a client that has used up its tokens gets
+ * the whole capacity back at the start of each period.
+ */
+
+public class SimpleRefillStrategy implements RefillStrategy {
+
+    private final long capacity;
+    private final long periodInNanoseconds;
+
+    SimpleRefillStrategy(long capacity, long period, TimeUnit unit) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(period > 0, "Period must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        this.capacity = capacity;
+        this.periodInNanoseconds = unit.toNanos(period);
+    }
+
+    /*
+        Returns the capacity of the bucket if current time is after the next refill time, 0 otherwise
+
+        @param lastRefillTime time of the last refill
+        @param currentTime current time
+        @return number of tokens to add to the bucket
+     */
+    @Override
+    public long tokensToAdd(long lastRefillTime, long currentTime) {
+        return currentTime - getNextRefillTime(lastRefillTime) > 0 ? capacity : 0;
+    }
+
+    /*
+        Returns the start of the current period, for example if the period is an hour and refill is called 2 and 1/2
+        hours after the last bucket refill, the refill time is last refill time + 2 hours
+
+        @param lastRefillTime time of the last refill
+        @param currentTime current time
+        @return time to record as the last refill
+     */
+    @Override
+    public long getRefillTime(long lastRefillTime, long currentTime) {
+        long numberOfPeriodsSinceLastRefill = Math.max(0, (currentTime - lastRefillTime) / periodInNanoseconds);
+        return lastRefillTime + numberOfPeriodsSinceLastRefill * periodInNanoseconds;
+    }
+
+    /*
+        Returns the end of the period that started at the last refill
+
+        @param lastRefillTime time of the last refill
+        @return time of the next refill
+     */
+    @Override
+    public long getNextRefillTime(long lastRefillTime) {
+        return lastRefillTime + periodInNanoseconds;
+    }
+}
@@ -0,0 +1,201 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Approximate rate limiter whose memory does not grow with the number of Clients, for key spaces that are too large
+ * or too easily spoofed to hold a bucket per Client, such as IP addresses
+ *
+ * Clients are counted in a Count-Min sketch, depth rows of width counters, and a Client's id hashes to one counter in
+ * each row. Each counter holds a theoretical arrival time as in {@link GcraRateLimiter}, so the debt it records decays
+ * linearly as time passes and no counter needs resetting. A Client's debt is estimated as the lowest of its counters
+ * and a request is allowed if that debt, plus the request's cost, is within the capacity. An allowed request is
+ * charged with a conservative update, each of the Client's counters is raised to the new estimate rather than
+ * increased, which keeps the over-estimate of other Clients sharing those counters as small as possible.
+ *
+ * Counters shared with other Clients can only make a Client's debt look larger, so the sketch never allows a request
+ * that an exact GCRA limiter would deny, it can only deny requests it would have allowed. If the Clients together owe
+ * D tokens at a time, a Client's debt is over-estimated by more than e * D / width tokens with probability at most
+ * e^-depth. For example with a width of 2^16 and a depth of 4, while the Clients owe fewer than 24,000 tokens between
+ * them fewer than 2% of Clients have their debt over-estimated by a whole token.
+ *
+ * A request raises the Client's other counters before it charges the counter its estimate was taken from with a
+ * compare-and-set. Of two requests from the same Client on different threads, either one sees the other's charge in
+ * its estimate or one of their compare-and-sets fails and it estimates again, so threads racing on a stale lowest
+ * counter do not let through a request the sketch would deny one at a time. A request whose compare-and-set fails
+ * leaves the other counters raised by its cost, which can only deny later requests.
+ */
+
+public class SketchRateLimiter implements KeyedRateLimiter {
+
+    static final int MAXIMUM_DEPTH = 16;
+
+    // Largest power of two width whose counters for every row fit in a single AtomicLongArray
+    static final int MAXIMUM_WIDTH = 1 << 26;
+
+    private final Ticker ticker;
+    private final long origin;
+    private final long capacity;
+    private final long emissionInterval;
+    private final long burstTolerance;
+    private final int depth;
+    private final int widthMask;
+    private final int widthShift;
+    private final AtomicLongArray counters;
+
+    SketchRateLimiter(Ticker ticker, long capacity, long periodInNanoseconds, int width, int depth) {
+        checkNotNull(ticker, "Ticker must be set");
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(periodInNanoseconds > 0, "Period must be greater than 0");
+        checkArgument(width > 0 && width <= MAXIMUM_WIDTH, "Width must be between 1 and %s", MAXIMUM_WIDTH);
+        checkArgument(depth > 0 && depth <= MAXIMUM_DEPTH, "Depth must be between 1 and %s", MAXIMUM_DEPTH);
+        int roundedWidth = StripedRateLimiter.ceilingPowerOfTwo(width);
+        this.ticker = ticker;
+        this.capacity = capacity;
+        this.emissionInterval = Arithmetic.multiplyDivideRoundUp(1, periodInNanoseconds, capacity);
+        this.burstTolerance = emissionInterval * capacity;
+        this.depth = depth;
+        this.widthMask = roundedWidth - 1;
+        this.widthShift = Integer.numberOfTrailingZeros(roundedWidth);
+        this.counters = new AtomicLongArray(depth * roundedWidth);
+        // Times are kept relative to the creation of the rate limiter, so an unused counter's arrival time of 0 is past
+        this.origin = ticker.read();
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from its estimated bucket
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed and Client may access the resource, {@code false} otherwise and
+        the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        all at once or not at all
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientId), cost);
+    }
+
+    /*
+        Checks if the Client with the given key can make a request, see KeyedRateLimiter
+
+        @param clientKey 64 bit key of the Client, for example an account number or a key from ClientIds
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(long clientKey, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientKey), cost);
+    }
+
+    private boolean allowHashedRequest(long hash, long cost) {
+        if (cost > capacity) {
+            return false;
+        }
+        long increment = cost * emissionInterval;
+        for (;;) {
+            long now = ticker.read() - origin;
+            int lowestIndex = -1;
+            long lowest = Long.MAX_VALUE;
+            for (int row = 0; row < depth; row++) {
+                int index = indexFor(hash, row);
+                long arrivalTime = counters.get(index);
+                if (arrivalTime < lowest) {
+                    lowest = arrivalTime;
+                    lowestIndex = index;
+                }
+            }
+            long nextArrivalTime = Math.max(lowest, now) + increment;
+            if (nextArrivalTime - now > burstTolerance) {
+                return false;
+            }
+            for (int row = 0; row < depth; row++) {
+                int index = indexFor(hash, row);
+                if (index != lowestIndex) {
+                    raise(index, nextArrivalTime);
+                }
+            }
+            if (counters.compareAndSet(lowestIndex, lowest, nextArrivalTime)) {
+                return true;
+            }
+        }
+    }
+
+    /*
+        Every Client shares the same capacity and rate and has no bucket of its own, so a Client cannot be given its
+        own TokenBucket
+
+        @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        throw new UnsupportedOperationException("SketchRateLimiter does not support per Client TokenBuckets");
+    }
+
+    /*
+        Returns the estimated number of tokens the Client could consume now, never more than it really has
+
+        @param clientId unique identifier for the Client
+        @return estimated tokens available to the Client
+     */
+    public long getAvailableTokens(String clientId) {
+        long hash = ClientIds.hash(clientId);
+        long now = ticker.read() - origin;
+        long lowest = Long.MAX_VALUE;
+        for (int row = 0; row < depth; row++) {
+            lowest = Math.min(lowest, counters.get(indexFor(hash, row)));
+        }
+        long debt = Math.max(0, lowest - now);
+        return (burstTolerance - debt) / emissionInterval;
+    }
+
+    public int getWidth() {
+        return widthMask + 1;
+    }
+
+    public int getDepth() {
+        return depth;
+    }
+
+    /*
+        Picks the Client's counter in the row by double hashing, the low and high halves of the hash give the start
+        and the stride, the stride is odd so rows never land on the same column pattern for every Client
+     */
+    private int indexFor(long hash, int row) {
+        int start = (int) hash;
+        int stride = (int) (hash >>> 32) | 1;
+        return (row << widthShift) | ((start + row * stride) & widthMask);
+    }
+
+    private void raise(int index, long arrivalTime) {
+        long current;
+        while ((current = counters.get(index)) < arrivalTime) {
+            if (counters.compareAndSet(index, current, arrivalTime)) {
+                return;
+            }
+        }
+    }
+}
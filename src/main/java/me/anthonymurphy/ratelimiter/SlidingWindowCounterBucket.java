@@ -0,0 +1,196 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sliding window counter, a constant memory approximation of a sliding window
+ *
+ * Requests are counted in fixed windows one period long. The number of requests made in the sliding window that ends
+ * now is estimated as the count for the current window plus the count for the previous window weighted by how much of
+ * the previous window the sliding window still overlaps. Unlike {@link TokenBucketImpl}, which resets at the start of
+ * each period, a client can not make twice the capacity in requests either side of a window boundary.
+ *
+ * The weighted count is rounded up, so the estimate never lets more requests through than the capacity.
+ */
+
+public class SlidingWindowCounterBucket implements TokenBucket {
+
+    private final long capacity;
+    private final long windowInNanoseconds;
+    private final Ticker ticker;
+    private final long epochOffset;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long windowStart;
+    private long currentCount;
+    private long previousCount;
+
+    SlidingWindowCounterBucket(Ticker ticker, long capacity, long period, TimeUnit unit) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(period > 0, "Period must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        checkNotNull(ticker, "Ticker must be set");
+        this.capacity = capacity;
+        this.windowInNanoseconds = unit.toNanos(period);
+        this.ticker = ticker;
+        this.epochOffset = Tickers.epochOffset(ticker);
+        this.windowStart = ticker.read();
+    }
+
+    /*
+        Returns the capacity of the bucket, this is the maximum number of requests allowed in any window
+
+        @return The capacity of the TokenBucket
+     */
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /*
+        Returns the number of requests that would be allowed now
+
+        @return The current number of Tokens available in the bucket
+     */
+    @Override
+    public long getAvailableTokens() {
+        lock.lock();
+        try {
+            return available(advance());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns true if successfully consumed a token, false if no tokens available
+
+        @return {@code true} if token was consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean consume() {
+        return tryConsume(1);
+    }
+
+    /*
+        Returns true if the requested number of tokens fit in the sliding window, false otherwise, in which case no
+        tokens are consumed
+
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            if (available(advance()) < permits) {
+                return false;
+            }
+            currentCount += permits;
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Consumes as many of the requested number of tokens as fit in the sliding window
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            long consumed = Math.min(available(advance()), permits);
+            currentCount += consumed;
+            return consumed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Takes returned tokens off the count for the current window, never below zero
+
+        @param permits number of tokens to return
+     */
+    @Override
+    public void refund(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            advance();
+            currentCount -= Math.min(currentCount, permits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Moves the counters on to the window that contains the current time
+     */
+    @Override
+    public void refill() {
+        lock.lock();
+        try {
+            advance();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns the time the estimated count next falls by at least one, either as the previous window slides out of
+        the sliding window or when the current window ends
+
+        @return timestamp for next refill
+     */
+    @Override
+    public Instant getNextRefillTime() {
+        lock.lock();
+        try {
+            long now = advance();
+            long next = windowStart + windowInNanoseconds;
+            if (previousCount > 0) {
+                next = Math.min(next, now + Arithmetic.multiplyDivideRoundUp(1, windowInNanoseconds, previousCount));
+            }
+            return Tickers.toInstant(next + epochOffset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Starts a new window if the current one has ended, the previous count is dropped if more than a whole window
+        has passed since the current one ended
+
+        @return the current time
+     */
+    private long advance() {
+        long now = ticker.read();
+        long elapsed = now - windowStart;
+        if (elapsed >= windowInNanoseconds) {
+            long windows = elapsed / windowInNanoseconds;
+            previousCount = windows == 1 ? currentCount : 0;
+            currentCount = 0;
+            windowStart += windows * windowInNanoseconds;
+        }
+        return now;
+    }
+
+    private long available(long now) {
+        long remaining = windowInNanoseconds - Math.max(0, now - windowStart);
+        long weightedPreviousCount = Arithmetic.multiplyDivideRoundUp(previousCount, remaining, windowInNanoseconds);
+        return Math.max(0, capacity - currentCount - weightedPreviousCount);
+    }
+}
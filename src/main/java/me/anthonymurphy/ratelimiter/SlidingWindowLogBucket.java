@@ -0,0 +1,211 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Sliding window log, an exact sliding window
+ *
+ * The time of every token consumed within the last period is kept in a ring buffer of primitive longs, a request is
+ * allowed if the tokens it needs and the tokens consumed in the period before it do not exceed the capacity. The
+ * buffer starts small and grows as it fills, up to one long per token of capacity, so the log suits small capacities,
+ * for larger ones {@link SlidingWindowCounterBucket} approximates the same window in constant memory.
+ */
+
+public class SlidingWindowLogBucket implements TokenBucket {
+
+    static final long MAX_CAPACITY = 1 << 24;
+
+    private static final int INITIAL_LOG_SIZE = 8;
+
+    private final long capacity;
+    private final long windowInNanoseconds;
+    private final Ticker ticker;
+    private final long epochOffset;
+    private final ReentrantLock lock = new ReentrantLock();
+    private long[] log;
+    private int head;
+    private int size;
+
+    SlidingWindowLogBucket(Ticker ticker, long capacity, long period, TimeUnit unit) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkArgument(capacity <= MAX_CAPACITY, "Token Bucket Capacity must not be greater than %s", MAX_CAPACITY);
+        checkArgument(period > 0, "Period must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        checkNotNull(ticker, "Ticker must be set");
+        this.capacity = capacity;
+        this.windowInNanoseconds = unit.toNanos(period);
+        this.ticker = ticker;
+        this.epochOffset = Tickers.epochOffset(ticker);
+        this.log = new long[(int) Math.min(capacity, INITIAL_LOG_SIZE)];
+    }
+
+    /*
+        Returns the capacity of the bucket, this is the maximum number of requests allowed in any window
+
+        @return The capacity of the TokenBucket
+     */
+    @Override
+    public long getCapacity() {
+        return capacity;
+    }
+
+    /*
+        Returns the number of requests that would be allowed now
+
+        @return The current number of Tokens available in the bucket
+     */
+    @Override
+    public long getAvailableTokens() {
+        lock.lock();
+        try {
+            expire(ticker.read());
+            return capacity - size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns true if successfully consumed a token, false if no tokens available
+
+        @return {@code true} if token was consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean consume() {
+        return tryConsume(1);
+    }
+
+    /*
+        Returns true if the requested number of tokens fit in the sliding window, false otherwise, in which case no
+        tokens are consumed
+
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
+     */
+    @Override
+    public boolean tryConsume(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            long now = ticker.read();
+            expire(now);
+            if (capacity - size < permits) {
+                return false;
+            }
+            append(now, (int) permits);
+            return true;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Consumes as many of the requested number of tokens as fit in the sliding window
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            long now = ticker.read();
+            expire(now);
+            int consumed = (int) Math.min(capacity - size, permits);
+            append(now, consumed);
+            return consumed;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Removes returned tokens from the log, newest first
+
+        @param permits number of tokens to return
+     */
+    @Override
+    public void refund(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+        lock.lock();
+        try {
+            expire(ticker.read());
+            size -= (int) Math.min(size, permits);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Drops the tokens consumed more than a period ago from the log
+     */
+    @Override
+    public void refill() {
+        lock.lock();
+        try {
+            expire(ticker.read());
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /*
+        Returns the time the oldest token in the log leaves the sliding window, or now if the log is empty
+
+        @return timestamp for next refill
+     */
+    @Override
+    public Instant getNextRefillTime() {
+        lock.lock();
+        try {
+            long now = ticker.read();
+            expire(now);
+            return Tickers.toInstant((size == 0 ? now : log[head] + windowInNanoseconds) + epochOffset);
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private void expire(long now) {
+        while (size > 0 && now - log[head] >= windowInNanoseconds) {
+            head = next(head);
+            size--;
+        }
+    }
+
+    private void append(long now, int tokens) {
+        if (size + tokens > log.length) {
+            grow(size + tokens);
+        }
+        int tail = (head + size) % log.length;
+        for (int i = 0; i < tokens; i++) {
+            log[tail] = now;
+            tail = next(tail);
+        }
+        size += tokens;
+    }
+
+    /*
+        Copies the log, oldest first, into a buffer at least double the size, but no larger than the capacity
+     */
+    private void grow(int minimumSize) {
+        long[] grown = new long[(int) Math.min(capacity, Math.max(minimumSize, 2L * log.length))];
+        int firstPart = Math.min(size, log.length - head);
+        System.arraycopy(log, head, grown, 0, firstPart);
+        System.arraycopy(log, 0, grown, firstPart, size - firstPart);
+        log = grown;
+        head = 0;
+    }
+
+    private int next(int index) {
+        return index + 1 == log.length ? 0 : index + 1;
+    }
+}
@@ -0,0 +1,157 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Rate limiter that keeps every client's bucket as three longs in a striped, open addressing hash table
+ *
+ * Clients are identified by a 64 bit hash of their id rather than the id itself, and all clients share one capacity and
+ * RefillStrategy, so a client costs 24 bytes plus free slots rather than a cache entry, a String and a TokenBucket.
+ * Each stripe is locked independently, requests for clients in different stripes never contend.
+ *
+ * @see BucketSegment
+ */
+
+public class StripedRateLimiter implements KeyedRateLimiter {
+
+    // Largest power of two whose slots fit in a single long array
+    private static final int MAXIMUM_SLOTS_PER_SEGMENT = 1 << 29;
+
+    private final Ticker ticker;
+    private final BucketSegment[] segments;
+    private final int segmentShift;
+
+    StripedRateLimiter(Ticker ticker, BucketSegment[] segments) {
+        checkNotNull(ticker, "Ticker must be set");
+        checkArgument(segments.length > 0 && Integer.bitCount(segments.length) == 1,
+                "Number of segments must be a power of two");
+        this.ticker = ticker;
+        this.segments = segments;
+        this.segmentShift = 64 - Integer.numberOfTrailingZeros(segments.length);
+    }
+
+    StripedRateLimiter(Ticker ticker, long capacity, RefillStrategy refillStrategy, int segmentCount,
+                       long maximumClients) {
+        this(ticker, heapSegments(capacity, refillStrategy, segmentCount, maximumClients));
+    }
+
+    /*
+        Checks if the calling client can access the resource by consuming a token from its bucket, a bucket is created
+        if this is the first request from the Client
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+
+        @return {@code true} if a token was consumed and Client may access the resource, {@code false} otherwise and
+        the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId) {
+        return allowRequest(clientId, 1);
+    }
+
+    /*
+        Checks if the calling client can make a request that costs more than a single token. The tokens are consumed
+        all at once or not at all
+
+        @param clientId unique identifier for the Client, for example Session ID, IP Address
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(String clientId, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientId), cost);
+    }
+
+    /*
+        Checks if the Client with the given key can make a request, see KeyedRateLimiter
+
+        @param clientKey 64 bit key of the Client, for example an account number or a key from ClientIds
+        @param cost number of tokens the request consumes
+
+        @return {@code true} if the tokens were consumed and Client may access the resource, {@code false} otherwise
+        and the Client may not access the resource
+     */
+    @Override
+    public boolean allowRequest(long clientKey, long cost) {
+        checkArgument(cost > 0, "Cost must be greater than 0");
+        return allowHashedRequest(ClientIds.hash(clientKey), cost);
+    }
+
+    private boolean allowHashedRequest(long key, long cost) {
+        BucketSegment segment = segmentFor(key);
+        long now = ticker.read();
+        segment.lock.lock();
+        try {
+            return segment.tryConsume(key, cost, now);
+        } finally {
+            segment.lock.unlock();
+        }
+    }
+
+    /*
+        Every Client shares the same capacity and refill strategy, so a Client cannot be given its own TokenBucket
+
+        @throws UnsupportedOperationException always
+     */
+    @Override
+    public void addClient(String clientId, TokenBucket tokenBucket) {
+        throw new UnsupportedOperationException("StripedRateLimiter does not support per Client TokenBuckets");
+    }
+
+    /*
+        Returns the number of Clients held
+
+        @return number of Clients
+     */
+    public long getClientCount() {
+        long count = 0;
+        for (BucketSegment segment : segments) {
+            segment.lock.lock();
+            try {
+                count += segment.count();
+            } finally {
+                segment.lock.unlock();
+            }
+        }
+        return count;
+    }
+
+    BucketSegment segmentFor(long key) {
+        // The high bits pick the segment, the low bits pick the slot within it
+        return segments[(int) (key >>> segmentShift) & (segments.length - 1)];
+    }
+
+    private static BucketSegment[] heapSegments(long capacity, RefillStrategy refillStrategy, int segmentCount,
+                                                long maximumClients) {
+        checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
+        checkNotNull(refillStrategy, "RefillStrategy must be set");
+        int maximumSlots = slotsPerSegment(maximumClients, segmentCount, MAXIMUM_SLOTS_PER_SEGMENT);
+        BucketSegment[] segments = new BucketSegment[segmentCount];
+        for (int i = 0; i < segmentCount; i++) {
+            segments[i] = new HeapBucketSegment(capacity, refillStrategy, BucketSegment.MINIMUM_SLOT_COUNT * 4,
+                    maximumSlots);
+        }
+        return segments;
+    }
+
+    /*
+        Calculates the number of slots each segment needs to hold its share of the maximum number of Clients at the
+        maximum load factor, rounded up to a power of two
+     */
+    static int slotsPerSegment(long maximumClients, int segmentCount, int maximumSlotsPerSegment) {
+        checkArgument(maximumClients > 0, "Maximum Clients must be greater than 0");
+        long slots = (maximumClients / segmentCount + 1) * 4 / 3;
+        return Math.max(BucketSegment.MINIMUM_SLOT_COUNT,
+                ceilingPowerOfTwo((int) Math.min(maximumSlotsPerSegment, slots)));
+    }
+
+    static int ceilingPowerOfTwo(int value) {
+        return value <= 1 ? 1 : Integer.highestOneBit(value - 1) << 1;
+    }
+}
@@ -0,0 +1,175 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.cache.CacheBuilder;
+import com.google.common.cache.CacheLoader;
+import com.google.common.cache.LoadingCache;
+import com.google.common.util.concurrent.ThreadFactoryBuilder;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.LockSupport;
+
+import static com.google.common.base.Preconditions.checkArgument;
+import static com.google.common.base.Preconditions.checkNotNull;
+
+/**
+ * Time sources for Token Buckets
+ *
+ * Buckets read time as a primitive number of nanoseconds from a {@link Ticker}, so the consume path never allocates.
+ * {@link Ticker#systemTicker()} is the default, a {@link Clock} can still be used through {@link #fromClock(Clock)},
+ * for example to drive a bucket from a mocked Clock in tests, but each read then allocates an {@link Instant}.
+ *
+ * Where reading the clock is a measurable share of the cost of a decision, {@link #coarse(long, TimeUnit)} trades
+ * precision for a clock read that is a single volatile load.
+ */
+
+public final class Tickers {
+
+    private static final long NANOS_PER_SECOND = 1_000_000_000L;
+
+    private static final ConcurrentMap<Long, CoarseTicker> COARSE_TICKERS = new ConcurrentHashMap<>();
+
+    // Sampled once per Ticker, so every bucket and waiter reading the same Ticker converts its readings alike
+    private static final LoadingCache<Ticker, Long> EPOCH_OFFSETS = CacheBuilder.newBuilder()
+            .weakKeys()
+            .build(CacheLoader.from(ticker -> System.currentTimeMillis() * 1_000_000L - ticker.read()));
+
+    private Tickers() { }
+
+    /*
+        Adapts a Clock to a Ticker, the Ticker reads the nanoseconds since the epoch
+
+        @param clock the Clock to read
+        @return Ticker reading the Clock
+     */
+    public static Ticker fromClock(Clock clock) {
+        return new ClockTicker(clock);
+    }
+
+    /*
+        Returns a Ticker that reads the system clock as nanoseconds since the epoch, with millisecond resolution and
+        without allocating. Unlike {@link Ticker#systemTicker()} its readings are comparable across restarts, which
+        state that outlives the process needs
+
+        @return Ticker reading the system clock
+     */
+    public static Ticker systemEpochTicker() {
+        return SystemEpochTicker.INSTANCE;
+    }
+
+    /*
+        Returns a Ticker that reads a time kept by a background thread, which reads the system Ticker once every
+        resolution, so a read is a single volatile load rather than a call to the system clock. Readings lag the
+        system Ticker by up to the resolution, plus however late the thread is scheduled, so buckets refill up to that
+        much later than they would otherwise, which matters little when the resolution is small next to the period.
+        Tickers are shared, every call for the same resolution returns the same Ticker and its thread, a daemon thread
+        that runs for the life of the process
+
+        @param resolution time between updates
+        @param unit unit of the resolution
+        @return Ticker updated every resolution
+     */
+    public static Ticker coarse(long resolution, TimeUnit unit) {
+        checkArgument(resolution > 0, "Resolution must be greater than 0");
+        checkNotNull(unit, "TimeUnit must be set");
+        return COARSE_TICKERS.computeIfAbsent(unit.toNanos(resolution), CoarseTicker::start);
+    }
+
+    /*
+        Returns the offset that converts a reading of the ticker to nanoseconds since the epoch, for tickers that do
+        not read the epoch time this is sampled against the system clock the first time it is asked for, and the same
+        offset is returned for the ticker from then on. A time converted to an Instant by one bucket can then be
+        compared with a reading of the ticker converted by another, without the error of sampling the clock twice
+
+        @param ticker the Ticker the offset is calculated for
+        @return nanoseconds to add to a reading of the ticker to get the nanoseconds since the epoch
+     */
+    static long epochOffset(Ticker ticker) {
+        if (ticker instanceof EpochTicker)
+            return 0;
+        return EPOCH_OFFSETS.getUnchecked(ticker);
+    }
+
+    /*
+        Converts nanoseconds since the epoch to an Instant
+     */
+    static Instant toInstant(long epochNanos) {
+        return Instant.ofEpochSecond(Math.floorDiv(epochNanos, NANOS_PER_SECOND),
+                Math.floorMod(epochNanos, NANOS_PER_SECOND));
+    }
+
+    /*
+        Converts an Instant to nanoseconds since the epoch
+     */
+    static long toEpochNanos(Instant instant) {
+        return instant.getEpochSecond() * NANOS_PER_SECOND + instant.getNano();
+    }
+
+    /*
+        Tickers whose readings are already nanoseconds since the epoch
+     */
+    private abstract static class EpochTicker extends Ticker {
+    }
+
+    private static final class SystemEpochTicker extends EpochTicker {
+
+        static final SystemEpochTicker INSTANCE = new SystemEpochTicker();
+
+        @Override
+        public long read() {
+            return System.currentTimeMillis() * 1_000_000L;
+        }
+    }
+
+    private static final class CoarseTicker extends Ticker {
+
+        private final long resolutionInNanoseconds;
+        private volatile long nanos = Ticker.systemTicker().read();
+
+        private CoarseTicker(long resolutionInNanoseconds) {
+            this.resolutionInNanoseconds = resolutionInNanoseconds;
+        }
+
+        static CoarseTicker start(long resolutionInNanoseconds) {
+            CoarseTicker ticker = new CoarseTicker(resolutionInNanoseconds);
+            new ThreadFactoryBuilder()
+                    .setNameFormat("coarse-ticker-" + resolutionInNanoseconds + "ns")
+                    .setDaemon(true)
+                    .build()
+                    .newThread(ticker::update)
+                    .start();
+            return ticker;
+        }
+
+        @Override
+        public long read() {
+            return nanos;
+        }
+
+        private void update() {
+            Ticker systemTicker = Ticker.systemTicker();
+            for (;;) {
+                LockSupport.parkNanos(resolutionInNanoseconds);
+                nanos = systemTicker.read();
+            }
+        }
+    }
+
+    private static final class ClockTicker extends EpochTicker {
+
+        private final Clock clock;
+
+        ClockTicker(Clock clock) {
+            this.clock = checkNotNull(clock, "Clock must be set");
+        }
+
+        @Override
+        public long read() {
+            return toEpochNanos(clock.instant());
+        }
+    }
+}
@@ -19,6 +19,9 @@ public interface TokenBucket {
     long getCapacity();
     long getAvailableTokens();
     boolean consume();
+    boolean tryConsume(long permits);
+    long consumeUpTo(long permits);
+    void refund(long permits);
     void refill();
     Instant getNextRefillTime();
 
@@ -1,10 +1,14 @@
 package me.anthonymurphy.ratelimiter;
 
+import com.google.common.base.Ticker;
+
 import java.time.Clock;
+import java.util.concurrent.ScheduledExecutorService;
 import java.util.concurrent.TimeUnit;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
+import static com.google.common.base.Preconditions.checkState;
 
 
 public final class TokenBucketBuilder {
@@ -15,11 +19,28 @@ public final class TokenBucketBuilder {
         return new Builder();
     }
 
+    /**
+     * Algorithm a built bucket limits requests with
+     */
+    public enum Algorithm {
+        /** Tokens are added to the bucket by the refill strategy, see {@link TokenBucketImpl} */
+        TOKEN_BUCKET,
+        /** Weighted counts for the current and previous window, see {@link SlidingWindowCounterBucket} */
+        SLIDING_WINDOW_COUNTER,
+        /** Log of the time of every token consumed in the window, see {@link SlidingWindowLogBucket} */
+        SLIDING_WINDOW_LOG
+    }
+
     public static class Builder {
         private long capacity = 0;
         private long period = 0;
         private TimeUnit timeUnit = null;
         private Clock clock = null;
+        private Ticker ticker = null;
+        private boolean lockFree = false;
+        private boolean greedyRefill = false;
+        private Algorithm algorithm = Algorithm.TOKEN_BUCKET;
+        private ScheduledExecutorService scheduler = null;
 
         public Builder withCapacity(long capacity)  {
             checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
@@ -43,11 +64,118 @@ public final class TokenBucketBuilder {
             return this;
         }
 
+        public Builder withTicker(Ticker ticker) {
+            this.ticker = ticker;
+            return this;
+        }
+
+        /*
+            Reads time from a Ticker shared by every bucket and updated by a background thread once every resolution,
+            see Tickers.coarse, rather than the system clock on every request
+         */
+        public Builder withCoarseTicker(long resolution, TimeUnit unit) {
+            this.ticker = Tickers.coarse(resolution, unit);
+            return this;
+        }
+
+        public Builder withLockFree(boolean lockFree) {
+            this.lockFree = lockFree;
+            return this;
+        }
+
+        public Builder withGreedyRefill(boolean greedyRefill) {
+            this.greedyRefill = greedyRefill;
+            return this;
+        }
+
+        public Builder withAlgorithm(Algorithm algorithm) {
+            this.algorithm = checkNotNull(algorithm, "Algorithm must be set");
+            return this;
+        }
+
+        /*
+            Sets the scheduler a shaping bucket serves waiters on, by default a single thread shared by every shaping
+            bucket
+         */
+        public Builder withScheduler(ScheduledExecutorService scheduler) {
+            this.scheduler = scheduler;
+            return this;
+        }
+
+        long getPeriodInNanoseconds() {
+            checkNotNull(this.timeUnit, "TimeUnit must be specified");
+            return this.timeUnit.toNanos(this.period);
+        }
+
+        long getCapacity() {
+            return this.capacity;
+        }
+
+        Algorithm getAlgorithm() {
+            return this.algorithm;
+        }
+
+        boolean isLockFree() {
+            return this.lockFree;
+        }
+
+        boolean isGreedyRefill() {
+            return this.greedyRefill;
+        }
+
+        Ticker buildTicker() {
+            return buildTicker(Ticker.systemTicker());
+        }
+
+        Ticker buildTicker(Ticker defaultTicker) {
+            if (ticker != null)
+                return ticker;
+            return clock == null ? defaultTicker : Tickers.fromClock(clock);
+        }
+
+        RefillStrategy buildRefillStrategy() {
+            checkNotNull(this.timeUnit, "TimeUnit must be specified");
+            checkState(algorithm == Algorithm.TOKEN_BUCKET, "The %s algorithm has no refill strategy", algorithm);
+            return greedyRefill
+                    ? new GreedyRefillStrategy(this.capacity, this.period, this.timeUnit)
+                    : new SimpleRefillStrategy(this.capacity, this.period, this.timeUnit);
+        }
+
         public TokenBucket build() {
             checkNotNull(this.timeUnit, "TimeUnit must be specified");
-            if (clock == null)
-                clock = Clock.systemUTC();
-            return new TokenBucketImpl(clock, this.capacity, this.period, this.timeUnit);
+            Ticker ticker = buildTicker();
+            if (algorithm != Algorithm.TOKEN_BUCKET) {
+                checkState(!lockFree && !greedyRefill,
+                        "Lock-free and greedy refill only apply to the token bucket algorithm");
+                return algorithm == Algorithm.SLIDING_WINDOW_COUNTER
+                        ? new SlidingWindowCounterBucket(ticker, this.capacity, this.period, this.timeUnit)
+                        : new SlidingWindowLogBucket(ticker, this.capacity, this.period, this.timeUnit);
+            }
+            if (lockFree) {
+                checkState(!greedyRefill, "Greedy refill is not supported by the lock-free Token Bucket");
+                return new LockFreeTokenBucket(ticker, this.capacity, this.period, this.timeUnit);
+            }
+            return new TokenBucketImpl(ticker, this.capacity, buildRefillStrategy());
+        }
+
+        /*
+            Builds the interned policy for the capacity, period and refill set on this builder, for a PolicyResolver
+         */
+        public RateLimitingPolicy buildPolicy() {
+            checkState(algorithm == Algorithm.TOKEN_BUCKET && !lockFree,
+                    "Policies only support the token bucket algorithm with locking buckets");
+            return RateLimitingPolicy.of(this.capacity, getPeriodInNanoseconds(), greedyRefill);
+        }
+
+        /*
+            Builds a bucket that callers can wait on for tokens, rather than being refused them
+         */
+        public ShapingTokenBucket buildShaping() {
+            TokenBucket bucket = build();
+            Ticker ticker = buildTicker();
+            return scheduler == null
+                    ? new ShapingTokenBucket(bucket, ticker)
+                    : new ShapingTokenBucket(bucket, ticker, scheduler);
         }
 
 
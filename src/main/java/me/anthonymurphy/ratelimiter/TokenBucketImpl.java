@@ -1,8 +1,11 @@
 package me.anthonymurphy.ratelimiter;
 
+import com.google.common.base.Ticker;
+
 import java.time.Clock;
 import java.time.Instant;
 import java.util.concurrent.TimeUnit;
+import java.util.concurrent.locks.ReentrantLock;
 
 import static com.google.common.base.Preconditions.checkArgument;
 import static com.google.common.base.Preconditions.checkNotNull;
@@ -11,28 +14,46 @@ import static com.google.common.base.Preconditions.checkNotNull;
 public class TokenBucketImpl implements TokenBucket {
 
     private final long capacity;
-    private final long period;
-    private final TimeUnit timeUnit;
+    private final RefillStrategy refillStrategy;
+    // The policy the bucket was created for, if any
+    private final RateLimitingPolicy policy;
     private long availableTokens;
-    private Instant startOfRefillPeriod;
-    private Instant nextRefillTime;
-    private final Clock clock;
+    private long lastRefillTime;
+    private final Ticker ticker;
+    private final long epochOffset;
+    // A lock rather than a monitor, so virtual threads waiting for the bucket do not pin their carrier thread
+    private final ReentrantLock lock = new ReentrantLock();
+    // Written under the lock, volatile so it can be checked without taking the lock
+    private volatile long contendedCount;
 
-    // TODO Convert parameters to RateLimitingPolicy Object
+    TokenBucketImpl(Clock clock, long capacity, long period, TimeUnit unit){
+        this(Tickers.fromClock(clock), capacity, period, unit);
+    }
 
+    TokenBucketImpl(Ticker ticker, long capacity, long period, TimeUnit unit){
+        this(ticker, capacity, new SimpleRefillStrategy(capacity, period, unit));
+    }
 
-    TokenBucketImpl(Clock clock, long capacity, long period, TimeUnit unit){
+    TokenBucketImpl(Ticker ticker, RateLimitingPolicy policy){
+        this(ticker, policy.getCapacity(), policy.getRefillStrategy(), policy);
+    }
+
+    TokenBucketImpl(Ticker ticker, long capacity, RefillStrategy refillStrategy){
+        this(ticker, capacity, refillStrategy, null);
+    }
+
+    private TokenBucketImpl(Ticker ticker, long capacity, RefillStrategy refillStrategy, RateLimitingPolicy policy){
         checkArgument(capacity > 0, "Token Bucket Capacity must be greater than 0");
-        checkArgument(period > 0, "Period must be greater than 0");
-        checkNotNull(unit, "TimeUnit must be set");
+        checkNotNull(refillStrategy, "RefillStrategy must be set");
+        checkNotNull(ticker, "Ticker must be set");
         this.capacity = capacity;
-        this.clock = clock;
-        this.period = period;
-        this.timeUnit = unit;
+        this.ticker = ticker;
+        this.refillStrategy = refillStrategy;
+        this.policy = policy;
+        this.epochOffset = Tickers.epochOffset(ticker);
 
         this.availableTokens = capacity;
-        this.startOfRefillPeriod = Instant.now(this.clock);
-        this.nextRefillTime = startOfRefillPeriod.plusMillis(getPeriodInMilliseconds());
+        this.lastRefillTime = ticker.read();
     }
     /*
         Returns the capacity of the bucket, this is the maximum number of tokens that the bucket can hold at a time
@@ -63,83 +84,140 @@ public class TokenBucketImpl implements TokenBucket {
 
     @Override
     public boolean consume() {
-
-        refill();
-
-        if (availableTokens >= 1) {
-            availableTokens -= 1;
-            return true;
-        }
-
-        return false;
+        return tryConsume(1);
     }
 
-    // TODO Extract Refill into SimpleRefillStrategy
     /*
-        Simple refill strategy, reset the bucket to capacity
+        Returns true if successfully consumed the requested number of tokens, false if fewer tokens are available, in
+        which case no tokens are consumed
 
+        @param permits number of tokens to consume
+        @return {@code true} if the tokens were consumed, {@code false} otherwise
      */
     @Override
-    public synchronized void refill() {
-        if (canRefillBucket()) {
-            availableTokens = capacity;
-            Instant currentRefillTime = Instant.now(this.clock);
-
-            // increment startOfRefillPeriod to be consistent with the current time period rather than current time
-            // for example if the period is an hour and refill is called 2 and 1/2 hours after the lest bucket refill,
-            // then startOfRefillPeriod is set to startOfRefillPeriod + 2 hours
+    public boolean tryConsume(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
 
-            long numberOfPeriodsSinceLastRefill = Math.max(0, getPeriodsSinceLastRefill(currentRefillTime));
-            this.startOfRefillPeriod = this.startOfRefillPeriod.plusMillis(numberOfPeriodsSinceLastRefill * getPeriodInMilliseconds());
+        lockCounted();
+        try {
+            refill();
 
-            this.nextRefillTime = startOfRefillPeriod.plusMillis(getPeriodInMilliseconds());
+            if (availableTokens >= permits) {
+                availableTokens -= permits;
+                return true;
+            }
 
+            return false;
+        } finally {
+            lock.unlock();
         }
     }
 
+    /*
+        Consumes as many of the requested number of tokens as are available
+
+        @param permits maximum number of tokens to consume
+        @return number of tokens consumed, between 0 and permits
+     */
+    @Override
+    public long consumeUpTo(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+
+        lockCounted();
+        try {
+            refill();
+
+            long consumed = Math.min(availableTokens, permits);
+            availableTokens -= consumed;
+            return consumed;
+        } finally {
+            lock.unlock();
+        }
+    }
 
     /*
-         Calculates number of periods since last bucket refill
+        Returns tokens to the bucket, for example when the request they were consumed for was abandoned. The bucket
+        never holds more than its capacity
 
-         @param RefillTime current refill time
-         @return Number of periods since last refill
+        @param permits number of tokens to return
      */
+    @Override
+    public void refund(long permits) {
+        checkArgument(permits > 0, "Permits must be greater than 0");
+
+        lock.lock();
+        try {
+            availableTokens = permits >= capacity - availableTokens ? capacity : availableTokens + permits;
+        } finally {
+            lock.unlock();
+        }
+    }
 
-    private long getPeriodsSinceLastRefill(Instant refillTime) {
-        return getMillisecondsSinceLastRefill(refillTime) / getPeriodInMilliseconds();
+    /*
+        Adds the tokens the RefillStrategy has earned since the last refill, up to the capacity of the bucket
+     */
+    @Override
+    public void refill() {
+        lock.lock();
+        try {
+            long currentRefillTime = ticker.read();
+            long tokensToAdd = refillStrategy.tokensToAdd(lastRefillTime, currentRefillTime);
+            if (tokensToAdd > 0) {
+                availableTokens = tokensToAdd >= capacity - availableTokens ? capacity : availableTokens + tokensToAdd;
+                lastRefillTime = refillStrategy.getRefillTime(lastRefillTime, currentRefillTime);
+            }
+        } finally {
+            lock.unlock();
+        }
     }
 
+    /*
+        Returns the timestamp for the next refill of bucket
 
-    private long getMillisecondsSinceLastRefill(Instant refillTime) {
-        return (refillTime.getEpochSecond() - startOfRefillPeriod.getEpochSecond()) * 1000;
+        @return timestamp for next refill
+     */
+    @Override
+    public Instant getNextRefillTime() {
+        lock.lock();
+        try {
+            return Tickers.toInstant(refillStrategy.getNextRefillTime(lastRefillTime) + epochOffset);
+        } finally {
+            lock.unlock();
+        }
     }
 
     /*
-        Calculates the refill period in milliseconds
+        Returns the policy the bucket was created for, or null if it was built from a capacity and RefillStrategy
 
-        @return The number of milliseconds in the refill period
+        @return policy of the bucket
      */
-
-    private long getPeriodInMilliseconds() {
-        return TimeUnit.MILLISECONDS.convert(this.period, this.timeUnit);
+    RateLimitingPolicy getPolicy() {
+        return policy;
     }
 
     /*
-        Checks if current time is great than nextRefillTime
-     */
+        Returns true if the bucket earns tokens continuously rather than refilling at the end of each period
 
-    private boolean canRefillBucket() {
-        return Instant.now(clock).compareTo(getNextRefillTime()) > 0;
+        @return {@code true} if the RefillStrategy is greedy
+     */
+    boolean isGreedyRefill() {
+        return refillStrategy instanceof GreedyRefillStrategy;
     }
 
     /*
-        Returns the timestamp for the next refill of bucket
+        Returns the number of times a consume had to wait for another thread to release the bucket
 
-        @return timestamp for next refill
+        @return number of contended consumes
      */
-    @Override
-    public Instant getNextRefillTime() {
-        return nextRefillTime;
+    long getContendedCount() {
+        return contendedCount;
+    }
+
+    private void lockCounted() {
+        if (!lock.tryLock()) {
+            lock.lock();
+            contendedCount++;
+        }
     }
 
 }
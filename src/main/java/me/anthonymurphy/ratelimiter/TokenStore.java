@@ -0,0 +1,39 @@
+package me.anthonymurphy.ratelimiter;
+
+/**
+ * Shared state behind a {@link LeasingRateLimiter}, holding each Client's bucket for every node that limits it
+ *
+ * Implementations keep one bucket per Client, for example in a database or a cache shared by the nodes, and must take
+ * tokens from it atomically, so the nodes together are never granted more tokens than the bucket holds.
+ * {@link LoopbackTokenStore} keeps the buckets in process, for tests and for a single node.
+ */
+
+public interface TokenStore {
+
+    /*
+        Takes as many of the requested number of tokens from the Client's bucket as it holds
+
+        @param clientId unique identifier for the Client
+        @param permits maximum number of tokens to take
+        @return number of tokens taken, between 0 and permits
+     */
+    long acquire(String clientId, long permits);
+
+    /*
+        Returns tokens that were taken but not used to the Client's bucket
+
+        @param clientId unique identifier for the Client
+        @param permits number of tokens to return
+     */
+    void release(String clientId, long permits);
+
+    /*
+        Returns the period of the Clients' buckets, so a LeasingRateLimiter can check its leases are shorter. Stores
+        that do not know it, for example because Clients have policies with different periods, return 0
+
+        @return period of the buckets in nanoseconds, or 0 if it is not known
+     */
+    default long getPeriodInNanoseconds() {
+        return 0;
+    }
+}
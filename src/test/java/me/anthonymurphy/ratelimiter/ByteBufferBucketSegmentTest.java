@@ -0,0 +1,131 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ByteBufferBucketSegmentTest {
+
+    private static final long CAPACITY = 3;
+    private static final long ONE_HOUR = TimeUnit.HOURS.toNanos(1);
+    private BucketSegment segment;
+
+    @Before
+    public void setUp() {
+        segment = new ByteBufferBucketSegment(CAPACITY, new SimpleRefillStrategy(CAPACITY, 1, TimeUnit.HOURS),
+                ByteBuffer.allocateDirect(16 * ByteBufferBucketSegment.BYTES_PER_SLOT));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTryCreateWithPartialSlot() {
+        new ByteBufferBucketSegment(CAPACITY, new SimpleRefillStrategy(CAPACITY, 1, TimeUnit.HOURS),
+                ByteBuffer.allocate(16 * ByteBufferBucketSegment.BYTES_PER_SLOT + 1));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTryCreateWithSlotCountNotPowerOfTwo() {
+        new ByteBufferBucketSegment(CAPACITY, new SimpleRefillStrategy(CAPACITY, 1, TimeUnit.HOURS),
+                ByteBuffer.allocate(12 * ByteBufferBucketSegment.BYTES_PER_SLOT));
+    }
+
+    @Test
+    public void testConsumeAndRefill() {
+        assertTrue(segment.tryConsume(42, CAPACITY, 0));
+        assertFalse(segment.tryConsume(42, 1, ONE_HOUR / 2));
+        assertTrue(segment.tryConsume(42, 1, ONE_HOUR + 1));
+        assertEquals(CAPACITY - 1, segment.consumeUpTo(42, CAPACITY, ONE_HOUR + 2));
+    }
+
+    @Test
+    public void testKeysWithSameHomeSlotAreKeptApart() {
+        assertTrue(segment.tryConsume(1, CAPACITY, 0));
+        assertTrue(segment.tryConsume(1 + 16, CAPACITY, 0));
+        assertTrue(segment.tryConsume(1 + 32, CAPACITY, 0));
+        assertFalse(segment.tryConsume(1, 1, 0));
+        assertFalse(segment.tryConsume(1 + 16, 1, 0));
+        assertEquals(3, segment.count());
+    }
+
+    @Test
+    public void testFullBucketsAreDroppedToMakeRoom() {
+        for (long key = 1; key <= 12; key++) {
+            assertTrue(segment.tryConsume(key, 1, 0));
+        }
+        assertEquals(12, segment.count());
+
+        // An hour later every bucket is full again and can be dropped for new clients
+        assertTrue(segment.tryConsume(100, CAPACITY, ONE_HOUR + 1));
+        assertEquals(1, segment.count());
+    }
+
+    @Test
+    public void testClientsAfterDroppedBucketsAreShiftedBack() {
+        for (long key = 1; key <= 10; key++) {
+            assertTrue(segment.tryConsume(key, 1, 0));
+        }
+        // Same home slot as key 1, so they are placed after keys 1 to 10
+        assertTrue(segment.tryConsume(1 + 16, CAPACITY, ONE_HOUR / 2));
+        assertTrue(segment.tryConsume(1 + 32, CAPACITY, ONE_HOUR / 2));
+        assertEquals(12, segment.count());
+
+        // Keys 1 to 10 are full again and dropped, the drained clients behind them must still be found
+        assertTrue(segment.tryConsume(100, 1, ONE_HOUR + 1));
+        assertEquals(3, segment.count());
+        assertFalse(segment.tryConsume(1 + 16, 1, ONE_HOUR + 1));
+        assertFalse(segment.tryConsume(1 + 32, 1, ONE_HOUR + 1));
+        assertEquals(3, segment.count());
+    }
+
+    @Test
+    public void testRecountAfterReopeningBuffer() {
+        ByteBuffer buffer = ByteBuffer.allocate(16 * ByteBufferBucketSegment.BYTES_PER_SLOT);
+        RefillStrategy refillStrategy = new SimpleRefillStrategy(CAPACITY, 1, TimeUnit.HOURS);
+        segment = new ByteBufferBucketSegment(CAPACITY, refillStrategy, buffer);
+        assertTrue(segment.tryConsume(1, CAPACITY, 0));
+        assertTrue(segment.tryConsume(2, 1, 0));
+
+        BucketSegment reopened = new ByteBufferBucketSegment(CAPACITY, refillStrategy, buffer);
+        reopened.recount();
+        assertEquals(2, reopened.count());
+        assertFalse(reopened.tryConsume(1, 1, 0));
+        assertTrue(reopened.tryConsume(2, 2, 0));
+    }
+
+    @Test
+    public void testBuildOffHeap() {
+        FakeTicker ticker = new FakeTicker();
+        RateLimiter rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(1)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(ticker))
+                .withMaximumClients(1000)
+                .withConcurrencyLevel(4)
+                .buildOffHeap();
+        for (int i = 0; i < 1000; i++) {
+            assertTrue(rateLimiter.allowRequest("client-" + i));
+        }
+        for (int i = 0; i < 1000; i++) {
+            assertFalse(rateLimiter.allowRequest("client-" + i));
+        }
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("client-0"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryBuildOffHeapWithoutMaximum() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(1)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS))
+                .buildOffHeap();
+    }
+}
@@ -0,0 +1,75 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.util.HashSet;
+import java.util.Set;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotEquals;
+
+public class ClientIdsTest {
+
+    private static final long SEED = 42;
+
+    @Test
+    public void testBufferHashMatchesArrayHash() {
+        byte[] bytes = new byte[21];
+        for (int i = 0; i < bytes.length; i++) {
+            bytes[i] = (byte) (i * 37);
+        }
+        long expected = ClientIds.hash(bytes, 2, 19, SEED);
+        ByteBuffer buffer = ByteBuffer.wrap(bytes);
+        buffer.position(2);
+        assertEquals(expected, ClientIds.hash(buffer, SEED));
+        assertEquals(expected, ClientIds.hash(buffer.order(ByteOrder.LITTLE_ENDIAN), SEED));
+        ByteBuffer direct = ByteBuffer.allocateDirect(bytes.length).put(bytes);
+        direct.position(2);
+        assertEquals(expected, ClientIds.hash(direct, SEED));
+        assertEquals(2, direct.position());
+    }
+
+    @Test
+    public void testHashDependsOnLengthAndSeed() {
+        byte[] bytes = new byte[16];
+        assertNotEquals(ClientIds.hash(bytes, 0, 15, SEED), ClientIds.hash(bytes, 0, 16, SEED));
+        assertNotEquals(ClientIds.hash(bytes, 0, 16, SEED), ClientIds.hash(bytes, 0, 16, SEED + 1));
+        assertNotEquals(ClientIds.hash(1L, SEED), ClientIds.hash(1L, SEED + 1));
+    }
+
+    @Test
+    public void testSequentialKeysHaveDistinctHashes() {
+        Set<Long> hashes = new HashSet<>();
+        for (long key = 0; key < 100_000; key++) {
+            hashes.add(ClientIds.hash(key, SEED));
+        }
+        assertEquals(100_000, hashes.size());
+    }
+
+    @Test
+    public void testIpv4KeysByNetwork() {
+        assertEquals(ClientIds.ipv4(0xC0000201, 24), ClientIds.ipv4(0xC00002FE, 24));
+        assertNotEquals(ClientIds.ipv4(0xC0000201, 24), ClientIds.ipv4(0xC0000301, 24));
+        assertNotEquals(ClientIds.ipv4(0xC0000201, 32), ClientIds.ipv4(0xC00002FE, 32));
+        // The same network with a different prefix length is a different client
+        assertNotEquals(ClientIds.ipv4(0x0A000000, 8), ClientIds.ipv4(0x0A000000, 16));
+        assertEquals(ClientIds.ipv4(0x0A000000, 0), ClientIds.ipv4(0xFFFFFFFF, 0));
+    }
+
+    @Test
+    public void testIpv6KeysByNetwork() {
+        long high = 0x20010DB800000001L;
+        assertEquals(ClientIds.ipv6(high, 1, 64), ClientIds.ipv6(high, -1, 64));
+        assertEquals(ClientIds.ipv6(high, 1, 48), ClientIds.ipv6(high | 0xFFFF, 5, 48));
+        assertNotEquals(ClientIds.ipv6(high, 1, 64), ClientIds.ipv6(high + 1, 1, 64));
+        assertEquals(ClientIds.ipv6(high, 0x100, 120), ClientIds.ipv6(high, 0x1FF, 120));
+        assertNotEquals(ClientIds.ipv6(high, 1, 128), ClientIds.ipv6(high, 2, 128));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryKeyIpv4WithLongPrefix() {
+        ClientIds.ipv4(0, 33);
+    }
+}
@@ -0,0 +1,39 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Test;
+
+import java.net.InetAddress;
+import java.net.InetSocketAddress;
+import java.util.Collections;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertArrayEquals;
+
+public class DatagramGossipTransportTest {
+
+    @Test
+    public void testReportIsSentToPeer() throws Exception {
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (DatagramGossipTransport receiver = DatagramGossipTransport.bind(loopback, Collections.emptyList());
+             DatagramGossipTransport sender = DatagramGossipTransport.bind(loopback,
+                     Collections.singletonList(receiver.getLocalAddress()))) {
+            BlockingQueue<byte[]> received = new ArrayBlockingQueue<>(1);
+            receiver.onReceive(received::add);
+
+            byte[] report = {1, 2, 3};
+            sender.broadcast(report);
+            assertArrayEquals(report, received.poll(5, TimeUnit.SECONDS));
+        }
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTrySetReceiverTwice() throws Exception {
+        InetSocketAddress loopback = new InetSocketAddress(InetAddress.getLoopbackAddress(), 0);
+        try (DatagramGossipTransport transport = DatagramGossipTransport.bind(loopback, Collections.emptyList())) {
+            transport.onReceive(report -> { });
+            transport.onReceive(report -> { });
+        }
+    }
+}
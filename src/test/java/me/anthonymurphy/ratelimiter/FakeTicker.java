@@ -0,0 +1,24 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Ticker that only moves when advanced by the test
+ */
+
+public class FakeTicker extends Ticker {
+
+    private volatile long nanos = TimeUnit.DAYS.toNanos(1);
+
+    public FakeTicker advance(long time, TimeUnit timeUnit) {
+        nanos += timeUnit.toNanos(time);
+        return this;
+    }
+
+    @Override
+    public long read() {
+        return nanos;
+    }
+}
@@ -0,0 +1,235 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.CyclicBarrier;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GcraRateLimiterTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD_IN_NANOSECONDS = TimeUnit.HOURS.toNanos(1);
+    private FakeTicker ticker;
+    private GcraRateLimiter rateLimiter;
+    private String clientId1 = "127.0.0.1";
+    private String clientId2 = "192.168.01";
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        rateLimiter = new GcraRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 16, 1_000);
+    }
+
+    @Test
+    public void testBurstOfCapacityThenOneTokenPerEmissionInterval() {
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertFalse(rateLimiter.allowRequest(clientId1));
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        ticker.advance(10, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest(clientId1, 10));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+    }
+
+    @Test
+    public void testIdleClientEarnsNoMoreThanCapacity() {
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        ticker.advance(5, TimeUnit.HOURS);
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+    }
+
+    @Test
+    public void testCostGreaterThanCapacityIsNeverAllowed() {
+        assertFalse(rateLimiter.allowRequest(clientId1, CAPACITY + 1));
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+    }
+
+    @Test
+    public void testDeniedRequestConsumesNothing() {
+        assertTrue(rateLimiter.allowRequest(clientId1, 40));
+        assertFalse(rateLimiter.allowRequest(clientId1, 21));
+        assertTrue(rateLimiter.allowRequest(clientId1, 20));
+    }
+
+    @Test
+    public void testClientsHaveSeparateBuckets() {
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        assertTrue(rateLimiter.allowRequest(clientId2, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId2));
+        assertEquals(2, rateLimiter.getClientCount());
+    }
+
+    @Test
+    public void testFullTableSharesSlotsUntilBucketsFillUp() {
+        // A single segment of four slots
+        rateLimiter = new GcraRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 1, 2);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(rateLimiter.allowRequest("client-" + i, CAPACITY));
+        }
+        assertEquals(4, rateLimiter.getClientCount());
+
+        // Every slot is held by a limited client, so a new client is limited along with the client it shares with
+        assertFalse(rateLimiter.allowRequest("client-4"));
+
+        ticker.advance(1, TimeUnit.HOURS);
+        assertTrue(rateLimiter.allowRequest("client-4", CAPACITY));
+        assertFalse(rateLimiter.allowRequest("client-4"));
+        assertEquals(4, rateLimiter.getClientCount());
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddClientIsNotSupported() {
+        rateLimiter.addClient(clientId1, new TokenBucketImpl(ticker, CAPACITY, 1, TimeUnit.HOURS));
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverOverGrant() throws InterruptedException {
+        final int threads = 8;
+        final long capacity = 10_000;
+        rateLimiter = new GcraRateLimiter(Ticker.systemTicker(), capacity, PERIOD_IN_NANOSECONDS, 16, 1_000);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < capacity; j++) {
+                    if (rateLimiter.allowRequest(clientId1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Allow for the tokens earned while the threads ran
+        assertTrue(granted.get() >= capacity);
+        assertTrue(granted.get() <= capacity + 10);
+    }
+
+    @Test
+    public void testSlotsHandedBetweenClientsNeverOverGrant() throws InterruptedException {
+        final int threads = 8;
+        final int clients = 6;
+        final long capacity = 4;
+        final long period = TimeUnit.MILLISECONDS.toNanos(2);
+        // A single segment of four slots, so slots are handed between Clients while they are being charged
+        rateLimiter = new GcraRateLimiter(Ticker.systemTicker(), capacity, period, 1, 2);
+        AtomicLongArray granted = new AtomicLongArray(clients);
+        long start = System.nanoTime();
+        long duration = TimeUnit.SECONDS.toNanos(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            int first = i;
+            executor.execute(() -> {
+                for (int j = first; System.nanoTime() - start < duration; j++) {
+                    if (rateLimiter.allowRequest(j % clients, 1)) {
+                        granted.incrementAndGet(j % clients);
+                    }
+                }
+            });
+        }
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // A whole bucket to start with and what was earned since, with a bucket to spare for the time measured
+        long earned = capacity * (System.nanoTime() - start) / period;
+        for (int i = 0; i < clients; i++) {
+            assertTrue(granted.get(i) <= earned + 2 * capacity);
+        }
+    }
+
+    @Test
+    public void testLongKeysHaveTheirOwnBuckets() {
+        assertTrue(rateLimiter.allowRequest(1L, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(1L));
+        assertTrue(rateLimiter.allowRequest(2L));
+    }
+
+    @Test
+    public void testNewClientRacingForTwoSlotsKeepsOne() throws Exception {
+        final int segments = 256;
+        // Pairs of an old and a new client with the same home slot, in segments of four slots
+        Map<Long, Long> oldClients = new HashMap<>();
+        List<long[]> clients = new ArrayList<>();
+        for (long key = 1; clients.size() < 4 * segments; key++) {
+            long hash = ClientIds.hash(key);
+            Long oldClient = oldClients.putIfAbsent((hash >>> 56) << 2 | hash & 3, key);
+            if (oldClient != null && oldClient > 0) {
+                clients.add(new long[] {oldClient, key});
+                oldClients.put((hash >>> 56) << 2 | hash & 3, 0L);
+            }
+        }
+        ThreadLocal<Long> now = ThreadLocal.withInitial(() -> 0L);
+        Ticker threadTicker = new Ticker() {
+            @Override
+            public long read() {
+                return now.get();
+            }
+        };
+        ExecutorService executor = Executors.newFixedThreadPool(2);
+        try {
+            for (int i = 0; i < 100; i++) {
+                GcraRateLimiter limiter = new GcraRateLimiter(threadTicker, 1, PERIOD_IN_NANOSECONDS, segments,
+                        2 * segments);
+                for (long[] pair : clients) {
+                    assertTrue(limiter.allowRequest(pair[0], 1));
+                }
+                // Each old client's bucket is full again for one thread, which takes its slot for the new client, and
+                // still empty for the other, which claims the empty slot after it
+                CyclicBarrier barrier = new CyclicBarrier(2);
+                AtomicLong granted = new AtomicLong();
+                List<Future<?>> threads = new ArrayList<>();
+                for (long time : new long[] {PERIOD_IN_NANOSECONDS, PERIOD_IN_NANOSECONDS - 1}) {
+                    threads.add(executor.submit(() -> {
+                        now.set(time);
+                        barrier.await();
+                        for (long[] pair : clients) {
+                            if (limiter.allowRequest(pair[1], 1)) {
+                                granted.incrementAndGet();
+                            }
+                        }
+                        return null;
+                    }));
+                }
+                for (Future<?> thread : threads) {
+                    thread.get();
+                }
+                assertEquals(clients.size(), granted.get());
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
@@ -0,0 +1,154 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GossipRateLimiterTest {
+
+    private static final long CAPACITY = 10;
+    private FakeTicker ticker;
+    private GossipRateLimiter node1;
+    private GossipRateLimiter node2;
+    private String clientId = "127.0.0.1";
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        List<InMemoryGossipTransport> network = InMemoryGossipTransport.network(2);
+        node1 = newNode(network.get(0));
+        node2 = newNode(network.get(1));
+    }
+
+    private GossipRateLimiter newNode(GossipTransport transport) {
+        return RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(CAPACITY)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(ticker))
+                .buildGossip(transport);
+    }
+
+    @Test
+    public void testTokensConsumedOnAnotherNodeAreOwed() {
+        assertTrue(node2.allowRequest(clientId));
+        assertTrue(node1.allowRequest(clientId, 6));
+        node1.exchange();
+        assertEquals(1, node1.getReportsSentCount());
+        assertEquals(1, node2.getReportsReceivedCount());
+        assertEquals(6, node2.getDebt(clientId));
+
+        assertTrue(node2.allowRequest(clientId, 3));
+        assertFalse(node2.allowRequest(clientId));
+        assertEquals(0, node2.getDebt(clientId));
+    }
+
+    @Test
+    public void testDebtOfClientWithoutLocalBucketIsIgnored() {
+        assertTrue(node1.allowRequest(clientId, 6));
+        node1.exchange();
+        assertEquals(1, node2.getReportsReceivedCount());
+        assertEquals(0, node2.getDebt(clientId));
+
+        // A Client new to the node has a full bucket
+        assertTrue(node2.allowRequest(clientId, CAPACITY));
+    }
+
+    @Test
+    public void testDebtIsCarriedUntilBucketRefills() {
+        assertTrue(node1.allowRequest(clientId, CAPACITY));
+        assertTrue(node2.allowRequest(clientId, 5));
+        node1.exchange();
+
+        // Node 2 has already allowed 5 of its tokens, so it owes 5 more than its bucket holds
+        assertFalse(node2.allowRequest(clientId));
+        assertEquals(5, node2.getDebt(clientId));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(node2.allowRequest(clientId, 5));
+        assertFalse(node2.allowRequest(clientId));
+    }
+
+    @Test
+    public void testNothingIsSentWithoutUsage() {
+        node1.exchange();
+        assertEquals(0, node1.getReportsSentCount());
+    }
+
+    @Test
+    public void testIdleClientsAreDroppedAfterPayingDebt() {
+        assertTrue(node2.allowRequest(clientId));
+        assertTrue(node1.allowRequest(clientId, 4));
+        node1.exchange();
+        // The first exchange reports the Client's request, the second finds it idle
+        node2.exchange();
+        node2.exchange();
+        assertEquals(0, node2.getDebt(clientId));
+
+        assertTrue(node2.allowRequest(clientId, 5));
+        assertFalse(node2.allowRequest(clientId));
+    }
+
+    @Test
+    public void testIdleClientsWithoutLocalBucketAreDropped() {
+        GossipRateLimiter node = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(CAPACITY)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(ticker))
+                .withIdleExpiry(2, TimeUnit.HOURS)
+                .buildGossip(InMemoryGossipTransport.network(1).get(0));
+        assertTrue(node.allowRequest(clientId, CAPACITY));
+        node.exchange();
+        ticker.advance(3, TimeUnit.HOURS);
+        node.exchange();
+        assertEquals(0, node.getClientCount());
+    }
+
+    @Test
+    public void testClientIdTooLongForReportIsNotReported() {
+        char[] longId = new char[GossipRateLimiter.MAXIMUM_CLIENT_ID_BYTES + 1];
+        Arrays.fill(longId, 'a');
+        assertTrue(node1.allowRequest(new String(longId)));
+        node1.exchange();
+        assertEquals(0, node1.getReportsSentCount());
+    }
+
+    @Test
+    public void testLargeReportsAreSplit() {
+        for (int i = 0; i < 1_000; i++) {
+            assertTrue(node1.allowRequest("client-" + i));
+            assertTrue(node2.allowRequest("client-" + i));
+        }
+        node1.exchange();
+        assertTrue(node1.getReportsSentCount() > 1);
+        assertEquals(node1.getReportsSentCount(), node2.getReportsReceivedCount());
+        for (int i = 0; i < 1_000; i++) {
+            assertEquals(1, node2.getDebt("client-" + i));
+        }
+    }
+
+    @Test
+    public void testMalformedReportIsIgnored() {
+        node2.receive(new byte[] {(byte) 0xFF});
+        assertEquals(1, node2.getMalformedReportCount());
+        assertEquals(0, node2.getReportsReceivedCount());
+    }
+
+    @Test
+    public void testReportWithClientIdLongerThanReportIsIgnored() {
+        // A length prefix of Integer.MAX_VALUE followed by nothing
+        node2.receive(new byte[] {(byte) 0xFF, (byte) 0xFF, (byte) 0xFF, (byte) 0xFF, 0x07});
+        assertEquals(1, node2.getMalformedReportCount());
+        assertEquals(0, node2.getReportsReceivedCount());
+    }
+}
@@ -0,0 +1,99 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GreedyRefillStrategyTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD = 1;
+    private static final TimeUnit TIME_UNIT_HOURS = TimeUnit.HOURS;
+    private static final long ONE_MINUTE = TimeUnit.MINUTES.toNanos(1);
+    private RefillStrategy refillStrategy;
+
+    @Before
+    public void setUp() {
+        refillStrategy = new GreedyRefillStrategy(CAPACITY, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityCreate() {
+        new GreedyRefillStrategy(0, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testNoTokensBeforeFirstTokenIsEarned() {
+        assertEquals(0, refillStrategy.tokensToAdd(0, ONE_MINUTE - 1));
+        assertEquals(0, refillStrategy.getRefillTime(0, ONE_MINUTE - 1));
+    }
+
+    @Test
+    public void testTokensAreAddedInProportionToElapsedTime() {
+        assertEquals(1, refillStrategy.tokensToAdd(0, ONE_MINUTE));
+        assertEquals(30, refillStrategy.tokensToAdd(0, 30 * ONE_MINUTE));
+    }
+
+    @Test
+    public void testFractionOfTokenIsCarriedForward() {
+        // 90 seconds earns one token, the remaining 30 seconds count towards the next token
+        long refillTime = refillStrategy.getRefillTime(0, 90_000_000_000L);
+        assertEquals(ONE_MINUTE, refillTime);
+        assertEquals(1, refillStrategy.tokensToAdd(refillTime, 2 * ONE_MINUTE));
+    }
+
+    @Test
+    public void testNeverMoreThanCapacityAndExtraTimeIsDiscarded() {
+        long now = 5 * 60 * ONE_MINUTE;
+        assertEquals(CAPACITY, refillStrategy.tokensToAdd(0, now));
+        assertEquals(now, refillStrategy.getRefillTime(0, now));
+    }
+
+    @Test
+    public void testNextRefillTimeIsTimeToEarnOneToken() {
+        assertEquals(ONE_MINUTE, refillStrategy.getNextRefillTime(0));
+    }
+
+    @Test
+    public void testRefillTimeNeverAfterCurrentTimeWithUnevenRate() {
+        refillStrategy = new GreedyRefillStrategy(7, 1, TimeUnit.SECONDS);
+        long lastRefillTime = 0;
+        long tokens = 0;
+        for (long now = 0; now <= 1_000_000_000L; now += 1_000_003L) {
+            tokens += refillStrategy.tokensToAdd(lastRefillTime, now);
+            long refillTime = refillStrategy.getRefillTime(lastRefillTime, now);
+            assertTrue(refillTime <= now);
+            lastRefillTime = refillTime;
+        }
+        assertEquals(6, tokens);
+    }
+
+    @Test
+    public void testBucketRefillsGreedily() {
+        FakeTicker ticker = new FakeTicker();
+        TokenBucket bucket = TokenBucketBuilder.builder()
+                .withCapacity(CAPACITY)
+                .withPeriod(PERIOD)
+                .withTimeUnit(TIME_UNIT_HOURS)
+                .withTicker(ticker)
+                .withGreedyRefill(true)
+                .build();
+        for (int i = 0; i < CAPACITY; i++) {
+            assertTrue(bucket.consume());
+        }
+        assertFalse(bucket.consume());
+
+        ticker.advance(1, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertFalse(bucket.consume());
+
+        ticker.advance(10, TimeUnit.MINUTES);
+        bucket.refill();
+        assertEquals(10, bucket.getAvailableTokens());
+    }
+}
@@ -0,0 +1,59 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class HeavyHittersTest {
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithZeroCapacity() {
+        new HeavyHitters(0);
+    }
+
+    @Test
+    public void testCountsExactlyWithinCapacity() {
+        HeavyHitters heavyHitters = new HeavyHitters(3);
+        for (int i = 0; i < 5; i++) {
+            heavyHitters.offer("a");
+        }
+        heavyHitters.offer("b");
+        heavyHitters.offer("b");
+        heavyHitters.offer("c");
+
+        Map<String, Long> top = heavyHitters.getTop(2);
+        assertEquals(2, top.size());
+        assertEquals(Arrays.asList("a", "b"), new ArrayList<>(top.keySet()));
+        assertEquals(5L, (long) top.get("a"));
+        assertEquals(2L, (long) top.get("b"));
+    }
+
+    @Test
+    public void testKeepsFrequentClientsAmongMany() {
+        HeavyHitters heavyHitters = new HeavyHitters(8);
+        for (int i = 0; i < 1000; i++) {
+            heavyHitters.offer("attacker");
+            heavyHitters.offer("client-" + i);
+            if (i % 2 == 0) {
+                heavyHitters.offer("scraper");
+            }
+        }
+        Map<String, Long> top = heavyHitters.getTop(2);
+        assertEquals(Arrays.asList("attacker", "scraper"), new ArrayList<>(top.keySet()));
+        // Space-Saving only over-estimates
+        assertTrue(top.get("attacker") >= 1000);
+    }
+
+    @Test
+    public void testReset() {
+        HeavyHitters heavyHitters = new HeavyHitters(2);
+        heavyHitters.offer("a");
+        heavyHitters.reset();
+        assertTrue(heavyHitters.getTop(2).isEmpty());
+    }
+}
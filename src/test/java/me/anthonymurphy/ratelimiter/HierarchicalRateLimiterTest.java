@@ -0,0 +1,145 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class HierarchicalRateLimiterTest {
+
+    private FakeTicker ticker;
+    private HierarchicalRateLimiter rateLimiter;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        // Clients are named tenant/client, each client gets 3 requests, each tenant 5 and everyone together 8
+        rateLimiter = HierarchicalRateLimiterBuilder.builder()
+                .withClientTier(tier(3))
+                .withTier(clientId -> clientId.substring(0, clientId.indexOf('/')), tier(5))
+                .withGlobalTier(bucket(8))
+                .build();
+    }
+
+    private TokenBucketBuilder.Builder bucket(long capacity) {
+        return TokenBucketBuilder.builder()
+                .withCapacity(capacity)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .withTicker(ticker);
+    }
+
+    private RateLimiterBuilder.Builder tier(long capacity) {
+        return RateLimiterBuilder.builder().withTokenBucket(bucket(capacity));
+    }
+
+    @Test
+    public void testEveryTierIsEnforced() {
+        // Client tier
+        assertTrue(rateLimiter.allowRequest("a/1", 3));
+        assertFalse(rateLimiter.allowRequest("a/1"));
+
+        // Tenant tier
+        assertTrue(rateLimiter.allowRequest("a/2", 2));
+        assertFalse(rateLimiter.allowRequest("a/3"));
+
+        // Global tier
+        assertTrue(rateLimiter.allowRequest("b/1", 3));
+        assertFalse(rateLimiter.allowRequest("c/1"));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("c/1"));
+    }
+
+    @Test
+    public void testDeniedRequestTakesNoTokensFromAnyTier() {
+        assertTrue(rateLimiter.allowRequest("a/1", 3));
+        // The tenant and global tiers have the tokens but the client tier does not
+        assertFalse(rateLimiter.allowRequest("a/1", 2));
+        assertFalse(rateLimiter.allowRequest("a/2", 3));
+
+        // Had the denied requests taken tokens from the tenant tier it would be empty
+        assertTrue(rateLimiter.allowRequest("a/2", 2));
+    }
+
+    @Test
+    public void testDeniedRequestRefundsTheBucketsItTookTokensFrom() {
+        AtomicReference<HierarchicalRateLimiter> limiter = new AtomicReference<>();
+        AtomicReference<TokenBucket> replacement = new AtomicReference<>();
+        // The client's bucket is replaced once its tokens have been taken, before the tenant tier denies the request
+        limiter.set(HierarchicalRateLimiterBuilder.builder()
+                .withClientTier(tier(3))
+                .withTier(clientId -> {
+                    if (replacement.get() != null) {
+                        limiter.get().addClient(clientId, replacement.get());
+                    }
+                    return clientId.substring(0, clientId.indexOf('/'));
+                }, tier(1))
+                .build());
+        assertTrue(limiter.get().allowRequest("a/1"));
+
+        TokenBucket drained = bucket(3).build();
+        assertTrue(drained.tryConsume(3));
+        replacement.set(drained);
+        assertFalse(limiter.get().allowRequest("a/1"));
+        assertEquals(0, drained.getAvailableTokens());
+    }
+
+    @Test
+    public void testTierListenerIsToldOfTheTiersDecisions() {
+        List<String> decisions = new ArrayList<>();
+        rateLimiter = HierarchicalRateLimiterBuilder.builder()
+                .withClientTier(tier(3))
+                .withTier(clientId -> clientId.substring(0, clientId.indexOf('/')), tier(5)
+                        .withListener((key, cost, allowed) -> decisions.add(key + " " + cost + " " + allowed)))
+                .withGlobalTier(bucket(8))
+                .build();
+        assertTrue(rateLimiter.allowRequest("a/1", 3));
+        assertFalse(rateLimiter.allowRequest("a/2", 3));
+        // Denied by the client tier before the tenant tier is tried
+        assertFalse(rateLimiter.allowRequest("a/1"));
+
+        assertEquals(Arrays.asList("a 3 true", "a 3 false"), decisions);
+    }
+
+    @Test
+    public void testTierThatDeniesMostIsTriedFirst() {
+        assertArrayEquals(new int[] {0, 1, 2}, rateLimiter.getTierOrder());
+
+        // Drain the global tier, then every request is denied by it
+        assertTrue(rateLimiter.allowRequest("a/1", 3));
+        assertTrue(rateLimiter.allowRequest("b/1", 3));
+        assertTrue(rateLimiter.allowRequest("c/1", 2));
+        for (int i = 0; i < HierarchicalRateLimiter.REORDER_INTERVAL; i++) {
+            assertFalse(rateLimiter.allowRequest("d/" + i));
+        }
+        assertEquals(2, rateLimiter.getTierOrder()[0]);
+
+        // The client and tenant tiers are no longer touched by requests the global tier denies
+        assertFalse(rateLimiter.allowRequest("e/1", 3));
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("e/1", 3));
+    }
+
+    @Test
+    public void testAddClientOverridesFirstTier() {
+        rateLimiter.addClient("a/1", bucket(1).build());
+        assertTrue(rateLimiter.allowRequest("a/1"));
+        assertFalse(rateLimiter.allowRequest("a/1"));
+        assertTrue(rateLimiter.allowRequest("a/2", 3));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithoutTiers() {
+        HierarchicalRateLimiterBuilder.builder().build();
+    }
+}
@@ -0,0 +1,64 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+public class LatencyHistogramTest {
+
+    @Test
+    public void testEmptyHistogramReportsZero() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        assertEquals(0, histogram.getCount());
+        assertEquals(0, histogram.getValueAtPercentile(99));
+    }
+
+    @Test
+    public void testSmallValuesAreExact() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (long value = 0; value < 8; value++) {
+            histogram.record(value);
+        }
+        assertEquals(8, histogram.getCount());
+        assertEquals(3, histogram.getValueAtPercentile(50));
+        assertEquals(7, histogram.getValueAtPercentile(100));
+    }
+
+    @Test
+    public void testValuesAreWithinBucketPrecision() {
+        for (long value : new long[] {8, 100, 12_345, 1_000_000_007L, Long.MAX_VALUE}) {
+            long reported = LatencyHistogram.highestValueOf(LatencyHistogram.indexOf(value));
+            assertTrue(reported >= value);
+            assertTrue(reported - value <= value / 8);
+        }
+    }
+
+    @Test
+    public void testPercentiles() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        for (int i = 0; i < 990; i++) {
+            histogram.record(23);
+        }
+        for (int i = 0; i < 10; i++) {
+            histogram.record(5_000);
+        }
+        assertEquals(23, histogram.getValueAtPercentile(50));
+        assertEquals(23, histogram.getValueAtPercentile(99));
+        assertTrue(histogram.getValueAtPercentile(99.9) >= 5_000);
+    }
+
+    @Test
+    public void testReset() {
+        LatencyHistogram histogram = new LatencyHistogram();
+        histogram.record(-1);
+        assertEquals(1, histogram.getCount());
+        histogram.reset();
+        assertEquals(0, histogram.getCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryPercentileAboveHundred() {
+        new LatencyHistogram().getValueAtPercentile(101);
+    }
+}
@@ -0,0 +1,155 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.util.concurrent.MoreExecutors;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Queue;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class LeasingRateLimiterTest {
+
+    private static final long CAPACITY = 100;
+    private FakeTicker ticker;
+    private LoopbackTokenStore store;
+    private LeasingRateLimiter node1;
+    private LeasingRateLimiter node2;
+    private String clientId = "127.0.0.1";
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        store = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(CAPACITY)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(ticker))
+                .buildTokenStore();
+        node1 = newNode();
+        node2 = newNode();
+    }
+
+    private LeasingRateLimiter newNode() {
+        return LeasingRateLimiterBuilder.builder()
+                .withStore(store)
+                .withLeaseSize(10)
+                .withLeaseDuration(1, TimeUnit.SECONDS)
+                .withTicker(ticker)
+                .withReleaseExecutor(MoreExecutors.directExecutor())
+                .build();
+    }
+
+    @Test (expected = NullPointerException.class)
+    public void testTryCreateWithoutStore() {
+        LeasingRateLimiterBuilder.builder().build();
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateWithLeaseDurationNotShorterThanPeriod() {
+        LeasingRateLimiterBuilder.builder()
+                .withStore(store)
+                .withLeaseDuration(1, TimeUnit.HOURS)
+                .build();
+    }
+
+    @Test
+    public void testNodesTogetherNeverExceedCapacity() {
+        long allowed = 0;
+        for (int i = 0; i < 1_000; i++) {
+            LeasingRateLimiter node = i % 3 == 0 ? node1 : node2;
+            if (node.allowRequest(clientId)) {
+                allowed++;
+            }
+        }
+        assertEquals(CAPACITY, allowed);
+    }
+
+    @Test
+    public void testRequestsAreServedFromTheLease() {
+        for (int i = 0; i < 10; i++) {
+            assertTrue(node1.allowRequest(clientId));
+        }
+        assertEquals(1, node1.getStoreRequestCount());
+        assertEquals(1, store.getRoundTripCount());
+
+        assertTrue(node1.allowRequest(clientId));
+        assertEquals(2, node1.getStoreRequestCount());
+    }
+
+    @Test
+    public void testRefusedClientIsNotAskedForUntilLeaseExpires() {
+        assertTrue(node1.allowRequest(clientId, CAPACITY));
+        assertFalse(node1.allowRequest(clientId));
+        assertFalse(node1.allowRequest(clientId));
+        assertEquals(2, node1.getStoreRequestCount());
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertFalse(node1.allowRequest(clientId));
+        assertEquals(3, node1.getStoreRequestCount());
+    }
+
+    @Test
+    public void testCostAboveLeaseSizeLeasesItsCost() {
+        assertTrue(node1.allowRequest(clientId, 25));
+        assertFalse(node2.allowRequest(clientId, 76));
+        assertTrue(node2.allowRequest(clientId, 75));
+    }
+
+    @Test
+    public void testExpiredLeaseIsReturnedToStore() {
+        assertTrue(node1.allowRequest(clientId));
+        // Node 1 holds the other 9 tokens of its lease
+        assertFalse(node2.allowRequest(clientId, 92));
+
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(node1.allowRequest(clientId));
+        assertTrue(node2.allowRequest(clientId, 89));
+    }
+
+    @Test
+    public void testReleaseAllReturnsLeases() {
+        assertTrue(node1.allowRequest(clientId));
+        assertEquals(1, node1.getClientCount());
+        node1.releaseAll();
+        assertEquals(0, node1.getClientCount());
+        assertTrue(node2.allowRequest(clientId, CAPACITY - 1));
+    }
+
+    @Test
+    public void testEvictedLeaseIsReturnedOnReleaseExecutor() {
+        Queue<Runnable> releases = new ArrayDeque<>();
+        LeasingRateLimiter node = LeasingRateLimiterBuilder.builder()
+                .withStore(store)
+                .withLeaseSize(10)
+                .withTicker(ticker)
+                .withMaximumClients(1)
+                .withReleaseExecutor(releases::add)
+                .build();
+        assertTrue(node.allowRequest(clientId));
+        // Evicts the lease, its other 9 tokens are not returned by the request that evicted it
+        assertTrue(node.allowRequest("192.168.0.1"));
+        assertEquals(90, store.acquire(clientId, CAPACITY));
+        store.release(clientId, 90);
+
+        assertEquals(1, releases.size());
+        releases.poll().run();
+        assertEquals(CAPACITY - 1, store.acquire(clientId, CAPACITY));
+    }
+
+    @Test
+    public void testClientsLeaseSeparately() {
+        assertTrue(node1.allowRequest(clientId, CAPACITY));
+        assertTrue(node1.allowRequest("192.168.0.1", CAPACITY));
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddClientIsNotSupported() {
+        node1.addClient(clientId, new TokenBucketImpl(ticker, CAPACITY, 1, TimeUnit.HOURS));
+    }
+}
@@ -0,0 +1,179 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Clock;
+import java.time.Instant;
+import java.time.temporal.ChronoUnit;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.when;
+
+public class LockFreeTokenBucketTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD = 1;
+    private static final TimeUnit TIME_UNIT_HOURS = TimeUnit.HOURS;
+    private FakeTicker ticker;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        bucket = new LockFreeTokenBucket(ticker, CAPACITY, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testGetCapacity() {
+        assertEquals(CAPACITY, bucket.getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityCreate() {
+        new LockFreeTokenBucket(Clock.systemUTC(), 0, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityTooLargeToPackCreate() {
+        new LockFreeTokenBucket(Clock.systemUTC(), LockFreeTokenBucket.MAX_CAPACITY + 1, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testAvailableTokensAfterCreation() {
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumingTokenDecreasesAvailableTokens() {
+        assertTrue(bucket.consume());
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY - 2, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumingTokenWhenNoAvailableTokens() {
+        bucket = new LockFreeTokenBucket(ticker, 1, PERIOD, TIME_UNIT_HOURS);
+        assertTrue(bucket.consume());
+        assertFalse(bucket.consume());
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testAfterCreationNextRefillIsOneHour() {
+        Instant periodStartTime = Instant.now();
+        Clock clock = mock(Clock.class);
+        when(clock.instant()).thenAnswer(invocation -> periodStartTime);
+        bucket = new LockFreeTokenBucket(clock, CAPACITY, PERIOD, TIME_UNIT_HOURS);
+
+        Instant nextRefillTime = periodStartTime.plus(1, ChronoUnit.HOURS);
+        assertEquals(nextRefillTime, bucket.getNextRefillTime());
+    }
+
+    @Test
+    public void testBucketIsNotRefilledOnConsumeIfBeforeNextRefillTime() {
+        assertTrue(bucket.consume());
+        ticker.advance(40, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY - 2, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testBucketIsRefilledOnConsumeIfAfterNextRefillTimeAndNextRefillTimeIsIncremented() {
+        Instant originalNextRefillTime = bucket.getNextRefillTime();
+        assertTrue(bucket.consume());
+        assertTrue(bucket.consume());
+
+        // Move forward 2 and 1/2 hours
+        ticker.advance(150, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY - 1, bucket.getAvailableTokens());
+
+        // NextRefillTime should be original start time + 3 hours
+        Instant nextRefillTime = originalNextRefillTime.plus(120, ChronoUnit.MINUTES);
+        assertEquals(nextRefillTime, bucket.getNextRefillTime());
+    }
+
+    @Test
+    public void testManualRefill() {
+        bucket.consume();
+        ticker.advance(30, TimeUnit.MINUTES);
+        bucket.refill();
+        assertEquals(CAPACITY - 1, bucket.getAvailableTokens());
+
+        ticker.advance(31, TimeUnit.MINUTES);
+        bucket.refill();
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConcurrentConsumeNeverOverGrants() throws InterruptedException {
+        final int threads = 8;
+        final long capacity = 10_000;
+        bucket = new LockFreeTokenBucket(Ticker.systemTicker(), capacity, PERIOD, TIME_UNIT_HOURS);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < capacity; j++) {
+                    if (bucket.consume()) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(capacity, granted.get());
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testTryConsumeMoreTokensThanAvailableConsumesNothing() {
+        assertTrue(bucket.tryConsume(40));
+        assertFalse(bucket.tryConsume(21));
+        assertEquals(CAPACITY - 40, bucket.getAvailableTokens());
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(CAPACITY));
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumeUpToTakesOnlyAvailableTokens() {
+        assertEquals(25, bucket.consumeUpTo(25));
+        assertEquals(CAPACITY - 25, bucket.consumeUpTo(CAPACITY));
+        assertEquals(0, bucket.consumeUpTo(1));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertEquals(1, bucket.consumeUpTo(1));
+        assertEquals(CAPACITY - 1, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testRefundReturnsTokensUpToCapacity() {
+        assertTrue(bucket.tryConsume(10));
+        bucket.refund(4);
+        assertEquals(CAPACITY - 6, bucket.getAvailableTokens());
+        bucket.refund(CAPACITY);
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+}
@@ -0,0 +1,45 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+
+public class LoopbackTokenStoreTest {
+
+    private LoopbackTokenStore store;
+
+    @Before
+    public void setUp() {
+        store = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(10)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(new FakeTicker()))
+                .buildTokenStore();
+    }
+
+    @Test
+    public void testAcquireGrantsUpToAvailableTokens() {
+        assertEquals(8, store.acquire("client", 8));
+        assertEquals(2, store.acquire("client", 8));
+        assertEquals(0, store.acquire("client", 8));
+        assertEquals(10, store.acquire("other", 10));
+    }
+
+    @Test
+    public void testReleaseReturnsTokens() {
+        assertEquals(10, store.acquire("client", 10));
+        store.release("client", 4);
+        assertEquals(4, store.acquire("client", 10));
+        assertEquals(3, store.getRoundTripCount());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryAcquireZero() {
+        store.acquire("client", 0);
+    }
+}
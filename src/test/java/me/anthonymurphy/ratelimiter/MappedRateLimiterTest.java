@@ -0,0 +1,167 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Rule;
+import org.junit.Test;
+import org.junit.rules.TemporaryFolder;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.ScheduledFuture;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class MappedRateLimiterTest {
+
+    private static final long CAPACITY = 3;
+
+    @Rule
+    public TemporaryFolder folder = new TemporaryFolder();
+
+    private FakeTicker ticker;
+    private Path file;
+
+    @Before
+    public void setUp() throws IOException {
+        ticker = new FakeTicker();
+        file = folder.getRoot().toPath().resolve("buckets");
+    }
+
+    private MappedRateLimiter open(long capacity, int concurrencyLevel) throws IOException {
+        return open(capacity, concurrencyLevel, 1000);
+    }
+
+    private MappedRateLimiter open(long capacity, int concurrencyLevel, long maximumClients) throws IOException {
+        return RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder(capacity))
+                .withMaximumClients(maximumClients)
+                .withConcurrencyLevel(concurrencyLevel)
+                .buildMapped(file);
+    }
+
+    private TokenBucketBuilder.Builder tokenBucketBuilder(long capacity) {
+        return TokenBucketBuilder.builder()
+                .withCapacity(capacity)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .withTicker(ticker);
+    }
+
+    @Test
+    public void testBucketsSurviveReopening() throws IOException {
+        MappedRateLimiter rateLimiter = open(CAPACITY, 4);
+        assertTrue(rateLimiter.allowRequest("client-1", CAPACITY));
+        assertTrue(rateLimiter.allowRequest("client-2"));
+        rateLimiter.force();
+
+        MappedRateLimiter reopened = open(CAPACITY, 4);
+        assertEquals(2, reopened.getClientCount());
+        assertFalse(reopened.allowRequest("client-1"));
+        assertTrue(reopened.allowRequest("client-2", CAPACITY - 1));
+        assertFalse(reopened.allowRequest("client-2"));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(reopened.allowRequest("client-1"));
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryReopenWithDifferentCapacity() throws IOException {
+        open(CAPACITY, 4).force();
+        open(CAPACITY + 1, 4);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryReopenWithDifferentLayout() throws IOException {
+        open(CAPACITY, 4).force();
+        open(CAPACITY, 8);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryReopenWithDifferentPeriod() throws IOException {
+        open(CAPACITY, 4).force();
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder(CAPACITY).withTimeUnit(TimeUnit.MINUTES))
+                .withMaximumClients(1000)
+                .withConcurrencyLevel(4)
+                .buildMapped(file);
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryReopenWithDifferentRefill() throws IOException {
+        open(CAPACITY, 4).force();
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder(CAPACITY).withGreedyRefill(true))
+                .withMaximumClients(1000)
+                .withConcurrencyLevel(4)
+                .buildMapped(file);
+    }
+
+    @Test
+    public void testLayoutWithoutConcurrencyLevelDoesNotDependOnProcessors() throws IOException {
+        MappedRateLimiter rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder(CAPACITY))
+                .withMaximumClients(1000)
+                .buildMapped(file);
+        assertTrue(rateLimiter.allowRequest("client-1", CAPACITY));
+        rateLimiter.force();
+
+        // A file written without a concurrency level has the same layout on any host
+        MappedRateLimiter reopened = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder(CAPACITY))
+                .withMaximumClients(1000)
+                .withConcurrencyLevel(64)
+                .buildMapped(file);
+        assertFalse(reopened.allowRequest("client-1"));
+    }
+
+    @Test
+    public void testDrainedBucketsSurviveMakingRoom() throws IOException {
+        MappedRateLimiter rateLimiter = open(CAPACITY, 1, 12);
+        // A single segment of 32 slots, full at 24 Clients
+        for (int i = 0; i < 20; i++) {
+            assertTrue(rateLimiter.allowRequest("early-" + i));
+        }
+        ticker.advance(30, TimeUnit.MINUTES);
+        for (int i = 0; i < 4; i++) {
+            assertTrue(rateLimiter.allowRequest("late-" + i, CAPACITY));
+        }
+        ticker.advance(31, TimeUnit.MINUTES);
+        // The early Clients' buckets are full again and are dropped to make room
+        assertTrue(rateLimiter.allowRequest("new"));
+        assertEquals(5, rateLimiter.getClientCount());
+        rateLimiter.force();
+
+        MappedRateLimiter reopened = open(CAPACITY, 1, 12);
+        assertEquals(5, reopened.getClientCount());
+        for (int i = 0; i < 4; i++) {
+            assertFalse(reopened.allowRequest("late-" + i));
+        }
+    }
+
+    @Test(expected = IllegalStateException.class)
+    public void testTryOpenFileThatIsNotARateLimiterFile() throws IOException {
+        java.nio.file.Files.write(file, new byte[MappedRateLimiter.HEADER_BYTES]);
+        open(CAPACITY, 4);
+    }
+
+    @Test
+    public void testScheduleForce() throws Exception {
+        MappedRateLimiter rateLimiter = open(CAPACITY, 4);
+        ScheduledExecutorService executor = Executors.newSingleThreadScheduledExecutor();
+        try {
+            ScheduledFuture<?> force = rateLimiter.scheduleForce(executor, 10, TimeUnit.MILLISECONDS);
+            assertTrue(rateLimiter.allowRequest("client-1"));
+            Thread.sleep(50);
+            // A periodic task only completes on its own if it threw
+            assertFalse(force.isDone());
+            force.cancel(false);
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+}
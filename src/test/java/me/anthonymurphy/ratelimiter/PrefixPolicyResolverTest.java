@@ -0,0 +1,36 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.collect.ImmutableMap;
+import org.junit.Test;
+
+import java.util.Collections;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertSame;
+
+public class PrefixPolicyResolverTest {
+
+    private final RateLimitingPolicy defaultPolicy = RateLimitingPolicy.of(1, TimeUnit.SECONDS.toNanos(1), false);
+    private final RateLimitingPolicy tenantPolicy = RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), false);
+    private final RateLimitingPolicy adminPolicy = RateLimitingPolicy.of(100, TimeUnit.SECONDS.toNanos(1), false);
+
+    @Test (expected = NullPointerException.class)
+    public void testTryCreateWithoutDefaultPolicy() {
+        PolicyResolver.byPrefix(Collections.emptyMap(), null);
+    }
+
+    @Test
+    public void testResolvesDefaultPolicyWithoutMatch() {
+        PolicyResolver resolver = PolicyResolver.byPrefix(ImmutableMap.of("tenant:", tenantPolicy), defaultPolicy);
+        assertSame(defaultPolicy, resolver.resolve("192.168.0.1"));
+    }
+
+    @Test
+    public void testResolvesLongestPrefix() {
+        PolicyResolver resolver = PolicyResolver.byPrefix(ImmutableMap.of(
+                "tenant:", tenantPolicy,
+                "tenant:admin:", adminPolicy), defaultPolicy);
+        assertSame(tenantPolicy, resolver.resolve("tenant:client"));
+        assertSame(adminPolicy, resolver.resolve("tenant:admin:client"));
+    }
+}
@@ -0,0 +1,390 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.collect.ImmutableMap;
+import com.google.common.util.concurrent.MoreExecutors;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterBuilderTest {
+
+    private FakeTicker ticker;
+    private TokenBucketBuilder.Builder tokenBucketBuilder;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        tokenBucketBuilder = TokenBucketBuilder.builder()
+                .withCapacity(1)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .withTicker(ticker);
+    }
+
+    @Test (expected = NullPointerException.class)
+    public void testTryCreateWithoutTokenBucket() {
+        RateLimiterBuilder.builder().build();
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithZeroMaximumClients() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(0);
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateWithMaximumClientsAndMaximumMemory() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(10)
+                .withMaximumMemory(1024)
+                .build();
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateWithIdleExpiryShorterThanPeriod() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withIdleExpiry(59, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test
+    public void testMaximumClientsEvictsClients() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(10)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.allowRequest("client-" + i));
+            // Buckets that have refilled are dropped when evicted
+            ticker.advance(61, TimeUnit.MINUTES);
+        }
+        assertTrue(rateLimiter.getClientCount() <= 10);
+        assertEquals(100 - rateLimiter.getClientCount(), rateLimiter.getEvictionCount());
+    }
+
+    @Test
+    public void testMaximumMemoryEvictsClients() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumMemory(10 * (RateLimiterBuilder.ESTIMATED_BYTES_PER_CLIENT + 2 * "client-00".length()))
+                .build();
+        for (int i = 0; i < 100; i++) {
+            assertTrue(rateLimiter.allowRequest(String.format("client-%02d", i)));
+            // Buckets that have refilled are dropped when evicted
+            ticker.advance(61, TimeUnit.MINUTES);
+        }
+        assertTrue(rateLimiter.getClientCount() <= 10);
+        assertEquals(100 - rateLimiter.getClientCount(), rateLimiter.getEvictionCount());
+    }
+
+    @Test
+    public void testKeptClientsCountAgainstMaximumClients() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(8)
+                .withConcurrencyLevel(1)
+                .build();
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.allowRequest("client-" + i);
+            assertTrue(rateLimiter.getClientCount() + rateLimiter.getDrainedClientCount() <= 8);
+        }
+        assertEquals(2, rateLimiter.getDrainedClientCount());
+    }
+
+    @Test
+    public void testEvictedClientGetsItsDrainedBucketBack() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(2)
+                .withConcurrencyLevel(1)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client-a"));
+        assertTrue(rateLimiter.allowRequest("client-b"));
+        assertEquals(1, rateLimiter.getEvictionCount());
+        assertFalse(rateLimiter.allowRequest("client-a"));
+    }
+
+    @Test
+    public void testNewClientsShareOverflowBucketUntilEvictedClientsRefill() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder.withCapacity(2))
+                .withMaximumClients(2)
+                .withConcurrencyLevel(1)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client-a", 2));
+        assertTrue(rateLimiter.allowRequest("client-b"));
+        // Client a is kept aside, the new Clients share a bucket of their own
+        assertTrue(rateLimiter.allowRequest("client-c"));
+        assertTrue(rateLimiter.allowRequest("client-d"));
+        assertFalse(rateLimiter.allowRequest("client-e"));
+        // and never take tokens from a known Client
+        assertTrue(rateLimiter.allowRequest("client-b"));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("client-e", 2));
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateWithIdleExpiryShorterThanPolicyPeriod() {
+        RateLimitingPolicy standard = tokenBucketBuilder.buildPolicy();
+        RateLimiterBuilder.builder()
+                .withPolicyResolver(PolicyResolver.byPrefix(ImmutableMap.<String, RateLimitingPolicy>of(), standard))
+                .withIdleExpiry(59, TimeUnit.MINUTES)
+                .build();
+    }
+
+    @Test
+    public void testClientWithResolvedPeriodLongerThanIdleExpiryKeepsItsBucket() {
+        RateLimitingPolicy standard = tokenBucketBuilder.buildPolicy();
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(clientId -> standard)
+                .withTicker(ticker)
+                .withIdleExpiry(59, TimeUnit.MINUTES)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client"));
+
+        // Expired before its bucket refilled, it gets the drained bucket back
+        ticker.advance(60, TimeUnit.MINUTES);
+        rateLimiter.cleanUp();
+        assertEquals(0, rateLimiter.getClientCount());
+        assertFalse(rateLimiter.allowRequest("client"));
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("client"));
+    }
+
+    @Test
+    public void testIdleClientIsExpiredOnlyOnceItsBucketIsFull() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withTicker(ticker)
+                .withIdleExpiry(1, TimeUnit.HOURS)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertFalse(rateLimiter.allowRequest("client"));
+        assertEquals(0, rateLimiter.getEvictionCount());
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        rateLimiter.cleanUp();
+        assertEquals(1, rateLimiter.getEvictionCount());
+        assertEquals(0, rateLimiter.getClientCount());
+        assertTrue(rateLimiter.allowRequest("client"));
+    }
+
+    @Test
+    public void testBuildGcra() {
+        GcraRateLimiter rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withMaximumClients(10)
+                .buildGcra();
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+
+        ticker.advance(1, TimeUnit.HOURS);
+        assertTrue(rateLimiter.allowRequest("client"));
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryBuildGcraWithoutMaximumClients() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .buildGcra();
+    }
+
+    @Test
+    public void testPolicyResolverGivesClientsDifferentLimits() {
+        RateLimitingPolicy premium = tokenBucketBuilder.withCapacity(3).buildPolicy();
+        RateLimitingPolicy standard = tokenBucketBuilder.withCapacity(1).buildPolicy();
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(PolicyResolver.byPrefix(ImmutableMap.of("premium:", premium), standard))
+                .withTicker(ticker)
+                .build();
+        assertTrue(rateLimiter.allowRequest("premium:client", 3));
+        assertFalse(rateLimiter.allowRequest("premium:client"));
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("premium:client", 3));
+    }
+
+    @Test (timeout = 10_000)
+    public void testSlowPolicyResolverDoesNotStallOtherClients() throws InterruptedException {
+        RateLimitingPolicy policy = tokenBucketBuilder.buildPolicy();
+        CountDownLatch resolving = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(clientId -> {
+                    if (clientId.equals("slow")) {
+                        resolving.countDown();
+                        Uninterruptibles.awaitUninterruptibly(release);
+                    }
+                    return policy;
+                })
+                .withConcurrencyLevel(1)
+                .withTicker(ticker)
+                .build();
+        Thread slowClient = new Thread(() -> rateLimiter.allowRequest("slow"));
+        slowClient.start();
+        resolving.await();
+
+        // Every Client shares the one segment, so this would wait for the slow Client if buckets were built under
+        // the cache's lock
+        assertTrue(rateLimiter.allowRequest("fast"));
+        release.countDown();
+        slowClient.join();
+        assertFalse(rateLimiter.allowRequest("slow"));
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateWithTokenBucketAndPolicyResolver() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withPolicyResolver(clientId -> tokenBucketBuilder.buildPolicy())
+                .build();
+    }
+
+    @Test
+    public void testHotKeyShardingKeepsClientLimits() {
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder.withCapacity(2))
+                .withHotKeySharding(3)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client", 2));
+        assertFalse(rateLimiter.allowRequest("client"));
+        assertEquals(0, rateLimiter.getShardedClientCount());
+        // Uncontended clients are not wrapped
+        assertTrue(rateLimiter.bucketFor("client") instanceof TokenBucketImpl);
+
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("client"));
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateHotKeyShardingWithLockFreeBuckets() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder.withLockFree(true))
+                .withHotKeySharding(4)
+                .build();
+    }
+
+    @Test
+    public void testAsyncPolicyResolutionDecidesNewClientWithDefaultPolicy() {
+        RateLimitingPolicy premium = tokenBucketBuilder.withCapacity(3).buildPolicy();
+        RateLimitingPolicy standard = tokenBucketBuilder.withCapacity(1).buildPolicy();
+        AtomicInteger resolutions = new AtomicInteger();
+        Queue<Runnable> resolverTasks = new ArrayDeque<>();
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(clientId -> {
+                    resolutions.incrementAndGet();
+                    return premium;
+                })
+                .withAsyncPolicyResolution(standard, resolverTasks::add)
+                .withTicker(ticker)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+        assertEquals(0, resolutions.get());
+
+        // The resolved bucket starts with the token already consumed
+        resolverTasks.remove().run();
+        assertEquals(1, resolutions.get());
+        assertTrue(rateLimiter.allowRequest("client", 2));
+        assertFalse(rateLimiter.allowRequest("client"));
+        assertTrue(resolverTasks.isEmpty());
+    }
+
+    @Test
+    public void testPolicyRefreshSwapsChangedPolicy() {
+        RateLimitingPolicy premium = tokenBucketBuilder.withCapacity(3).buildPolicy();
+        RateLimitingPolicy standard = tokenBucketBuilder.withCapacity(1).buildPolicy();
+        Map<String, RateLimitingPolicy> policies = new ConcurrentHashMap<>();
+        policies.put("client", standard);
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(policies::get)
+                .withAsyncPolicyResolution(standard, MoreExecutors.directExecutor())
+                .withPolicyRefresh(1, TimeUnit.MINUTES)
+                .withTicker(ticker)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+
+        policies.put("client", premium);
+        ticker.advance(2, TimeUnit.MINUTES);
+        // Resolved on the calling thread by the direct executor, so the request that finds the policy stale is
+        // decided on the refreshed bucket, which keeps the token already consumed
+        assertTrue(rateLimiter.allowRequest("client", 2));
+        assertFalse(rateLimiter.allowRequest("client"));
+    }
+
+    @Test
+    public void testPolicyRefreshEmptiesTheReplacedBucket() {
+        RateLimitingPolicy premium = tokenBucketBuilder.withCapacity(5).buildPolicy();
+        RateLimitingPolicy standard = tokenBucketBuilder.withCapacity(3).buildPolicy();
+        Map<String, RateLimitingPolicy> policies = new ConcurrentHashMap<>();
+        policies.put("client", standard);
+        Queue<Runnable> reloads = new ArrayDeque<>();
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(policies::get)
+                .withAsyncPolicyResolution(standard, reloads::add)
+                .withPolicyRefresh(1, TimeUnit.MINUTES)
+                .withTicker(ticker)
+                .build();
+        assertTrue(rateLimiter.allowRequest("client"));
+        while (!reloads.isEmpty()) {
+            reloads.poll().run();
+        }
+
+        policies.put("client", premium);
+        ticker.advance(2, TimeUnit.MINUTES);
+        // Starts the refresh, decided on the old bucket
+        assertTrue(rateLimiter.allowRequest("client"));
+        TokenBucket old = rateLimiter.bucketFor("client");
+        reloads.poll().run();
+
+        // The old bucket is emptied by the swap, and the new one has been charged both tokens
+        assertFalse(old.consume());
+        assertTrue(rateLimiter.allowRequest("client", 3));
+        assertFalse(rateLimiter.allowRequest("client"));
+    }
+
+    @Test
+    public void testPolicyRefreshKeepsAddedClients() {
+        RateLimitingPolicy standard = tokenBucketBuilder.withCapacity(1).buildPolicy();
+        RateLimiterImpl rateLimiter = RateLimiterBuilder.builder()
+                .withPolicyResolver(clientId -> standard)
+                .withAsyncPolicyResolution(standard, MoreExecutors.directExecutor())
+                .withPolicyRefresh(1, TimeUnit.MINUTES)
+                .withTicker(ticker)
+                .build();
+        rateLimiter.addClient("client", tokenBucketBuilder.withCapacity(2).build());
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest("client", 2));
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateAsyncPolicyResolutionWithoutPolicyResolver() {
+        RateLimiterBuilder.builder()
+                .withTokenBucket(tokenBucketBuilder)
+                .withAsyncPolicyResolution(tokenBucketBuilder.buildPolicy(), MoreExecutors.directExecutor())
+                .build();
+    }
+}
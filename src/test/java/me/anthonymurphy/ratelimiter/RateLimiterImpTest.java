@@ -6,8 +6,12 @@ import org.junit.Test;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
+import java.util.Arrays;
+import java.util.BitSet;
 import java.util.concurrent.TimeUnit;
 
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
@@ -133,4 +137,45 @@ public class RateLimiterImpTest {
 
         assertTrue(rateLimiter.allowRequest(clientId2));
     }
+
+    @Test
+    public void testAllowRequestWithCost() {
+        rateLimiter.addClient(clientId1, tokenBucketClient1);
+        assertTrue(rateLimiter.allowRequest(clientId1, 2));
+        assertFalse(rateLimiter.allowRequest(clientId1, 2));
+        assertTrue(rateLimiter.allowRequest(clientId1, 1));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        // Move forward 61 minutes and the bucket should refill
+        periodStartTimeClient1 = periodStartTimeClient1.plus(61, ChronoUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+    }
+
+    @Test
+    public void testAllowRequestsBatchGrantsEarliestRequestsPerClient() {
+        rateLimiter.addClient(clientId1, tokenBucketClient1);
+        rateLimiter.addClient(clientId2, tokenBucketClient2);
+        assertTrue(rateLimiter.allowRequest(clientId2));
+
+        String[] batch = {clientId1, clientId2, clientId1, clientId2, clientId1, clientId2, clientId1};
+        assertArrayEquals(new boolean[] {true, true, true, true, true, false, false}, rateLimiter.allowRequests(batch));
+
+        assertEquals(0, tokenBucketClient1.getAvailableTokens());
+        assertEquals(0, tokenBucketClient2.getAvailableTokens());
+    }
+
+    @Test
+    public void testAllowRequestsBatchWritesIntoCallerBitSet() {
+        RateLimiter rateLimiterWithCapacityOf1 = new RateLimiterImpl(1, PERIOD , TIME_UNIT_HOURS);
+        BitSet result = new BitSet();
+        result.set(0, 8);
+
+        rateLimiterWithCapacityOf1.allowRequests(Arrays.asList(clientId1, clientId1, clientId2), result);
+
+        assertTrue(result.get(0));
+        assertFalse(result.get(1));
+        assertTrue(result.get(2));
+        // Bits beyond the batch are left alone
+        assertTrue(result.get(3));
+    }
 }
@@ -0,0 +1,116 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.lang.management.ManagementFactory;
+import java.util.Arrays;
+import java.util.BitSet;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimiterMetricsTest {
+
+    private RateLimiterMetrics metrics;
+    private RateLimiterImpl rateLimiter;
+
+    @Before
+    public void setUp() {
+        metrics = RateLimiterMetricsBuilder.builder()
+                .withLatencyHistogram()
+                .withDeniedClients(4)
+                .build();
+        rateLimiter = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(2)
+                        .withPeriod(1)
+                        .withTimeUnit(TimeUnit.HOURS)
+                        .withTicker(new FakeTicker()))
+                .withListener(metrics)
+                .build();
+    }
+
+    @Test
+    public void testCountsDecisions() {
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertTrue(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client"));
+        assertFalse(rateLimiter.allowRequest("client", 2));
+
+        assertEquals(2, metrics.getAllowedCount());
+        assertEquals(2, metrics.getDeniedCount());
+        assertEquals(4, metrics.getLatencyHistogram().getCount());
+        assertEquals(1, metrics.getClientCount());
+        assertEquals(3, metrics.getCacheHitCount());
+    }
+
+    @Test
+    public void testCountsBatchDecisions() {
+        rateLimiter.allowRequests(Arrays.asList("client", "client", "client"), new BitSet());
+
+        assertEquals(2, metrics.getAllowedCount());
+        assertEquals(1, metrics.getDeniedCount());
+    }
+
+    @Test
+    public void testTracksTopDeniedClients() {
+        for (int i = 0; i < 5; i++) {
+            rateLimiter.allowRequest("attacker");
+            rateLimiter.allowRequest("client-" + i);
+        }
+        assertEquals(3L, (long) metrics.getTopDeniedClients().get("attacker"));
+        assertEquals(1, metrics.getTopDeniedClients().size());
+    }
+
+    @Test
+    public void testScalesSampledDeniedClients() {
+        RateLimiterMetrics sampled = RateLimiterMetricsBuilder.builder()
+                .withDeniedClients(4)
+                .withDeniedClientsSampling(4)
+                .build();
+        for (int i = 0; i < 4000; i++) {
+            sampled.onDecision("attacker", 1, false);
+        }
+        long estimate = sampled.getTopDeniedClients().get("attacker");
+        assertEquals(0, estimate % 4);
+        assertTrue(estimate > 3000 && estimate < 5000);
+    }
+
+    @Test
+    public void testReset() {
+        rateLimiter.allowRequest("client");
+        metrics.reset();
+        assertEquals(0, metrics.getAllowedCount());
+        assertEquals(0, metrics.getLatencyHistogram().getCount());
+        assertEquals(1, metrics.getClientCount());
+    }
+
+    @Test
+    public void testWithoutOptionalMetrics() {
+        RateLimiterMetrics countsOnly = RateLimiterMetricsBuilder.builder().build();
+        assertFalse(countsOnly.isLatencyRecorded());
+        countsOnly.onDecision("client", 1, false);
+        assertEquals(1, countsOnly.getDeniedCount());
+        assertEquals(0, countsOnly.getLatency99thPercentile());
+        assertTrue(countsOnly.getTopDeniedClients().isEmpty());
+        assertEquals(0, countsOnly.getCacheHitCount());
+    }
+
+    @Test
+    public void testRegistersWithJmx() throws Exception {
+        rateLimiter.allowRequest("client");
+        ObjectName name = metrics.register("test");
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        try {
+            assertEquals(1L, server.getAttribute(name, "AllowedCount"));
+            assertEquals(1L, server.getAttribute(name, "ClientCount"));
+        } finally {
+            server.unregisterMBean(name);
+        }
+    }
+}
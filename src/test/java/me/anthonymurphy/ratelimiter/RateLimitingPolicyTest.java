@@ -0,0 +1,56 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class RateLimitingPolicyTest {
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithZeroCapacity() {
+        RateLimitingPolicy.of(0, 1, false);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithZeroPeriod() {
+        RateLimitingPolicy.of(1, 0, false);
+    }
+
+    @Test
+    public void testPoliciesAreInterned() {
+        RateLimitingPolicy policy = RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), false);
+        assertSame(policy, RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), false));
+        assertSame(policy, TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(1000)
+                .withTimeUnit(TimeUnit.MILLISECONDS)
+                .buildPolicy());
+        assertNotSame(policy, RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), true));
+    }
+
+    @Test
+    public void testBucketsShareRefillStrategy() {
+        RateLimitingPolicy policy = RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), true);
+        assertSame(policy.getRefillStrategy(), RateLimitingPolicy.of(10, TimeUnit.SECONDS.toNanos(1), true)
+                .getRefillStrategy());
+        assertTrue(policy.getRefillStrategy() instanceof GreedyRefillStrategy);
+    }
+
+    @Test
+    public void testNewTokenBucketEnforcesPolicy() {
+        FakeTicker ticker = new FakeTicker();
+        TokenBucket tokenBucket = RateLimitingPolicy.of(2, TimeUnit.SECONDS.toNanos(1), false).newTokenBucket(ticker);
+        assertEquals(2, tokenBucket.getCapacity());
+        assertTrue(tokenBucket.tryConsume(2));
+        assertFalse(tokenBucket.consume());
+
+        ticker.advance(1001, TimeUnit.MILLISECONDS);
+        assertTrue(tokenBucket.consume());
+    }
+}
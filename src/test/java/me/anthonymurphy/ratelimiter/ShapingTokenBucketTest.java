@@ -0,0 +1,129 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.mockito.ArgumentCaptor;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CopyOnWriteArrayList;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+import static org.mockito.ArgumentMatchers.anyLong;
+import static org.mockito.ArgumentMatchers.eq;
+import static org.mockito.Mockito.doAnswer;
+import static org.mockito.Mockito.mock;
+import static org.mockito.Mockito.spy;
+import static org.mockito.Mockito.verify;
+
+public class ShapingTokenBucketTest {
+
+    private static final long PERIOD_IN_MILLISECONDS = 20;
+    private ShapingTokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        // A token every 20 milliseconds
+        bucket = TokenBucketBuilder.builder()
+                .withCapacity(1)
+                .withPeriod(PERIOD_IN_MILLISECONDS)
+                .withTimeUnit(TimeUnit.MILLISECONDS)
+                .withGreedyRefill(true)
+                .buildShaping();
+    }
+
+    @Test
+    public void testAcquireReturnsAtOnceWhenTokensAreAvailable() {
+        assertTrue(bucket.acquireAsync(1).isDone());
+        assertFalse(bucket.consume());
+    }
+
+    @Test
+    public void testAcquireWaitsForNextToken() {
+        long start = System.nanoTime();
+        setUp();
+        for (int i = 0; i < 3; i++) {
+            bucket.acquire();
+        }
+        // The first token is in the bucket, the next two take a period each to earn
+        long waited = System.nanoTime() - start;
+        assertTrue(waited >= TimeUnit.MILLISECONDS.toNanos(2 * PERIOD_IN_MILLISECONDS));
+    }
+
+    @Test
+    public void testTryAcquireTimesOutWithoutConsumingTokens() {
+        bucket.acquire();
+        assertFalse(bucket.tryAcquire(1, 1, TimeUnit.MILLISECONDS));
+        assertEquals(0, bucket.getWaiterCount());
+        assertTrue(bucket.tryAcquire(1, 1, TimeUnit.SECONDS));
+    }
+
+    @Test
+    public void testWaitersAreServedInOrder() {
+        bucket.acquire();
+        List<Integer> served = new CopyOnWriteArrayList<>();
+        List<CompletableFuture<Void>> futures = new ArrayList<>();
+        for (int i = 0; i < 5; i++) {
+            int waiter = i;
+            futures.add(bucket.acquireAsync(1).thenRun(() -> served.add(waiter)));
+        }
+        // Waiters are served ahead of callers that do not wait
+        assertFalse(bucket.consume());
+
+        CompletableFuture.allOf(futures.toArray(new CompletableFuture[0])).join();
+        assertEquals(Arrays.asList(0, 1, 2, 3, 4), served);
+    }
+
+    @Test
+    public void testCancelledWaiterIsSkipped() {
+        bucket.acquire();
+        CompletableFuture<Void> cancelled = bucket.acquireAsync(1);
+        CompletableFuture<Void> next = bucket.acquireAsync(1);
+        assertTrue(cancelled.cancel(false));
+
+        next.join();
+        assertEquals(0, bucket.getWaiterCount());
+        assertFalse(bucket.consume());
+    }
+
+    @Test
+    public void testTokensOfWaiterCancelledWhileBeingServedAreRefunded() {
+        FakeTicker ticker = new FakeTicker();
+        ScheduledExecutorService scheduler = mock(ScheduledExecutorService.class);
+        TokenBucket tokens = spy(TokenBucketBuilder.builder()
+                .withCapacity(1)
+                .withPeriod(1)
+                .withTimeUnit(TimeUnit.HOURS)
+                .withTicker(ticker)
+                .build());
+        ShapingTokenBucket shaping = new ShapingTokenBucket(tokens, ticker, scheduler);
+        shaping.acquire();
+        CompletableFuture<Void> waiter = shaping.acquireAsync(1);
+        // Cancels the waiter once the drain has taken its token, before its future is completed
+        doAnswer(invocation -> {
+            Object consumed = invocation.callRealMethod();
+            waiter.cancel(false);
+            return consumed;
+        }).when(tokens).tryConsume(anyLong());
+
+        ArgumentCaptor<Runnable> drain = ArgumentCaptor.forClass(Runnable.class);
+        verify(scheduler).schedule(drain.capture(), anyLong(), eq(TimeUnit.NANOSECONDS));
+        ticker.advance(61, TimeUnit.MINUTES);
+        drain.getValue().run();
+
+        assertTrue(waiter.isCancelled());
+        assertEquals(0, shaping.getWaiterCount());
+        assertEquals(1, tokens.getAvailableTokens());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testAcquireMoreThanCapacity() {
+        bucket.acquireAsync(2);
+    }
+}
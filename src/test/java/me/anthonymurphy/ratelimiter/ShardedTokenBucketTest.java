@@ -0,0 +1,193 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class ShardedTokenBucketTest {
+
+    private static final long CAPACITY = 1600;
+    private static final long PERIOD = TimeUnit.HOURS.toNanos(1);
+    private static final int SHARDS = 4;
+    private static final long WINDOW = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private FakeTicker ticker;
+    private TokenBucketImpl bucket;
+    private ShardedTokenBucket shardedBucket;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        bucket = new TokenBucketImpl(ticker, CAPACITY, 1, TimeUnit.HOURS);
+        shardedBucket = new ShardedTokenBucket(bucket, ticker, PERIOD, SHARDS, 10, WINDOW);
+    }
+
+    @Test
+    public void testColdClientUsesBucket() {
+        assertTrue(shardedBucket.tryConsume(CAPACITY));
+        assertFalse(shardedBucket.consume());
+        assertFalse(shardedBucket.isSharded());
+        assertEquals(0, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testShardsTakeBatchesFromBucket() {
+        shardedBucket.split();
+        assertTrue(shardedBucket.consume());
+        // A batch is a sixteenth of the capacity split over the shards
+        assertEquals(CAPACITY - 25, bucket.getAvailableTokens());
+        assertEquals(CAPACITY - 1, shardedBucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testShardedClientGetsCapacity() {
+        shardedBucket.split();
+        assertEquals(CAPACITY, drain());
+        ticker.advance(61, TimeUnit.MINUTES);
+        assertEquals(CAPACITY, drain());
+    }
+
+    @Test
+    public void testShardedClientIsNotRefusedAfterRefill() {
+        shardedBucket.split();
+        assertEquals(CAPACITY, drain());
+        // Found empty just before the refill, which is sooner than it takes a greedy bucket to earn a batch
+        ticker.advance(3599, TimeUnit.SECONDS);
+        assertFalse(shardedBucket.consume());
+        ticker.advance(2, TimeUnit.SECONDS);
+        assertEquals(CAPACITY, drain());
+    }
+
+    @Test
+    public void testTokensAreStolenFromOtherShards() throws InterruptedException {
+        shardedBucket.split();
+        // Another thread leaves most of a batch on its shard
+        Thread other = new Thread(shardedBucket::consume);
+        other.start();
+        other.join();
+        assertEquals(CAPACITY - 1, drain());
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverExceedCapacity() throws InterruptedException {
+        shardedBucket.split();
+        AtomicLong allowed = new AtomicLong();
+        Thread[] threads = new Thread[8];
+        for (int i = 0; i < threads.length; i++) {
+            threads[i] = new Thread(() -> {
+                for (int request = 0; request < CAPACITY; request++) {
+                    if (shardedBucket.consume()) {
+                        allowed.incrementAndGet();
+                    }
+                }
+            });
+            threads[i].start();
+        }
+        for (Thread thread : threads) {
+            thread.join();
+        }
+        assertEquals(CAPACITY, allowed.get() + shardedBucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumeUpToWhileSharded() {
+        shardedBucket.split();
+        assertEquals(CAPACITY, shardedBucket.consumeUpTo(CAPACITY + 10));
+        assertEquals(0, shardedBucket.consumeUpTo(10));
+    }
+
+    @Test
+    public void testMergeRefundsShards() {
+        shardedBucket.split();
+        assertTrue(shardedBucket.consume());
+        shardedBucket.merge();
+        assertFalse(shardedBucket.isSharded());
+        assertEquals(CAPACITY - 1, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testContendedClientIsSharded() throws InterruptedException {
+        CountDownLatch refilling = new CountDownLatch(1);
+        CountDownLatch release = new CountDownLatch(1);
+        AtomicBoolean block = new AtomicBoolean(true);
+        RefillStrategy blockingRefill = new SimpleRefillStrategy(CAPACITY, 1, TimeUnit.HOURS) {
+            @Override
+            public long tokensToAdd(long lastRefillTime, long currentTime) {
+                if (block.compareAndSet(true, false)) {
+                    refilling.countDown();
+                    awaitUninterruptibly(release);
+                }
+                return super.tokensToAdd(lastRefillTime, currentTime);
+            }
+        };
+        bucket = new TokenBucketImpl(ticker, CAPACITY, blockingRefill);
+        shardedBucket = new ShardedTokenBucket(bucket, ticker, PERIOD, SHARDS, 1, WINDOW);
+
+        // The first thread holds the bucket's lock while the second waits for it
+        Thread holder = new Thread(shardedBucket::consume);
+        holder.start();
+        awaitUninterruptibly(refilling);
+        Thread waiter = new Thread(shardedBucket::consume);
+        waiter.start();
+        while (waiter.getState() != Thread.State.WAITING) {
+            Thread.yield();
+        }
+        release.countDown();
+        holder.join();
+        waiter.join();
+
+        assertEquals(1, bucket.getContendedCount());
+        assertTrue(shardedBucket.isSharded());
+    }
+
+    @Test
+    public void testQuietClientIsMerged() {
+        shardedBucket.split();
+        assertTrue(shardedBucket.consume());
+        ticker.advance(WINDOW, TimeUnit.NANOSECONDS);
+        // Requests only look at the bucket once their shard runs dry
+        assertTrue(shardedBucket.tryConsume(25));
+        assertFalse(shardedBucket.isSharded());
+        assertEquals(CAPACITY - 26, shardedBucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testBusyClientStaysSharded() {
+        shardedBucket.split();
+        for (int i = 0; i < 20; i++) {
+            assertTrue(shardedBucket.consume());
+        }
+        ticker.advance(WINDOW, TimeUnit.NANOSECONDS);
+        assertTrue(shardedBucket.tryConsume(25));
+        assertTrue(shardedBucket.isSharded());
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithShardsNotAPowerOfTwo() {
+        new ShardedTokenBucket(bucket, ticker, PERIOD, 3);
+    }
+
+    private long drain() {
+        long consumed = 0;
+        while (shardedBucket.consume()) {
+            consumed++;
+        }
+        return consumed;
+    }
+
+    private static void awaitUninterruptibly(CountDownLatch latch) {
+        try {
+            latch.await();
+        } catch (InterruptedException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+}
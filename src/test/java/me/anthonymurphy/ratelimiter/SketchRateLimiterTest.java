@@ -0,0 +1,184 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SketchRateLimiterTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD_IN_NANOSECONDS = TimeUnit.HOURS.toNanos(1);
+    private FakeTicker ticker;
+    private SketchRateLimiter rateLimiter;
+    private String clientId1 = "127.0.0.1";
+    private String clientId2 = "192.168.01";
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        rateLimiter = new SketchRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 1024, 4);
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateWithZeroDepth() {
+        new SketchRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 1024, 0);
+    }
+
+    @Test
+    public void testWidthIsRoundedUpToPowerOfTwo() {
+        rateLimiter = new SketchRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 1000, 3);
+        assertEquals(1024, rateLimiter.getWidth());
+        assertEquals(3, rateLimiter.getDepth());
+    }
+
+    @Test
+    public void testBurstOfCapacityThenOneTokenPerEmissionInterval() {
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+        assertEquals(0, rateLimiter.getAvailableTokens(clientId1));
+
+        ticker.advance(59, TimeUnit.SECONDS);
+        assertFalse(rateLimiter.allowRequest(clientId1));
+        ticker.advance(1, TimeUnit.SECONDS);
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        ticker.advance(10, TimeUnit.MINUTES);
+        assertEquals(10, rateLimiter.getAvailableTokens(clientId1));
+        assertTrue(rateLimiter.allowRequest(clientId1, 10));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+    }
+
+    @Test
+    public void testDeniedRequestConsumesNothing() {
+        assertTrue(rateLimiter.allowRequest(clientId1, 40));
+        assertFalse(rateLimiter.allowRequest(clientId1, 21));
+        assertTrue(rateLimiter.allowRequest(clientId1, 20));
+    }
+
+    @Test
+    public void testCostGreaterThanCapacityIsNeverAllowed() {
+        assertFalse(rateLimiter.allowRequest(clientId1, CAPACITY + 1));
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+    }
+
+    @Test
+    public void testClientsHaveSeparateEstimates() {
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        assertTrue(rateLimiter.allowRequest(clientId2, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId2));
+    }
+
+    @Test
+    public void testCollisionsOnlyDenyAndNeverOverGrant() {
+        // A single counter, every Client shares the same estimate
+        rateLimiter = new SketchRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 1, 1);
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId2));
+
+        ticker.advance(1, TimeUnit.HOURS);
+        assertTrue(rateLimiter.allowRequest(clientId2, CAPACITY));
+    }
+
+    @Test
+    public void testManyClientsInSmallSketchStayWithinCapacity() {
+        rateLimiter = new SketchRateLimiter(ticker, CAPACITY, PERIOD_IN_NANOSECONDS, 64, 2);
+        for (int i = 0; i < 10_000; i++) {
+            String clientId = "client-" + i;
+            long granted = 0;
+            while (granted <= CAPACITY && rateLimiter.allowRequest(clientId)) {
+                granted++;
+            }
+            assertTrue(granted <= CAPACITY);
+        }
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddClientIsNotSupported() {
+        rateLimiter.addClient(clientId1, new TokenBucketImpl(ticker, CAPACITY, 1, TimeUnit.HOURS));
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverOverGrant() throws InterruptedException {
+        final int threads = 8;
+        final long capacity = 10_000;
+        rateLimiter = new SketchRateLimiter(Ticker.systemTicker(), capacity, PERIOD_IN_NANOSECONDS, 1024, 4);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < capacity; j++) {
+                    if (rateLimiter.allowRequest(clientId1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Allow for the tokens earned while the threads ran
+        assertTrue(granted.get() >= capacity);
+        assertTrue(granted.get() <= capacity + 10);
+    }
+
+    @Test
+    public void testLongKeysHaveTheirOwnBuckets() {
+        assertTrue(rateLimiter.allowRequest(1L, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(1L));
+        assertTrue(rateLimiter.allowRequest(2L));
+    }
+
+    @Test
+    public void testRacingRequestsForNewClientsAreGrantedOnce() throws InterruptedException {
+        final int threads = 4;
+        final int clients = 10_000;
+        // A token each and a stopped clock, so each Client can be granted a single request between all the threads
+        rateLimiter = new SketchRateLimiter(ticker, 1, PERIOD_IN_NANOSECONDS, 1 << 16, 4);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (long clientKey = 0; clientKey < clients; clientKey++) {
+                    if (rateLimiter.allowRequest(clientKey, 1)) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        // Collisions can deny a few Clients their request, racing threads never grant a Client two
+        assertTrue(granted.get() <= clients);
+        assertTrue(granted.get() > clients * 99 / 100);
+    }
+}
@@ -0,0 +1,105 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowCounterBucketTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD = 1;
+    private static final TimeUnit TIME_UNIT_HOURS = TimeUnit.HOURS;
+    private FakeTicker ticker;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        bucket = new SlidingWindowCounterBucket(ticker, CAPACITY, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testGetCapacity() {
+        assertEquals(CAPACITY, bucket.getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testZeroCapacityCreate() {
+        new SlidingWindowCounterBucket(ticker, 0, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testAvailableTokensAfterCreation() {
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumingTokenDecreasesAvailableTokens() {
+        assertTrue(bucket.consume());
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY - 2, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testCannotBurstTwiceTheCapacityAcrossWindowBoundary() {
+        ticker.advance(59, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(CAPACITY));
+
+        // A fixed window would be full again, the sliding window still overlaps 59 minutes of the previous window
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertEquals(1, bucket.consumeUpTo(CAPACITY));
+        assertFalse(bucket.consume());
+    }
+
+    @Test
+    public void testPreviousWindowSlidesOutGradually() {
+        assertTrue(bucket.tryConsume(CAPACITY));
+        ticker.advance(90, TimeUnit.MINUTES);
+        assertEquals(CAPACITY / 2, bucket.getAvailableTokens());
+
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testIdleForMoreThanTwoWindowsForgetsAllRequests() {
+        assertTrue(bucket.tryConsume(CAPACITY));
+        ticker.advance(150, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(CAPACITY));
+    }
+
+    @Test
+    public void testTryConsumeMoreTokensThanAvailableConsumesNothing() {
+        assertTrue(bucket.tryConsume(40));
+        assertFalse(bucket.tryConsume(21));
+        assertEquals(CAPACITY - 40, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testNextRefillTime() {
+        Instant start = bucket.getNextRefillTime().minusSeconds(3600);
+        assertTrue(bucket.tryConsume(CAPACITY));
+        assertEquals(start.plusSeconds(3600), bucket.getNextRefillTime());
+
+        // Each minute one of the previous window's 60 requests slides out of the window
+        ticker.advance(60, TimeUnit.MINUTES);
+        assertEquals(start.plusSeconds(3660), bucket.getNextRefillTime());
+        ticker.advance(1, TimeUnit.MINUTES);
+        assertEquals(1, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testRefundTakesTokensOffTheCurrentWindow() {
+        assertTrue(bucket.tryConsume(10));
+        bucket.refund(4);
+        assertEquals(CAPACITY - 6, bucket.getAvailableTokens());
+        bucket.refund(CAPACITY);
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+}
@@ -0,0 +1,111 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.time.Instant;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class SlidingWindowLogBucketTest {
+
+    private static final long CAPACITY = 60;
+    private static final long PERIOD = 1;
+    private static final TimeUnit TIME_UNIT_HOURS = TimeUnit.HOURS;
+    private FakeTicker ticker;
+    private TokenBucket bucket;
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        bucket = new SlidingWindowLogBucket(ticker, CAPACITY, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testGetCapacity() {
+        assertEquals(CAPACITY, bucket.getCapacity());
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testCapacityTooLargeCreate() {
+        new SlidingWindowLogBucket(ticker, SlidingWindowLogBucket.MAX_CAPACITY + 1, PERIOD, TIME_UNIT_HOURS);
+    }
+
+    @Test
+    public void testAvailableTokensAfterCreation() {
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testTokensReturnOnePeriodAfterTheyWereConsumed() {
+        assertTrue(bucket.consume());
+        for (int minute = 1; minute < CAPACITY; minute++) {
+            ticker.advance(1, TimeUnit.MINUTES);
+            assertTrue(bucket.consume());
+        }
+        assertFalse(bucket.consume());
+
+        // An hour after it was consumed each token can be used again, one a minute
+        for (int minute = 0; minute < CAPACITY; minute++) {
+            ticker.advance(1, TimeUnit.MINUTES);
+            assertTrue(bucket.consume());
+            assertFalse(bucket.consume());
+        }
+    }
+
+    @Test
+    public void testCannotBurstTwiceTheCapacityAcrossWindowBoundary() {
+        ticker.advance(59, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(CAPACITY));
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertFalse(bucket.consume());
+        ticker.advance(58, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(CAPACITY));
+    }
+
+    @Test
+    public void testTryConsumeMoreTokensThanAvailableConsumesNothing() {
+        assertTrue(bucket.tryConsume(40));
+        assertFalse(bucket.tryConsume(21));
+        assertEquals(CAPACITY - 40, bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testConsumeUpToTakesOnlyAvailableTokens() {
+        assertEquals(25, bucket.consumeUpTo(25));
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertEquals(CAPACITY - 25, bucket.consumeUpTo(CAPACITY));
+        assertEquals(0, bucket.consumeUpTo(1));
+
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertEquals(25, bucket.consumeUpTo(CAPACITY));
+    }
+
+    @Test
+    public void testNextRefillTimeIsWhenOldestTokenExpires() {
+        Instant start = bucket.getNextRefillTime();
+        assertTrue(bucket.consume());
+        ticker.advance(10, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertEquals(start.plusSeconds(3600), bucket.getNextRefillTime());
+
+        ticker.advance(50, TimeUnit.MINUTES);
+        assertEquals(start.plusSeconds(4200), bucket.getNextRefillTime());
+    }
+
+    @Test
+    public void testRefundRemovesNewestTokens() {
+        assertTrue(bucket.tryConsume(10));
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertTrue(bucket.tryConsume(10));
+        bucket.refund(10);
+        assertEquals(CAPACITY - 10, bucket.getAvailableTokens());
+
+        // Only the tokens consumed first were left, and they leave the window after an hour
+        ticker.advance(30, TimeUnit.MINUTES);
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
+}
@@ -0,0 +1,200 @@
+package me.anthonymurphy.ratelimiter;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.time.Clock;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class StripedRateLimiterTest {
+
+    private static final long CAPACITY = 3;
+    private static final long PERIOD = 1;
+    private static final TimeUnit TIME_UNIT_HOURS = TimeUnit.HOURS;
+    private FakeTicker ticker;
+    private StripedRateLimiter rateLimiter;
+    private String clientId1 = "127.0.0.1";
+    private String clientId2 = "192.168.01";
+
+    @Before
+    public void setUp() {
+        ticker = new FakeTicker();
+        rateLimiter = rateLimiter(CAPACITY, 16, 1_000_000);
+    }
+
+    private StripedRateLimiter rateLimiter(long capacity, int segments, long maximumClients) {
+        return new StripedRateLimiter(ticker, capacity, new SimpleRefillStrategy(capacity, PERIOD, TIME_UNIT_HOURS),
+                segments, maximumClients);
+    }
+
+    @Test
+    public void testAllowRequestAfterDepletionAndRefill() {
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        assertTrue(rateLimiter.allowRequest(clientId1));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        ticker.advance(59, TimeUnit.MINUTES);
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertTrue(rateLimiter.allowRequest(clientId1));
+    }
+
+    @Test
+    public void testClientsHaveSeparateBuckets() {
+        assertTrue(rateLimiter.allowRequest(clientId1, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId1));
+
+        assertTrue(rateLimiter.allowRequest(clientId2, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(clientId2));
+        assertEquals(2, rateLimiter.getClientCount());
+    }
+
+    @Test
+    public void testAllowRequestWithCostMoreThanAvailable() {
+        assertTrue(rateLimiter.allowRequest(clientId1, 2));
+        assertFalse(rateLimiter.allowRequest(clientId1, 2));
+        assertTrue(rateLimiter.allowRequest(clientId1, 1));
+    }
+
+    @Test
+    public void testGrowsToHoldManyClients() {
+        for (int i = 0; i < 10_000; i++) {
+            assertTrue(rateLimiter.allowRequest("client-" + i, CAPACITY));
+        }
+        for (int i = 0; i < 10_000; i++) {
+            assertFalse(rateLimiter.allowRequest("client-" + i));
+        }
+        assertEquals(10_000, rateLimiter.getClientCount());
+    }
+
+    @Test
+    public void testFullBucketsAreDroppedWhenAtMaximumClients() {
+        rateLimiter = rateLimiter(CAPACITY, 1, 2);
+        for (int i = 0; i < 100; i++) {
+            // Clients that use a token keep a bucket that is not full
+            assertTrue(rateLimiter.allowRequest("client-" + i));
+            ticker.advance(2, TimeUnit.HOURS);
+        }
+        assertTrue(rateLimiter.getClientCount() <= BucketSegment.MINIMUM_SLOT_COUNT);
+    }
+
+    @Test
+    public void testClientsShareBucketsRatherThanGetNewOnesWhenFull() {
+        rateLimiter = rateLimiter(1, 1, 2);
+        for (int i = 0; i < 100; i++) {
+            rateLimiter.allowRequest("client-" + i);
+        }
+        long allowed = 0;
+        for (int i = 0; i < 100; i++) {
+            if (rateLimiter.allowRequest("client-" + i)) {
+                allowed++;
+            }
+        }
+        assertEquals(0, allowed);
+        assertTrue(rateLimiter.getClientCount() < BucketSegment.MINIMUM_SLOT_COUNT);
+    }
+
+    @Test(expected = UnsupportedOperationException.class)
+    public void testAddClient() {
+        rateLimiter.addClient(clientId1, new TokenBucketImpl(Clock.systemUTC(), 1, PERIOD, TIME_UNIT_HOURS));
+    }
+
+    @Test
+    public void testBuildStriped() {
+        StripedRateLimiter built = RateLimiterBuilder.builder()
+                .withTokenBucket(TokenBucketBuilder.builder()
+                        .withCapacity(1)
+                        .withPeriod(PERIOD)
+                        .withTimeUnit(TIME_UNIT_HOURS)
+                        .withTicker(ticker)
+                        .withGreedyRefill(true))
+                .withMaximumClients(1000)
+                .withConcurrencyLevel(3)
+                .buildStriped();
+        assertTrue(built.allowRequest(clientId1));
+        assertFalse(built.allowRequest(clientId1));
+        ticker.advance(PERIOD, TIME_UNIT_HOURS);
+        assertTrue(built.allowRequest(clientId1));
+    }
+
+    @Test
+    public void testConcurrentRequestsNeverOverGrant() throws InterruptedException {
+        final int threads = 8;
+        final long capacity = 10_000;
+        rateLimiter = rateLimiter(capacity, 4, 1000);
+        AtomicLong granted = new AtomicLong();
+        CountDownLatch start = new CountDownLatch(1);
+        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        for (int i = 0; i < threads; i++) {
+            executor.execute(() -> {
+                try {
+                    start.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                for (int j = 0; j < 2 * capacity; j++) {
+                    if (rateLimiter.allowRequest("client-" + (j % 10))) {
+                        granted.incrementAndGet();
+                    }
+                }
+            });
+        }
+        start.countDown();
+        executor.shutdown();
+        assertTrue(executor.awaitTermination(30, TimeUnit.SECONDS));
+
+        assertEquals(10 * capacity, granted.get());
+    }
+
+    @Test
+    public void testLongKeysHaveTheirOwnBuckets() {
+        assertTrue(rateLimiter.allowRequest(1L, CAPACITY));
+        assertFalse(rateLimiter.allowRequest(1L));
+        assertTrue(rateLimiter.allowRequest(2L));
+    }
+
+    @Test
+    public void testByteKeysMatchWhateverHoldsThem() {
+        byte[] clientId = clientId1.getBytes(StandardCharsets.US_ASCII);
+        assertTrue(rateLimiter.allowRequest(clientId));
+        assertTrue(rateLimiter.allowRequest(ByteBuffer.wrap(clientId)));
+        ByteBuffer direct = ByteBuffer.allocateDirect(clientId.length).put(clientId);
+        direct.flip();
+        assertTrue(rateLimiter.allowRequest(direct));
+        assertFalse(rateLimiter.allowRequest(clientId));
+        assertEquals(0, direct.position());
+    }
+
+    @Test
+    public void testIpv4NetworkSharesBucket() {
+        int network = 0xC0000200;
+        for (int host = 1; host <= CAPACITY; host++) {
+            assertTrue(rateLimiter.allowRequest(ClientIds.ipv4(network | host, 24)));
+        }
+        assertFalse(rateLimiter.allowRequest(ClientIds.ipv4(network | 200, 24)));
+        assertTrue(rateLimiter.allowIpv4Request(network | 200));
+        assertTrue(rateLimiter.allowRequest(ClientIds.ipv4(0xC0000300, 24)));
+    }
+
+    @Test
+    public void testIpv6NetworkSharesBucket() {
+        long subnet = 0x20010DB800000001L;
+        assertTrue(rateLimiter.allowRequest(ClientIds.ipv6(subnet, 1, 64), CAPACITY));
+        assertFalse(rateLimiter.allowRequest(ClientIds.ipv6(subnet, 0xFFFFL, 64)));
+        assertTrue(rateLimiter.allowIpv6Request(subnet, 0xFFFFL));
+        assertTrue(rateLimiter.allowRequest(ClientIds.ipv6(subnet + 1, 1, 64)));
+    }
+}
@@ -0,0 +1,57 @@
+package me.anthonymurphy.ratelimiter;
+
+import com.google.common.base.Ticker;
+import com.google.common.util.concurrent.Uninterruptibles;
+import org.junit.Test;
+
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.assertTrue;
+
+public class TickersTest {
+
+    @Test
+    public void testCoarseTickerIsSharedPerResolution() {
+        assertSame(Tickers.coarse(1, TimeUnit.MILLISECONDS), Tickers.coarse(1000, TimeUnit.MICROSECONDS));
+        assertNotSame(Tickers.coarse(1, TimeUnit.MILLISECONDS), Tickers.coarse(2, TimeUnit.MILLISECONDS));
+    }
+
+    @Test
+    public void testCoarseTickerFollowsSystemTicker() {
+        Ticker ticker = Tickers.coarse(1, TimeUnit.MILLISECONDS);
+        long start = ticker.read();
+        Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        long end = ticker.read();
+        assertTrue(end > start);
+        // Never ahead of the time it was read from
+        assertTrue(end <= Ticker.systemTicker().read());
+    }
+
+    @Test
+    public void testCoarseTickerIsMonotonic() {
+        Ticker ticker = Tickers.coarse(1, TimeUnit.MILLISECONDS);
+        long previous = ticker.read();
+        for (int i = 0; i < 1_000_000; i++) {
+            long now = ticker.read();
+            assertTrue(now >= previous);
+            previous = now;
+        }
+    }
+
+    @Test
+    public void testEpochOffsetIsSampledOncePerTicker() {
+        FakeTicker ticker = new FakeTicker();
+        long offset = Tickers.epochOffset(ticker);
+        Uninterruptibles.sleepUninterruptibly(5, TimeUnit.MILLISECONDS);
+        assertEquals(offset, Tickers.epochOffset(ticker));
+        assertEquals(0, Tickers.epochOffset(Tickers.systemEpochTicker()));
+    }
+
+    @Test (expected = IllegalArgumentException.class)
+    public void testTryCreateCoarseTickerWithNoResolution() {
+        Tickers.coarse(0, TimeUnit.MILLISECONDS);
+    }
+}
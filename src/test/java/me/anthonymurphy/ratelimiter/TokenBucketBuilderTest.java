@@ -1,5 +1,6 @@
 package me.anthonymurphy.ratelimiter;
 
+import com.google.common.util.concurrent.Uninterruptibles;
 import org.junit.Test;
 
 import java.time.Clock;
@@ -8,6 +9,8 @@ import java.time.temporal.ChronoUnit;
 import java.util.concurrent.TimeUnit;
 
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
 
@@ -66,4 +69,88 @@ public class TokenBucketBuilderTest {
         assertEquals(nextRefillTime,bucket.getNextRefillTime());
     }
 
+    @Test
+    public void testCreateLockFree() {
+        TokenBucket bucket = TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .withLockFree(true)
+                .build();
+        assertTrue(bucket instanceof LockFreeTokenBucket);
+        assertEquals(10,bucket.getAvailableTokens());
+    }
+
+    @Test
+    public void testCreateWithTicker() {
+        FakeTicker ticker = new FakeTicker();
+        TokenBucket bucket = TokenBucketBuilder.builder()
+                .withCapacity(1)
+                .withPeriod(10)
+                .withTicker(ticker)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .build();
+        assertTrue(bucket.consume());
+        assertFalse(bucket.consume());
+        ticker.advance(11, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+    }
+
+    @Test
+    public void testCreateWithCoarseTicker() {
+        TokenBucket bucket = TokenBucketBuilder.builder()
+                .withCapacity(1)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MILLISECONDS)
+                .withCoarseTicker(1, TimeUnit.MILLISECONDS)
+                .build();
+        assertTrue(bucket.consume());
+        assertFalse(bucket.consume());
+        Uninterruptibles.sleepUninterruptibly(50, TimeUnit.MILLISECONDS);
+        assertTrue(bucket.consume());
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateLockFreeWithGreedyRefill() {
+        TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .withLockFree(true)
+                .withGreedyRefill(true)
+                .build();
+    }
+
+    @Test
+    public void testCreateSlidingWindows() {
+        TokenBucket counter = TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .withAlgorithm(TokenBucketBuilder.Algorithm.SLIDING_WINDOW_COUNTER)
+                .build();
+        assertTrue(counter instanceof SlidingWindowCounterBucket);
+        assertEquals(10, counter.getAvailableTokens());
+
+        TokenBucket log = TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .withAlgorithm(TokenBucketBuilder.Algorithm.SLIDING_WINDOW_LOG)
+                .build();
+        assertTrue(log instanceof SlidingWindowLogBucket);
+        assertEquals(10, log.getAvailableTokens());
+    }
+
+    @Test (expected = IllegalStateException.class)
+    public void testTryCreateSlidingWindowWithGreedyRefill() {
+        TokenBucketBuilder.builder()
+                .withCapacity(10)
+                .withPeriod(10)
+                .withTimeUnit(TimeUnit.MINUTES)
+                .withAlgorithm(TokenBucketBuilder.Algorithm.SLIDING_WINDOW_COUNTER)
+                .withGreedyRefill(true)
+                .build();
+    }
+
 }
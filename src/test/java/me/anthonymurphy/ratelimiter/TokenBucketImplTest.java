@@ -1,8 +1,10 @@
 package me.anthonymurphy.ratelimiter;
 
+import com.google.common.base.Ticker;
 import org.junit.Before;
 import org.junit.Test;
 
+import java.lang.management.ManagementFactory;
 import java.time.Clock;
 import java.time.Instant;
 import java.time.temporal.ChronoUnit;
@@ -11,6 +13,7 @@ import java.util.concurrent.TimeUnit;
 import static org.junit.Assert.assertFalse;
 import static org.junit.Assert.assertTrue;
 import static org.junit.Assert.assertEquals;
+import static org.junit.Assume.assumeTrue;
 
 import static org.mockito.Mockito.mock;
 import static org.mockito.Mockito.when;
@@ -179,7 +182,80 @@ public class TokenBucketImplTest {
         assertEquals(CAPACITY, bucket.getAvailableTokens());
     }
 
+    @Test
+    public void testBucketDrivenByTickerIsRefilledAfterNextRefillTime() {
+        FakeTicker ticker = new FakeTicker();
+        bucket = new TokenBucketImpl(ticker, CAPACITY, PERIOD, TIME_UNIT_HOURS);
+        Instant originalNextRefillTime = bucket.getNextRefillTime();
+        assertTrue(bucket.consume());
+
+        ticker.advance(59, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY-2, bucket.getAvailableTokens());
+
+        ticker.advance(2, TimeUnit.MINUTES);
+        assertTrue(bucket.consume());
+        assertEquals(CAPACITY-1, bucket.getAvailableTokens());
+        assertEquals(originalNextRefillTime.plus(1, ChronoUnit.HOURS), bucket.getNextRefillTime());
+    }
+
+    @Test
+    public void testConsumeDoesNotAllocate() {
+        java.lang.management.ThreadMXBean threadBean = ManagementFactory.getThreadMXBean();
+        assumeTrue(threadBean instanceof com.sun.management.ThreadMXBean);
+        com.sun.management.ThreadMXBean allocationBean = (com.sun.management.ThreadMXBean) threadBean;
+        assumeTrue(allocationBean.isThreadAllocatedMemorySupported());
+        allocationBean.setThreadAllocatedMemoryEnabled(true);
+
+        bucket = new TokenBucketImpl(Ticker.systemTicker(), Long.MAX_VALUE, PERIOD, TIME_UNIT_HOURS);
+        long threadId = Thread.currentThread().getId();
+        for (int i = 0; i < 100_000; i++) {
+            bucket.consume();
+        }
+
+        long before = allocationBean.getThreadAllocatedBytes(threadId);
+        for (int i = 0; i < 100_000; i++) {
+            bucket.consume();
+        }
+        long allocated = allocationBean.getThreadAllocatedBytes(threadId) - before;
+
+        // Allow for the bytes allocated by getThreadAllocatedBytes itself
+        assertTrue("consume allocated " + allocated + " bytes", allocated < 1024);
+    }
 
+    @Test
+    public void testTryConsumeMultipleTokens() {
+        assertTrue(bucket.tryConsume(40));
+        assertEquals(CAPACITY-40, bucket.getAvailableTokens());
+    }
 
+    @Test
+    public void testTryConsumeMoreTokensThanAvailableConsumesNothing() {
+        assertTrue(bucket.tryConsume(40));
+        assertFalse(bucket.tryConsume(21));
+        assertEquals(CAPACITY-40, bucket.getAvailableTokens());
+        assertTrue(bucket.tryConsume(20));
+    }
+
+    @Test(expected = IllegalArgumentException.class)
+    public void testTryConsumeZeroTokens() {
+        bucket.tryConsume(0);
+    }
 
+    @Test
+    public void testConsumeUpToTakesOnlyAvailableTokens() {
+        assertTrue(bucket.tryConsume(50));
+        assertEquals(10, bucket.consumeUpTo(25));
+        assertEquals(0, bucket.getAvailableTokens());
+        assertEquals(0, bucket.consumeUpTo(1));
+    }
+
+    @Test
+    public void testRefundReturnsTokensUpToCapacity() {
+        assertTrue(bucket.tryConsume(10));
+        bucket.refund(4);
+        assertEquals(CAPACITY - 6, bucket.getAvailableTokens());
+        bucket.refund(CAPACITY);
+        assertEquals(CAPACITY, bucket.getAvailableTokens());
+    }
 }